@@ -0,0 +1,229 @@
+package org.jenkinsci.plugins.testresultsanalyzer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.BuildResults;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.DurationStatistics;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.Info;
+
+/**
+ * The test cases whose latest duration within a window of builds is a significant regression. The latest passed or
+ * failed result of each test is compared with the {@link DurationStatistics} of its earlier results in the window.
+ * A test regressed if the duration is at least {@link #THRESHOLD} standard deviations above their mean. When the
+ * window holds every result of a test the statistics kept by the results as builds are added are used, so the test
+ * is checked without looking at its earlier builds. Only the most significant regressions are kept, in a heap like
+ * {@link WorstTests}.
+ */
+public class DurationRegressions {
+
+	/**
+	 * Number of standard deviations above the mean from which a duration is a regression.
+	 */
+	public static final double THRESHOLD = 3;
+
+	/**
+	 * Number of earlier results a test needs before its durations are compared.
+	 */
+	static final int MIN_RUNS = 5;
+
+	/**
+	 * Lower bound of the standard deviation, in seconds, so tests which always took the same time do not regress
+	 * by a few milliseconds.
+	 */
+	static final double MIN_DEVIATION = 0.05;
+
+	private final List<Integer> builds;
+	private final int count;
+	private final PriorityQueue<Regression> heap;
+	private final double[] durations;
+
+	/**
+	 * @param builds the builds to look at, newest first
+	 * @param count the number of tests to keep
+	 */
+	public DurationRegressions(List<Integer> builds, int count) {
+		this.builds = builds;
+		this.count = Math.max(0, count);
+		durations = new double[builds.size()];
+		// the head of the heap is the least significant of the kept regressions
+		heap = new PriorityQueue<Regression>(this.count + 1, COMPARATOR);
+	}
+
+	/**
+	 * Checks the test cases below the given nodes.
+	 *
+	 * @param nodes the nodes to walk, usually the packages of a history
+	 */
+	public void addAll(Iterable<? extends Info> nodes) {
+		for (Info info : nodes) {
+			add(info);
+		}
+	}
+
+	private void add(Info info) {
+		Map<String, ? extends Info> children = info.getChildren();
+		if (children != null) {
+			for (Info child : children.values()) {
+				add(child);
+			}
+			return;
+		}
+		if (count == 0) {
+			return;
+		}
+
+		BuildResults results = info.getResults();
+		int latest = -1;
+		int runs = 0;
+		int timed = 0;
+		for (Integer buildNumber : builds) {
+			int index = results.indexOf(buildNumber);
+			if (index < 0) {
+				continue;
+			}
+			runs++;
+			if (isTimed(results.getStatus(index))) {
+				if (latest < 0) {
+					latest = index;
+				}
+				durations[timed++] = results.getTotalTimeTaken(index);
+			}
+		}
+		if (latest < 0) {
+			return;
+		}
+		double duration = results.getTotalTimeTaken(latest);
+		DurationStatistics baseline;
+		if (runs == results.size()) {
+			// the window covers every result, the statistics kept by the results are the same
+			baseline = results.getDurationStatistics().withoutNewest(duration);
+		} else {
+			baseline = DurationStatistics.of(durations, 1, timed);
+		}
+		if (baseline.getCount() < MIN_RUNS) {
+			return;
+		}
+		double score = (duration - baseline.getMean()) / Math.max(baseline.getStandardDeviation(), MIN_DEVIATION);
+		if (score < THRESHOLD) {
+			return;
+		}
+
+		Regression regression = new Regression(info, latest, duration, baseline, score);
+		if (heap.size() < count) {
+			heap.add(regression);
+		} else if (COMPARATOR.compare(regression, heap.peek()) > 0) {
+			heap.poll();
+			heap.add(regression);
+		}
+	}
+
+	private static boolean isTimed(ResultStatus status) {
+		return status == ResultStatus.PASSED || status == ResultStatus.FAILED;
+	}
+
+	/**
+	 * @return the kept regressions, most significant first
+	 */
+	public List<Regression> getRegressions() {
+		List<Regression> regressions = new ArrayList<Regression>(heap);
+		Collections.sort(regressions, Collections.reverseOrder(COMPARATOR));
+		return regressions;
+	}
+
+	/**
+	 * The kept regressions: the names of the test and its ancestors joined by dots, the build and duration of the
+	 * latest result, the mean, standard deviation and moving average of the earlier durations, the score in
+	 * standard deviations and how many times slower the test got.
+	 *
+	 * @return the regressions, most significant first
+	 */
+	public JSONArray toJson() {
+		JSONArray json = new JSONArray();
+		for (Regression regression : getRegressions()) {
+			JSONObject regressionJson = new JSONObject();
+			regressionJson.put("name", regression.getName());
+			regressionJson.put("buildNumber", regression.getBuildNumber());
+			regressionJson.put("buildUrl", regression.info.getResults().getUrl(regression.index));
+			regressionJson.put("duration", regression.getDuration());
+			regressionJson.put("mean", regression.getBaseline().getMean());
+			regressionJson.put("deviation", regression.getBaseline().getStandardDeviation());
+			regressionJson.put("ewma", regression.getBaseline().getEwma());
+			regressionJson.put("score", regression.getScore());
+			regressionJson.put("slowdown", regression.getSlowdown());
+			json.add(regressionJson);
+		}
+		return json;
+	}
+
+	private static final Comparator<Regression> COMPARATOR = new Comparator<Regression>() {
+		public int compare(Regression a, Regression b) {
+			int result = Double.compare(a.score, b.score);
+			// the smaller name ranks lower, so equally significant regressions are listed by name
+			return result != 0 ? result : b.getName().compareTo(a.getName());
+		}
+	};
+
+	/**
+	 * A test case whose latest duration regressed.
+	 */
+	public static final class Regression {
+		private final Info info;
+		private final int index;
+		private final double duration;
+		private final DurationStatistics baseline;
+		private final double score;
+		private String name;
+
+		Regression(Info info, int index, double duration, DurationStatistics baseline, double score) {
+			this.info = info;
+			this.index = index;
+			this.duration = duration;
+			this.baseline = baseline;
+			this.score = score;
+		}
+
+		public String getName() {
+			if (name == null) {
+				name = info.getFullName();
+			}
+			return name;
+		}
+
+		public int getBuildNumber() {
+			return info.getResults().getBuildNumber(index);
+		}
+
+		public double getDuration() {
+			return duration;
+		}
+
+		/**
+		 * @return the statistics of the durations before the latest one
+		 */
+		public DurationStatistics getBaseline() {
+			return baseline;
+		}
+
+		/**
+		 * @return the number of standard deviations the duration is above the earlier mean
+		 */
+		public double getScore() {
+			return score;
+		}
+
+		/**
+		 * @return the duration divided by the earlier mean, 0 if the earlier mean is 0
+		 */
+		public double getSlowdown() {
+			return baseline.getMean() > 0 ? duration / baseline.getMean() : 0;
+		}
+	}
+}
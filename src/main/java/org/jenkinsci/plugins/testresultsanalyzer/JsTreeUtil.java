@@ -1,11 +1,19 @@
 package org.jenkinsci.plugins.testresultsanalyzer;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.jenkinsci.plugins.testresultsanalyzer.config.UserConfig;
-import org.jenkinsci.plugins.testresultsanalyzer.result.data.ResultData;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.BuildResults;
 import org.jenkinsci.plugins.testresultsanalyzer.result.info.Info;
 import org.jenkinsci.plugins.testresultsanalyzer.result.info.ResultInfo;
 
@@ -14,7 +22,31 @@ import net.sf.json.JSONObject;
 
 public class JsTreeUtil {
 
+    private final StatusTable statusTable;
+
+    public JsTreeUtil() {
+        this(StatusTable.DEFAULT);
+    }
+
+    /**
+     * @param statusTable the status names and colors sent along with the tree, cells only carry the status ordinal
+     */
+    public JsTreeUtil(StatusTable statusTable) {
+        this.statusTable = statusTable;
+    }
+
     public JSONObject getJsTree(List<Integer> builds, ResultInfo resultInfo, boolean hideConfigMethods) {
+        return getJsTree(builds, resultInfo.getPackageResults().values(), hideConfigMethods);
+    }
+
+    public JSONObject getJsTree(List<Integer> builds, Iterable<? extends Info> packageResults, boolean hideConfigMethods) {
+        return getJsTree(builds, packageResults, hideConfigMethods, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param depth the number of levels to include, nodes at the last level only tell whether they have children
+     */
+    public JSONObject getJsTree(List<Integer> builds, Iterable<? extends Info> packageResults, boolean hideConfigMethods, int depth) {
         JSONObject tree = new JSONObject();
 
         JSONArray buildJson = new JSONArray();
@@ -22,26 +54,749 @@ public class JsTreeUtil {
             buildJson.add(buildNumber.toString());
         }
         tree.put("builds", buildJson);
+        tree.put("statuses", statusTable.toJson());
 
         JSONArray results = new JSONArray();
-        for (Map.Entry<String, ? extends Info> entry : resultInfo.getPackageResults().entrySet()) {
-            results.add(createJson(builds, entry.getValue(), hideConfigMethods));
+        for (Info packageInfo : packageResults) {
+            results.add(createJson(builds, packageInfo, hideConfigMethods, depth));
         }
         tree.put("results", results);
 
         return tree;
     }
 
-    private JSONObject createJson(List<Integer> builds, Info info, boolean hideConfigMethods) {
+    /**
+     * The children of a node without their own children, for trees which are loaded one level at a time.
+     *
+     * @param builds the builds to show, newest first
+     * @param info the node whose children are expanded
+     * @param hideConfigMethods whether to leave out test configuration methods
+     * @return the child nodes
+     */
+    public JSONArray getJsChildren(List<Integer> builds, Info info, boolean hideConfigMethods) {
+        return getChildren(builds, info, hideConfigMethods, 2);
+    }
+
+    /**
+     * A window of the rows of the tree as the page shows them: all nodes in tree order, where the children of a node
+     * are only shown while it is expanded. Only the rows within the window are built, the others are just counted.
+     * <p>
+     * Each row holds a key identifying its node, which is what the page sends back in {@code toggled}. The key of a
+     * package is its name, the key of a child is the key of its parent, a slash and its name, where backslashes and
+     * slashes within names are escaped with a backslash.
+     *
+     * @param builds the builds to show, newest first
+     * @param packageResults the package nodes
+     * @param hideConfigMethods whether to leave out test configuration methods
+     * @param toggled the keys of the nodes which are not in their default state
+     * @param expandedByDefault whether nodes are expanded unless toggled
+     * @param offset the first row to return
+     * @param limit the maximum number of rows to return
+     * @return the builds, the status table, the total number of rows, the offset and the rows of the window
+     */
+    public JSONObject getJsRows(List<Integer> builds, Iterable<? extends Info> packageResults, boolean hideConfigMethods,
+            Set<String> toggled, boolean expandedByDefault, int offset, int limit) {
+        return getJsRows(builds, packageResults, hideConfigMethods, toggled, expandedByDefault, offset, limit, false);
+    }
+
+    /**
+     * The rows of {@link #getJsRows(List, Iterable, boolean, Set, boolean, int, int)}, where the siblings may be
+     * ordered by their flip rate within the builds instead of their name, see {@link BuildResults#getFlipRate(List)}.
+     *
+     * @param sortByFlakiness whether to list the siblings which flipped most often first, siblings which flipped
+     *                        equally often stay ordered by name
+     */
+    public JSONObject getJsRows(List<Integer> builds, Iterable<? extends Info> packageResults, boolean hideConfigMethods,
+            Set<String> toggled, boolean expandedByDefault, int offset, int limit, boolean sortByFlakiness) {
+        RowLayout layout = getRowLayout(builds, packageResults, hideConfigMethods, toggled, expandedByDefault, sortByFlakiness);
+        List<String> packageNames = layout.getPackageNames(offset, limit);
+        Map<String, Info> packagesByName = new HashMap<String, Info>();
+        for (Info packageInfo : packageResults) {
+            if (packageNames.contains(packageInfo.getName())) {
+                packagesByName.put(packageInfo.getName(), packageInfo);
+            }
+        }
+        List<Info> windowPackages = new ArrayList<Info>();
+        for (String packageName : packageNames) {
+            windowPackages.add(packagesByName.get(packageName));
+        }
+        return getJsRows(builds, layout, windowPackages, hideConfigMethods, toggled, expandedByDefault, offset, limit, sortByFlakiness);
+    }
+
+    /**
+     * Computes the {@link RowLayout} of the rows of {@link #getJsRows}, which walks the whole tree once.
+     *
+     * @param builds the builds to show, newest first, which the flip rates are computed over
+     * @param packageResults the package nodes
+     * @param hideConfigMethods whether to leave out test configuration methods
+     * @param toggled the keys of the nodes which are not in their default state
+     * @param expandedByDefault whether nodes are expanded unless toggled
+     * @param sortByFlakiness whether to list the siblings which flipped most often first
+     * @return the layout of the rows
+     */
+    public RowLayout getRowLayout(List<Integer> builds, Iterable<? extends Info> packageResults, boolean hideConfigMethods,
+            Set<String> toggled, boolean expandedByDefault, boolean sortByFlakiness) {
+        RowWindow rowWindow = new RowWindow(builds, hideConfigMethods, toggled, expandedByDefault, 0, 0, sortByFlakiness, null);
+        RowLayout layout = new RowLayout();
+        for (Info packageInfo : sortByFlakiness ? sortByFlakiness(packageResults, builds) : packageResults) {
+            String key = toKey(null, packageInfo.getName());
+            int[] classRows = null;
+            int packageRows = 1;
+            if (rowWindow.isExpanded(packageInfo, key)) {
+                List<Info> classes = rowWindow.getShownChildren(packageInfo);
+                classRows = new int[classes.size()];
+                for (int i = 0; i < classRows.length; i++) {
+                    classRows[i] = rowWindow.countRows(classes.get(i), toKey(key, classes.get(i).getName()));
+                    packageRows += classRows[i];
+                }
+            }
+            layout.add(packageInfo.getName(), packageRows, classRows);
+        }
+        return layout;
+    }
+
+    /**
+     * The rows of {@link #getJsRows(List, Iterable, boolean, Set, boolean, int, int, boolean)} from a layout computed
+     * before. Only the packages which have rows within the window are read, and only the classes of those packages
+     * which have rows within the window are walked.
+     *
+     * @param layout the layout of the rows for the same tree, toggled nodes and order
+     * @param windowPackages the packages named by {@link RowLayout#getPackageNames(int, int)} for the window, null
+     *                       for packages which no longer exist
+     */
+    public JSONObject getJsRows(List<Integer> builds, RowLayout layout, List<? extends Info> windowPackages, boolean hideConfigMethods,
+            Set<String> toggled, boolean expandedByDefault, int offset, int limit, boolean sortByFlakiness) {
+        JSONObject window = new JSONObject();
+
+        JSONArray buildJson = new JSONArray();
+        for (Integer buildNumber : builds) {
+            buildJson.add(buildNumber.toString());
+        }
+        window.put("builds", buildJson);
+        window.put("statuses", statusTable.toJson());
+
+        JSONArray rows = new JSONArray();
+        RowWindow rowWindow = new RowWindow(builds, hideConfigMethods, toggled, expandedByDefault, offset, limit,
+                sortByFlakiness, rows);
+        int index = layout.getPackageIndex(offset);
+        for (Info packageInfo : windowPackages) {
+            if (packageInfo != null) {
+                rowWindow.addPackage(packageInfo, layout.firstRows[index], layout.classRows.get(index));
+            }
+            index++;
+        }
+        window.put("rowCount", layout.getRowCount());
+        window.put("offset", offset);
+        window.put("rows", rows);
+
+        return window;
+    }
+
+    /**
+     * The shape of the rows of {@link #getJsRows}: the packages in the order they are shown, the first row of each
+     * and the number of rows each of their shown classes takes up. The layout only changes with the tree, the
+     * toggled nodes and the order of the siblings, so it can be kept while the page scrolls through the rows.
+     */
+    public static final class RowLayout {
+        private final List<String> packageNames = new ArrayList<String>();
+        private final List<int[]> classRows = new ArrayList<int[]>();
+        private int[] firstRows = new int[16];
+        private int rowCount;
+
+        private void add(String packageName, int packageRows, int[] packageClassRows) {
+            int index = packageNames.size();
+            if (index == firstRows.length) {
+                firstRows = Arrays.copyOf(firstRows, index * 2);
+            }
+            firstRows[index] = rowCount;
+            packageNames.add(packageName);
+            classRows.add(packageClassRows);
+            rowCount += packageRows;
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * @param offset the first row of the window
+         * @param limit the maximum number of rows of the window
+         * @return the names of the packages which have rows within the window, in the order they are shown
+         */
+        public List<String> getPackageNames(int offset, int limit) {
+            List<String> names = new ArrayList<String>();
+            if (offset >= rowCount) {
+                return names;
+            }
+            for (int i = getPackageIndex(offset); i < packageNames.size() && firstRows[i] - offset < limit; i++) {
+                names.add(packageNames.get(i));
+            }
+            return names;
+        }
+
+        /**
+         * The number of values held by the layout, as a measure of its memory footprint.
+         *
+         * @return the number of packages and classes
+         */
+        public int getSize() {
+            int size = packageNames.size();
+            for (int[] rows : classRows) {
+                size += rows != null ? rows.length : 0;
+            }
+            return size;
+        }
+
+        /**
+         * Finds the package which holds the given row.
+         */
+        private int getPackageIndex(int row) {
+            int low = 0;
+            int high = packageNames.size() - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (firstRows[middle] <= row) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return Math.max(0, high);
+        }
+    }
+
+    /**
+     * Rows for nodes found by a search, shown as a flat list. Each row holds the same key as in
+     * {@link #getJsRows}, and the names of the node and its ancestors joined by dots as its text.
+     *
+     * @param builds the builds to show, newest first
+     * @param nodes the nodes found
+     * @param hideConfigMethods whether to leave out test configuration methods and their children
+     * @param more whether the search found more nodes than these
+     * @return the builds, the status table, whether there are more matches and the rows
+     */
+    public JSONObject getJsMatches(List<Integer> builds, List<? extends Info> nodes, boolean hideConfigMethods, boolean more) {
+        JSONObject matches = new JSONObject();
+
+        JSONArray buildJson = new JSONArray();
+        for (Integer buildNumber : builds) {
+            buildJson.add(buildNumber.toString());
+        }
+        matches.put("builds", buildJson);
+        matches.put("statuses", statusTable.toJson());
+
+        JSONArray rows = new JSONArray();
+        for (Info info : nodes) {
+            List<Info> path = new ArrayList<Info>();
+            boolean hidden = false;
+            for (Info node = info; node != null; node = node.getParent()) {
+                hidden |= hideConfigMethods && node.isConfig();
+                path.add(0, node);
+            }
+            if (hidden) {
+                continue;
+            }
+
+            String key = null;
+            StringBuilder text = new StringBuilder();
+            for (Info node : path) {
+                key = toKey(key, node.getName());
+                text.append(text.length() > 0 ? "." : "").append(node.getName());
+            }
+            JSONObject row = new JSONObject();
+            row.put("text", text.toString());
+            row.put("key", key);
+            row.put("hierarchyLevel", 0);
+            row.put("buildResults", getBuilds(builds, info));
+            row.put("flipRate", info.getResults().getFlipRate(builds));
+            rows.add(row);
+        }
+        matches.put("more", more);
+        matches.put("rows", rows);
+
+        return matches;
+    }
+
+    /**
+     * The series shown by the charts, one value per build with the oldest build first: the summed test counts and
+     * run times of the given nodes, and how many of the tests below them ran fast, medium or slow.
+     *
+     * @param builds the builds to show, newest first
+     * @param nodes the selected nodes, none of which may be below another one
+     * @param lowThreshold tests running shorter than this many seconds are fast
+     * @param highThreshold tests running at least this many seconds are slow
+     * @return the builds and the series
+     */
+    public JSONObject getJsChartSeries(List<Integer> builds, Iterable<? extends Info> nodes, float lowThreshold, float highThreshold) {
+        List<Integer> chronological = new ArrayList<Integer>(builds);
+        Collections.reverse(chronological);
+        ChartSeries series = new ChartSeries(chronological, lowThreshold, highThreshold);
+        for (Info info : nodes) {
+            series.add(info);
+        }
+
+        JSONObject json = new JSONObject();
+        JSONArray buildJson = new JSONArray();
+        for (Integer buildNumber : chronological) {
+            buildJson.add(buildNumber.toString());
+        }
+        json.put("builds", buildJson);
+        json.put("passed", JSONArray.fromObject(series.passed));
+        json.put("failed", JSONArray.fromObject(series.failed));
+        json.put("skipped", JSONArray.fromObject(series.skipped));
+        json.put("total", JSONArray.fromObject(series.total));
+        json.put("runtime", JSONArray.fromObject(series.runtime));
+        json.put("fast", JSONArray.fromObject(series.fast));
+        json.put("medium", JSONArray.fromObject(series.medium));
+        json.put("slow", JSONArray.fromObject(series.slow));
+        return json;
+    }
+
+    /**
+     * Writes the same tree as {@link #getJsTree(List, Iterable, boolean)} straight to a stream while walking the
+     * results, without building any intermediate JSON objects.
+     *
+     * @param out the stream to write to
+     * @param builds the builds to show, newest first
+     * @param packageResults the package nodes to write
+     * @param hideConfigMethods whether to leave out test configuration methods
+     * @throws IOException if writing fails
+     */
+    public void writeJsTree(Writer out, List<Integer> builds, Iterable<? extends Info> packageResults, boolean hideConfigMethods) throws IOException {
+        writeJsTree(out, builds, packageResults, hideConfigMethods, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param depth the number of levels to write, nodes at the last level only tell whether they have children
+     */
+    public void writeJsTree(Writer out, List<Integer> builds, Iterable<? extends Info> packageResults, boolean hideConfigMethods, int depth) throws IOException {
+        writeTree(out, builds, packageResults, hideConfigMethods, depth, null);
+    }
+
+    /**
+     * Writes the tree in a compact form. The builds are only listed once and each node holds parallel arrays with
+     * one entry per build instead of one object per build:
+     * <ul>
+     * <li>{@code status}: the status ordinal, or -1 if the node has no result of the build</li>
+     * <li>{@code time}: the duration</li>
+     * <li>{@code counts}: total, failed, passed and skipped tests, left out when they are implied by the status</li>
+     * <li>{@code reports}: packages only, the index of the report url of the build in {@code reportUrls}, or -1</li>
+     * </ul>
+     * Nodes which flipped between passed and failed within the builds also hold their {@code flipRate}.
+     * Urls are not sent, the url of a result is its report url followed by the safe names of the node and its
+     * ancestors, each preceded by a slash.
+     *
+     * @param depth the number of levels to write, nodes at the last level only tell whether they have children
+     */
+    public void writeCompactJsTree(Writer out, List<Integer> builds, Iterable<? extends Info> packageResults, boolean hideConfigMethods, int depth) throws IOException {
+        writeTree(out, builds, packageResults, hideConfigMethods, depth, new LinkedHashMap<String, Integer>());
+    }
+
+    private void writeTree(Writer out, List<Integer> builds, Iterable<? extends Info> packageResults, boolean hideConfigMethods, int depth,
+            Map<String, Integer> reportUrls) throws IOException {
+        String[] buildNames = new String[builds.size()];
+        for (int i = 0; i < buildNames.length; i++) {
+            buildNames[i] = builds.get(i).toString();
+        }
+
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        json.name("builds").beginArray();
+        for (String buildName : buildNames) {
+            json.value(buildName);
+        }
+        json.endArray();
+        json.name("statuses");
+        statusTable.write(json);
+
+        json.name("results").beginArray();
+        for (Info packageInfo : packageResults) {
+            writeNode(json, builds, buildNames, packageInfo, hideConfigMethods, depth, reportUrls);
+        }
+        json.endArray();
+        if (reportUrls != null) {
+            json.name("reportUrls").beginArray();
+            for (String reportUrl : reportUrls.keySet()) {
+                json.value(reportUrl);
+            }
+            json.endArray();
+        }
+        json.endObject();
+        json.flush();
+    }
+
+    private void writeNode(JsonWriter json, List<Integer> builds, String[] buildNames, Info info, boolean hideConfigMethods, int depth,
+            Map<String, Integer> reportUrls) throws IOException {
+        json.beginObject();
+        json.name("text").value(info.getName());
+        if (reportUrls != null) {
+            writeCompactResults(json, builds, info, reportUrls);
+        } else {
+            writeResults(json, builds, buildNames, info);
+        }
+        if (info.getResults().getFlips(builds) > 0) {
+            json.name("flipRate").value((float) info.getResults().getFlipRate(builds));
+        }
+
+        if (depth <= 1) {
+            if (hasChildren(info, hideConfigMethods)) {
+                json.name("hasChildren").value(true);
+            }
+            json.endObject();
+            return;
+        }
+        json.name("children").beginArray();
+        Map<String, ? extends Info> children = info.getChildren();
+        if (children != null) {
+            for (Info child : children.values()) {
+                if (!hideConfigMethods || !child.isConfig()) {
+                    writeNode(json, builds, buildNames, child, hideConfigMethods, depth - 1, reportUrls);
+                }
+            }
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    private void writeResults(JsonWriter json, List<Integer> builds, String[] buildNames, Info info) throws IOException {
+        json.name("buildResults").beginArray();
+        BuildResults results = info.getResults();
+        for (int i = 0; i < buildNames.length; i++) {
+            json.beginObject();
+            json.name("buildNumber").value(buildNames[i]);
+            int index = results.indexOf(builds.get(i));
+            if (index < 0) {
+                json.name("status").value(ResultStatus.NA.ordinal());
+            } else {
+                json.name("totalTests").value(results.getTotalTests(index));
+                json.name("totalFailed").value(results.getTotalFailed(index));
+                json.name("totalPassed").value(results.getTotalPassed(index));
+                json.name("totalSkipped").value(results.getTotalSkipped(index));
+                json.name("totalTimeTaken").value(results.getTotalTimeTaken(index));
+                json.name("status").value(results.getStatus(index).ordinal());
+                json.name("url").value(results.getUrl(index));
+            }
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    private void writeCompactResults(JsonWriter json, List<Integer> builds, Info info, Map<String, Integer> reportUrls) throws IOException {
+        BuildResults results = info.getResults();
+        int[] indexes = new int[builds.size()];
+        boolean hasReportUrls = false;
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = results.indexOf(builds.get(i));
+            hasReportUrls |= indexes[i] >= 0 && results.getReportUrl(indexes[i]) != null;
+        }
+
+        json.name("safeName").value(info.getSafeName());
+        json.name("status").beginArray();
+        for (int index : indexes) {
+            json.value(index < 0 ? -1 : results.getStatus(index).ordinal());
+        }
+        json.endArray();
+        json.name("time").beginArray();
+        for (int index : indexes) {
+            float time = index < 0 ? 0 : results.getTotalTimeTaken(index);
+            if (time == 0) {
+                json.value(0);
+            } else {
+                json.value(time);
+            }
+        }
+        json.endArray();
+        if (results.hasCounts()) {
+            json.name("counts").beginArray();
+            for (int index : indexes) {
+                json.value(index < 0 ? 0 : results.getTotalTests(index));
+                json.value(index < 0 ? 0 : results.getTotalFailed(index));
+                json.value(index < 0 ? 0 : results.getTotalPassed(index));
+                json.value(index < 0 ? 0 : results.getTotalSkipped(index));
+            }
+            json.endArray();
+        }
+        if (hasReportUrls) {
+            json.name("reports").beginArray();
+            for (int index : indexes) {
+                String reportUrl = index < 0 ? null : results.getReportUrl(index);
+                if (reportUrl == null) {
+                    json.value(-1);
+                    continue;
+                }
+                Integer reportIndex = reportUrls.get(reportUrl);
+                if (reportIndex == null) {
+                    reportIndex = reportUrls.size();
+                    reportUrls.put(reportUrl, reportIndex);
+                }
+                json.value(reportIndex);
+            }
+            json.endArray();
+        }
+    }
+
+    private JSONObject createJson(List<Integer> builds, Info info, boolean hideConfigMethods, int depth) {
         JSONObject baseJson = new JSONObject();
 
         baseJson.put("text", info.getName());
         baseJson.put("buildResults", getBuilds(builds, info));
-        baseJson.put("children", getChildren(builds, info, hideConfigMethods));
+        if (info.getResults().getFlips(builds) > 0) {
+            baseJson.put("flipRate", (float) info.getResults().getFlipRate(builds));
+        }
+        if (depth > 1) {
+            baseJson.put("children", getChildren(builds, info, hideConfigMethods, depth));
+        } else if (hasChildren(info, hideConfigMethods)) {
+            baseJson.put("hasChildren", true);
+        }
 
         return baseJson;
     }
 
+    /**
+     * Sums the results of the selected nodes per build, reading the result columns directly.
+     */
+    private static final class ChartSeries {
+        private final List<Integer> builds;
+        private final float lowThreshold;
+        private final float highThreshold;
+        private final int[] passed;
+        private final int[] failed;
+        private final int[] skipped;
+        private final int[] total;
+        private final double[] runtime;
+        private final int[] fast;
+        private final int[] medium;
+        private final int[] slow;
+
+        ChartSeries(List<Integer> builds, float lowThreshold, float highThreshold) {
+            this.builds = builds;
+            this.lowThreshold = lowThreshold;
+            this.highThreshold = highThreshold;
+            passed = new int[builds.size()];
+            failed = new int[builds.size()];
+            skipped = new int[builds.size()];
+            total = new int[builds.size()];
+            runtime = new double[builds.size()];
+            fast = new int[builds.size()];
+            medium = new int[builds.size()];
+            slow = new int[builds.size()];
+        }
+
+        void add(Info info) {
+            BuildResults results = info.getResults();
+            for (int i = 0; i < builds.size(); i++) {
+                int index = results.indexOf(builds.get(i));
+                if (index >= 0) {
+                    passed[i] += results.getTotalPassed(index);
+                    failed[i] += results.getTotalFailed(index);
+                    skipped[i] += results.getTotalSkipped(index);
+                    total[i] += results.getTotalTests(index);
+                    runtime[i] += results.getTotalTimeTaken(index);
+                }
+            }
+            addTestRuntimes(info);
+        }
+
+        private void addTestRuntimes(Info info) {
+            Map<String, ? extends Info> children = info.getChildren();
+            if (children != null) {
+                for (Info child : children.values()) {
+                    addTestRuntimes(child);
+                }
+                return;
+            }
+            BuildResults results = info.getResults();
+            for (int i = 0; i < builds.size(); i++) {
+                int index = results.indexOf(builds.get(i));
+                if (index >= 0) {
+                    float time = results.getTotalTimeTaken(index);
+                    if (time < lowThreshold) {
+                        fast[i]++;
+                    } else if (time >= highThreshold) {
+                        slow[i]++;
+                    } else {
+                        medium[i]++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks the shown rows of a tree, building the ones within the window, or counts them for a {@link RowLayout}.
+     */
+    private final class RowWindow {
+        private final List<Integer> builds;
+        private final boolean hideConfigMethods;
+        private final Set<String> toggled;
+        private final boolean expandedByDefault;
+        private final int offset;
+        private final int limit;
+        private final boolean sortByFlakiness;
+        private final JSONArray rows;
+        private int rowCount;
+
+        RowWindow(List<Integer> builds, boolean hideConfigMethods, Set<String> toggled, boolean expandedByDefault, int offset, int limit,
+                boolean sortByFlakiness, JSONArray rows) {
+            this.builds = builds;
+            this.hideConfigMethods = hideConfigMethods;
+            this.toggled = toggled;
+            this.expandedByDefault = expandedByDefault;
+            this.offset = offset;
+            this.limit = limit;
+            this.sortByFlakiness = sortByFlakiness;
+            this.rows = rows;
+        }
+
+        boolean isExpanded(Info info, String key) {
+            return hasChildren(info, hideConfigMethods) && expandedByDefault != toggled.contains(key);
+        }
+
+        List<Info> getShownChildren(Info info) {
+            List<Info> children = new ArrayList<Info>();
+            for (Info child : sortByFlakiness ? sortByFlakiness(info.getChildren().values(), builds) : info.getChildren().values()) {
+                if (!hideConfigMethods || !child.isConfig()) {
+                    children.add(child);
+                }
+            }
+            return children;
+        }
+
+        int countRows(Info info, String key) {
+            int count = 1;
+            if (isExpanded(info, key)) {
+                for (Info child : getShownChildren(info)) {
+                    count += countRows(child, toKey(key, child.getName()));
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Adds the rows of a package from its first row on, skipping the classes whose rows all lie before the
+         * window.
+         */
+        void addPackage(Info packageInfo, int firstRow, int[] classRows) {
+            rowCount = firstRow;
+            String key = toKey(null, packageInfo.getName());
+            boolean expanded = isExpanded(packageInfo, key);
+            addRow(packageInfo, key, 0, expanded);
+            if (!expanded) {
+                return;
+            }
+            List<Info> classes = getShownChildren(packageInfo);
+            for (int i = 0; i < classes.size() && !isPastWindow(); i++) {
+                if (classRows != null && i < classRows.length && rowCount + classRows[i] <= offset) {
+                    rowCount += classRows[i];
+                } else {
+                    add(classes.get(i), key, 1);
+                }
+            }
+        }
+
+        void add(Info info, String parentKey, int level) {
+            if (isPastWindow()) {
+                return;
+            }
+            String key = toKey(parentKey, info.getName());
+            boolean expanded = isExpanded(info, key);
+            addRow(info, key, level, expanded);
+
+            if (expanded) {
+                for (Info child : getShownChildren(info)) {
+                    add(child, key, level + 1);
+                }
+            }
+        }
+
+        private void addRow(Info info, String key, int level, boolean expanded) {
+            if (rowCount >= offset && rowCount - offset < limit) {
+                JSONObject row = new JSONObject();
+                row.put("text", info.getName());
+                row.put("key", key);
+                row.put("hierarchyLevel", level);
+                row.put("buildResults", getBuilds(builds, info));
+                row.put("flipRate", info.getResults().getFlipRate(builds));
+                if (hasChildren(info, hideConfigMethods)) {
+                    row.put("hasChildren", true);
+                    row.put("expanded", expanded);
+                }
+                rows.add(row);
+            }
+            rowCount++;
+        }
+
+        private boolean isPastWindow() {
+            return rowCount >= offset && rowCount - offset >= limit;
+        }
+    }
+
+    /**
+     * Splits a row key, see {@link #getJsRows}, into the names on the path of its node.
+     *
+     * @param key the key of a row
+     * @return the names, starting with the name of the package
+     */
+    static List<String> fromKey(String key) {
+        List<String> path = new ArrayList<String>();
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '\\' && i + 1 < key.length()) {
+                name.append(key.charAt(++i));
+            } else if (c == '/') {
+                path.add(name.toString());
+                name.setLength(0);
+            } else {
+                name.append(c);
+            }
+        }
+        path.add(name.toString());
+        return path;
+    }
+
+    private static String toKey(String parentKey, String name) {
+        StringBuilder key = new StringBuilder();
+        if (parentKey != null) {
+            key.append(parentKey).append('/');
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '/' || c == '\\') {
+                key.append('\\');
+            }
+            key.append(c);
+        }
+        return key.toString();
+    }
+
+    private static List<Info> sortByFlakiness(Iterable<? extends Info> nodes, final List<Integer> builds) {
+        List<Info> sorted = new ArrayList<Info>();
+        for (Info info : nodes) {
+            sorted.add(info);
+        }
+        // the sort is stable, so nodes with the same rate keep the order of their names
+        Collections.sort(sorted, new Comparator<Info>() {
+            public int compare(Info a, Info b) {
+                return Double.compare(b.getResults().getFlipRate(builds), a.getResults().getFlipRate(builds));
+            }
+        });
+        return sorted;
+    }
+
+    private static boolean hasChildren(Info info, boolean hideConfigMethods) {
+        Map<String, ? extends Info> children = info.getChildren();
+        if (children == null) {
+            return false;
+        }
+        for (Info child : children.values()) {
+            if (!hideConfigMethods || !child.isConfig()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private JSONArray getBuilds(List<Integer> builds, Info info) {
         JSONArray treeDataJson = new JSONArray();
         for (Integer buildNumber : builds) {
@@ -50,7 +805,7 @@ public class JsTreeUtil {
         return treeDataJson;
     }
 
-    private JSONArray getChildren(List<Integer> builds, Info info, boolean hideConfigMethods) {
+    private JSONArray getChildren(List<Integer> builds, Info info, boolean hideConfigMethods, int depth) {
         Map<String, ? extends Info> childrenInfo = info.getChildren();
         if (childrenInfo == null)
             return new JSONArray();
@@ -58,7 +813,7 @@ public class JsTreeUtil {
         JSONArray children = new JSONArray();
         for (Map.Entry<String, ? extends Info> entry : childrenInfo.entrySet()) {
             if (!hideConfigMethods || !entry.getValue().isConfig()) {
-                children.add(createJson(builds, entry.getValue(), hideConfigMethods));
+                children.add(createJson(builds, entry.getValue(), hideConfigMethods, depth - 1));
             }
         }
 
@@ -69,17 +824,18 @@ public class JsTreeUtil {
         JSONObject json = new JSONObject();
         json.put("buildNumber", buildNumber.toString());
 
-        ResultData result = info.getBuildResult(buildNumber);
-        if (result == null) {
-            json.put("status", "N/A");
+        BuildResults results = info.getResults();
+        int index = results.indexOf(buildNumber);
+        if (index < 0) {
+            json.put("status", ResultStatus.NA.ordinal());
         } else {
-            json.put("totalTests", result.getTotalTests());
-            json.put("totalFailed", result.getTotalFailed());
-            json.put("totalPassed", result.getTotalPassed());
-            json.put("totalSkipped", result.getTotalSkipped());
-            json.put("totalTimeTaken", result.getTotalTimeTaken());
-            json.put("status", result.getStatus());
-            json.put("url", result.getUrl());
+            json.put("totalTests", results.getTotalTests(index));
+            json.put("totalFailed", results.getTotalFailed(index));
+            json.put("totalPassed", results.getTotalPassed(index));
+            json.put("totalSkipped", results.getTotalSkipped(index));
+            json.put("totalTimeTaken", results.getTotalTimeTaken(index));
+            json.put("status", results.getStatus(index).ordinal());
+            json.put("url", results.getUrl(index));
         }
 
 
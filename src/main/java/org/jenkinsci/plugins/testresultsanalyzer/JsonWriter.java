@@ -0,0 +1,133 @@
+package org.jenkinsci.plugins.testresultsanalyzer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes JSON straight to a stream, for responses which are too large to be built as a {@link net.sf.json.JSONObject}
+ * first. Callers are responsible for pairing the begin and end calls.
+ */
+public class JsonWriter {
+
+	private final Writer out;
+	private boolean[] empty = new boolean[16];
+	private int depth;
+	private boolean afterName;
+
+	public JsonWriter(Writer out) {
+		this.out = out;
+	}
+
+	public JsonWriter beginObject() throws IOException {
+		return open('{');
+	}
+
+	public JsonWriter endObject() throws IOException {
+		return close('}');
+	}
+
+	public JsonWriter beginArray() throws IOException {
+		return open('[');
+	}
+
+	public JsonWriter endArray() throws IOException {
+		return close(']');
+	}
+
+	public JsonWriter name(String name) throws IOException {
+		separate();
+		string(name);
+		out.write(':');
+		afterName = true;
+		return this;
+	}
+
+	public JsonWriter value(String value) throws IOException {
+		separate();
+		if (value == null) {
+			out.write("null");
+		} else {
+			string(value);
+		}
+		return this;
+	}
+
+	public JsonWriter value(long value) throws IOException {
+		separate();
+		out.write(Long.toString(value));
+		return this;
+	}
+
+	public JsonWriter value(float value) throws IOException {
+		separate();
+		out.write(Float.isNaN(value) || Float.isInfinite(value) ? "null" : Float.toString(value));
+		return this;
+	}
+
+	public JsonWriter value(boolean value) throws IOException {
+		separate();
+		out.write(value ? "true" : "false");
+		return this;
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	private JsonWriter open(char bracket) throws IOException {
+		separate();
+		out.write(bracket);
+		if (++depth == empty.length) {
+			empty = Arrays.copyOf(empty, depth * 2);
+		}
+		empty[depth] = true;
+		return this;
+	}
+
+	private JsonWriter close(char bracket) throws IOException {
+		depth--;
+		out.write(bracket);
+		return this;
+	}
+
+	private void separate() throws IOException {
+		if (afterName) {
+			afterName = false;
+		} else if (depth > 0) {
+			if (!empty[depth]) {
+				out.write(',');
+			}
+			empty[depth] = false;
+		}
+	}
+
+	private void string(String value) throws IOException {
+		out.write('"');
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			String escaped;
+			if (c == '"') {
+				escaped = "\\\"";
+			} else if (c == '\\') {
+				escaped = "\\\\";
+			} else if (c == '\n') {
+				escaped = "\\n";
+			} else if (c == '\r') {
+				escaped = "\\r";
+			} else if (c == '\t') {
+				escaped = "\\t";
+			} else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+				escaped = String.format("\\u%04x", (int) c);
+			} else {
+				continue;
+			}
+			out.write(value, start, i - start);
+			out.write(escaped);
+			start = i + 1;
+		}
+		out.write(value, start, value.length() - start);
+		out.write('"');
+	}
+}
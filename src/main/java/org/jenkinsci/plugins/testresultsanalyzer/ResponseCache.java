@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.testresultsanalyzer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rendered result trees, shared by all jobs. Responses are keyed by the version of the history they were rendered
+ * from, see {@link org.jenkinsci.plugins.testresultsanalyzer.history.JobHistory#getVersion()}, so entries never
+ * have to be invalidated: once a history changes its old entries are no longer asked for and are dropped in least
+ * recently used order when the cache exceeds its size.
+ */
+final class ResponseCache {
+
+	/**
+	 * Total number of characters held by the cache.
+	 */
+	private static final int MAX_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * Larger responses are not cached, so a single huge tree can not evict all others.
+	 */
+	private static final int MAX_ENTRY_SIZE = MAX_SIZE / 4;
+
+	private static final Map<String, String> responses = new LinkedHashMap<String, String>(16, 0.75f, true);
+	private static long size;
+
+	private ResponseCache() {
+	}
+
+	static String get(String key) {
+		synchronized (responses) {
+			return responses.get(key);
+		}
+	}
+
+	static void put(String key, String response) {
+		if (response.length() > MAX_ENTRY_SIZE) {
+			return;
+		}
+		synchronized (responses) {
+			String previous = responses.put(key, response);
+			size += response.length() - (previous != null ? previous.length() : 0);
+
+			Iterator<String> iterator = responses.values().iterator();
+			while (size > MAX_SIZE && iterator.hasNext()) {
+				size -= iterator.next().length();
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Passes a response through to the client while keeping a copy for the cache. The copy starts small and grows
+	 * with the response. Once the response exceeds the size of a cache entry the copy is dropped and the rest of the
+	 * response is only passed through.
+	 */
+	static final class Recorder extends Writer {
+
+		private static final int INITIAL_CAPACITY = 8 * 1024;
+
+		private final Writer out;
+		private final int limit;
+		private char[] recorded;
+		private int length;
+
+		Recorder(Writer out) {
+			this(out, MAX_ENTRY_SIZE);
+		}
+
+		/**
+		 * @param limit the size from which the response is no longer recorded
+		 */
+		Recorder(Writer out, int limit) {
+			this.out = out;
+			this.limit = limit;
+			recorded = new char[Math.min(INITIAL_CAPACITY, limit)];
+		}
+
+		@Override
+		public void write(char[] buffer, int offset, int length) throws IOException {
+			out.write(buffer, offset, length);
+			if (reserve(length)) {
+				System.arraycopy(buffer, offset, recorded, this.length, length);
+				this.length += length;
+			}
+		}
+
+		@Override
+		public void write(String text, int offset, int length) throws IOException {
+			out.write(text, offset, length);
+			if (reserve(length)) {
+				text.getChars(offset, offset + length, recorded, this.length);
+				this.length += length;
+			}
+		}
+
+		/**
+		 * Makes room for more characters, or stops recording if the response grows too large.
+		 *
+		 * @return whether the characters are recorded
+		 */
+		private boolean reserve(int more) {
+			if (recorded == null) {
+				return false;
+			}
+			int needed = length + more;
+			if (needed > limit || needed < 0) {
+				recorded = null;
+				return false;
+			}
+			if (needed > recorded.length) {
+				int capacity = (int) Math.min(limit, Math.max(needed, 2L * recorded.length));
+				recorded = Arrays.copyOf(recorded, capacity);
+			}
+			return true;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+		/**
+		 * @return the response written so far, or null if it became too large to be cached
+		 */
+		String getRecorded() {
+			return recorded != null ? new String(recorded, 0, length) : null;
+		}
+	}
+}
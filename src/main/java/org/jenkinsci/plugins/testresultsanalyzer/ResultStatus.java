@@ -6,6 +6,8 @@ package org.jenkinsci.plugins.testresultsanalyzer;
 public enum ResultStatus {
     PASSED("PASSED"),FAILED("FAILED"),SKIPPED("SKIPPED"),NA("N/A");
 
+    private static final ResultStatus[] VALUES = values();
+
     private String value;
     private ResultStatus(String value){
         this.value = value;
@@ -14,4 +16,24 @@ public enum ResultStatus {
     public String getValue() {
         return this.value;
     }
+
+    /**
+     * Evaluates the status of a result from its counts: skipped if all tests were skipped, otherwise failed if any
+     * test failed.
+     */
+    public static ResultStatus of(int totalTests, int totalFailed, int totalSkipped) {
+        if (totalSkipped == totalTests) {
+            return SKIPPED;
+        } else if (totalFailed == 0) {
+            return PASSED;
+        }
+        return FAILED;
+    }
+
+    /**
+     * Looks up a status by its ordinal, the form in which statuses are stored and sent to the browser.
+     */
+    public static ResultStatus fromOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
 }
@@ -0,0 +1,46 @@
+package org.jenkinsci.plugins.testresultsanalyzer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Row layouts of the result table, shared by all jobs, see {@link JsTreeUtil.RowLayout}. Like the
+ * {@link ResponseCache} the layouts are keyed by the version of the history they were computed from, so entries
+ * never have to be invalidated and are dropped in least recently used order when the cache exceeds its size.
+ */
+final class RowLayoutCache {
+
+	/**
+	 * Total number of packages and classes held by the cached layouts.
+	 */
+	private static final int MAX_SIZE = 1024 * 1024;
+
+	private static final Map<String, JsTreeUtil.RowLayout> layouts = new LinkedHashMap<String, JsTreeUtil.RowLayout>(16, 0.75f, true);
+	private static long size;
+
+	private RowLayoutCache() {
+	}
+
+	static JsTreeUtil.RowLayout get(String key) {
+		synchronized (layouts) {
+			return layouts.get(key);
+		}
+	}
+
+	static void put(String key, JsTreeUtil.RowLayout layout) {
+		if (layout.getSize() > MAX_SIZE / 4) {
+			return;
+		}
+		synchronized (layouts) {
+			JsTreeUtil.RowLayout previous = layouts.put(key, layout);
+			size += layout.getSize() - (previous != null ? previous.getSize() : 0);
+
+			Iterator<JsTreeUtil.RowLayout> iterator = layouts.values().iterator();
+			while (size > MAX_SIZE && iterator.hasNext()) {
+				size -= iterator.next().getSize();
+				iterator.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.jenkinsci.plugins.testresultsanalyzer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Display names and colors of the result statuses, indexed by {@link ResultStatus} ordinal. A table is resolved from
+ * the configuration once per response, so rendering a cell is an array lookup.
+ */
+public class StatusTable {
+
+	/**
+	 * The plain status values without colors, used when no configuration is available.
+	 */
+	public static final StatusTable DEFAULT = new StatusTable(
+			new String[]{ResultStatus.PASSED.getValue(), ResultStatus.FAILED.getValue(), ResultStatus.SKIPPED.getValue(), ResultStatus.NA.getValue()},
+			new String[ResultStatus.values().length]);
+
+	private final String[] names;
+	private final String[] colors;
+
+	/**
+	 * @param names the display names, indexed by status ordinal
+	 * @param colors the colors, indexed by status ordinal; entries may be null
+	 */
+	public StatusTable(String[] names, String[] colors) {
+		this.names = names;
+		this.colors = colors;
+	}
+
+	public String getName(ResultStatus status) {
+		return names[status.ordinal()];
+	}
+
+	public String getColor(ResultStatus status) {
+		return colors[status.ordinal()];
+	}
+
+	/**
+	 * The table as sent along with the result tree; the status of each cell is the index into it.
+	 *
+	 * @return one object per status with its value, display name and color
+	 */
+	public JSONArray toJson() {
+		JSONArray json = new JSONArray();
+		for (ResultStatus status : ResultStatus.values()) {
+			JSONObject entry = new JSONObject();
+			entry.put("value", status.getValue());
+			entry.put("name", getName(status));
+			if (getColor(status) != null) {
+				entry.put("color", getColor(status));
+			}
+			json.add(entry);
+		}
+		return json;
+	}
+
+	/**
+	 * Streams the same table as {@link #toJson()}.
+	 *
+	 * @param json the writer to write the table to
+	 * @throws IOException if writing fails
+	 */
+	public void write(JsonWriter json) throws IOException {
+		json.beginArray();
+		for (ResultStatus status : ResultStatus.values()) {
+			json.beginObject();
+			json.name("value").value(status.getValue());
+			json.name("name").value(getName(status));
+			if (getColor(status) != null) {
+				json.name("color").value(getColor(status));
+			}
+			json.endObject();
+		}
+		json.endArray();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof StatusTable)) {
+			return false;
+		}
+		return Arrays.equals(names, ((StatusTable) other).names) && Arrays.equals(colors, ((StatusTable) other).colors);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(names) + Arrays.hashCode(colors);
+	}
+}
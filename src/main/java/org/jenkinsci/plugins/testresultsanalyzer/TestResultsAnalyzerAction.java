@@ -4,38 +4,38 @@ import hudson.model.Action;
 import hudson.model.Item;
 import hudson.model.Job;
 import hudson.model.Actionable;
-import hudson.model.Run;
-import hudson.tasks.test.AggregatedTestResultAction;
-import hudson.tasks.test.TabulatedResult;
-import hudson.tasks.test.AbstractTestResultAction;
-import hudson.tasks.test.TestResult;
-import hudson.util.RunList;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
 import java.util.*;
-import java.util.logging.Logger;
 
-import jenkins.model.Jenkins;
+import javax.servlet.http.HttpServletResponse;
+
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
 import org.jenkinsci.plugins.testresultsanalyzer.config.UserConfig;
-import org.jenkinsci.plugins.testresultsanalyzer.result.info.ResultInfo;
-import org.jenkinsci.plugins.testresultsanalyzer.result.data.ResultData;
+import org.jenkinsci.plugins.testresultsanalyzer.history.HistoryExport;
+import org.jenkinsci.plugins.testresultsanalyzer.history.JobHistory;
+import org.jenkinsci.plugins.testresultsanalyzer.history.JobHistoryCache;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.BuildResults;
 import org.jenkinsci.plugins.testresultsanalyzer.result.info.ClassInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.Info;
 import org.jenkinsci.plugins.testresultsanalyzer.result.info.PackageInfo;
 import org.jenkinsci.plugins.testresultsanalyzer.result.info.TestCaseInfo;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.bind.JavaScriptMethod;
 
 public class TestResultsAnalyzerAction extends Actionable implements Action {
 
 	@SuppressWarnings("rawtypes")
 	Job project;
-	private List<Integer> builds = new ArrayList<Integer>();
-	private final static Logger LOG = Logger.getLogger(TestResultsAnalyzerAction.class.getName());
-
-	ResultInfo resultInfo;
 
 	public TestResultsAnalyzerAction(@SuppressWarnings("rawtypes") Job project) {
 		this.project = project;
@@ -96,7 +96,7 @@ public class TestResultsAnalyzerAction extends Actionable implements Action {
 		JSONArray jsonArray;
 		int noOfBuilds = getNoOfBuildRequired(noOfbuildsNeeded);
 
-		jsonArray = getBuildsArray(getBuildList(noOfBuilds));
+		jsonArray = getBuildsArray(getBuildList(getHistory().getBuilds(), noOfBuilds));
 
 		return jsonArray;
 	}
@@ -109,7 +109,7 @@ public class TestResultsAnalyzerAction extends Actionable implements Action {
 		return jsonArray;
 	}
 
-	private List<Integer> getBuildList(int noOfBuilds) {
+	private List<Integer> getBuildList(List<Integer> builds, int noOfBuilds) {
 		if ((noOfBuilds <= 0) || (noOfBuilds >= builds.size())) {
 			return builds;
 		}
@@ -135,157 +135,518 @@ public class TestResultsAnalyzerAction extends Actionable implements Action {
 	}
 
 	public boolean isUpdated() {
-		Run lastBuild = project.getLastBuild();
-		if (lastBuild == null) {
-			return false;
+		return JobHistoryCache.get(project).isUpdated(project);
+	}
+
+	/**
+	 * Starts bringing the shared history of this job up to date in the background.
+	 */
+	public void getJsonLoadData() {
+		JobHistoryCache.refresh(project);
+	}
+
+	/**
+	 * Starts bringing the shared history of this job up to date in the background, so the page can render right
+	 * away and poll {@link #getLoadProgress()} until the history is ready.
+	 *
+	 * @return the progress of the refresh
+	 */
+	@JavaScriptMethod
+	public JSONObject loadHistory() {
+		return getProgress(JobHistoryCache.refresh(project));
+	}
+
+	/**
+	 * Reports the progress of the background refresh started by {@link #loadHistory()}.
+	 *
+	 * @return whether the refresh is done, the builds processed so far, the builds to process, the elapsed
+	 *         time in milliseconds and the oldest loaded build
+	 */
+	@JavaScriptMethod
+	public JSONObject getLoadProgress() {
+		return getProgress(JobHistoryCache.get(project));
+	}
+
+	/**
+	 * Starts loading older builds than the ones within the configured window in the background. The page polls
+	 * {@link #getLoadProgress()} until they are loaded.
+	 *
+	 * @param from the oldest build number to load
+	 * @param to the newest build number to load
+	 * @return the progress of the loading
+	 */
+	@JavaScriptMethod
+	public JSONObject loadBuildRange(String from, String to) {
+		int fromBuild = getNoOfBuildRequired(from);
+		int toBuild = getNoOfBuildRequired(to);
+		if (fromBuild <= 0 || toBuild < fromBuild) {
+			return getLoadProgress();
 		}
+		return getProgress(JobHistoryCache.loadBuildRange(project, fromBuild, toBuild));
+	}
 
-		int latestBuildNumber = lastBuild.getNumber();
-		return !(builds.contains(latestBuildNumber));
+	private JSONObject getProgress(JobHistory history) {
+		JSONObject progress = new JSONObject();
+		progress.put("done", !history.isRefreshing());
+		progress.put("processed", history.getProcessedBuilds());
+		progress.put("total", history.getTotalBuilds());
+		progress.put("elapsed", history.getRefreshTime());
+		List<Integer> builds = history.getBuilds();
+		progress.put("oldestBuild", builds.isEmpty() ? 0 : builds.get(builds.size() - 1));
+		return progress;
 	}
 
-	@SuppressWarnings({"rawtypes", "unchecked"})
-	public void getJsonLoadData() {
-		if (!isUpdated()) {
+	/**
+	 * The shared history of this job as loaded by the last refresh. A history which was never loaded, or was
+	 * evicted in the meantime, is loaded in the background and is empty until then, so requests never wait for
+	 * the builds to be read.
+	 */
+	private JobHistory getHistory() {
+		JobHistory history = JobHistoryCache.get(project);
+		return history.isLoaded() ? history : JobHistoryCache.refresh(project);
+	}
+
+	/**
+	 * Streams the result tree to the page, see {@link JsTreeUtil#writeJsTree}. Unlike {@link #getTreeResult(UserConfig)}
+	 * the response is written while the history is walked, so its size does not affect the memory used, and
+	 * without holding the lock of the history, see {@link JobHistory.PackageStream}. With the
+	 * {@code lazy} parameter only the packages are written, their children are fetched by {@link #getTreeChildren}.
+	 * With the {@code compact} parameter the tree is written as described by {@link JsTreeUtil#writeCompactJsTree}.
+	 * <p>
+	 * Responses carry an ETag derived from the version of the history and the parameters, so clients which already
+	 * hold the current tree get a 304 without the history being read at all. Rendered responses are kept in the
+	 * {@link ResponseCache} for clients which do not hold it yet.
+	 */
+	public void doTreeResult(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		project.checkPermission(Item.READ);
+		UserConfig userConfig = new UserConfig(req.getParameter("noOfBuildsNeeded"), Boolean.parseBoolean(req.getParameter("hideConfigMethods")));
+		int depth = Boolean.parseBoolean(req.getParameter("lazy")) ? 1 : Integer.MAX_VALUE;
+		boolean compact = Boolean.parseBoolean(req.getParameter("compact"));
+		JobHistory history = getHistory();
+		int noOfBuilds = getNoOfBuildRequired(userConfig.getNoOfBuildsNeeded());
+		StatusTable statusTable = TestResultsAnalyzerExtension.DESCRIPTOR.getStatusTable();
+
+		long version;
+		List<Integer> buildList;
+		synchronized (history) {
+			version = history.getVersion();
+			buildList = getBuildList(history.getBuilds(), noOfBuilds);
+		}
+		String ifNoneMatch = req.getHeader("If-None-Match");
+		String key = getResponseKey(version, noOfBuilds, userConfig.isHideConfigMethods(), depth, compact, statusTable);
+		if (ifNoneMatch != null && ifNoneMatch.contains(getETag(key))) {
+			rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
 			return;
 		}
 
-		resultInfo = new ResultInfo();
-		builds = new ArrayList<Integer>();
-
-		RunList<Run> runs = null;
-		if (getNoOfRunsToFetch() > 0) {
-		    runs = project.getBuilds().limit(getNoOfRunsToFetch());
-        } else {
-		    runs = project.getBuilds();
-        }
-		for (Run run : runs) {
-			if(run.isBuilding()) {
-				continue;
+		rsp.setContentType("application/json;charset=UTF-8");
+		rsp.setHeader("ETag", getETag(key));
+		rsp.setHeader("Cache-Control", "private, no-cache");
+		String cached = ResponseCache.get(key);
+		Writer out = rsp.getCompressedWriter(req);
+		try {
+			if (cached != null) {
+				out.write(cached);
+				return;
 			}
-
-			int buildNumber = run.getNumber();
-			builds.add(buildNumber);
-
-			List<AbstractTestResultAction> testActions = run.getActions(AbstractTestResultAction.class);
-			for (AbstractTestResultAction testAction : testActions) {
-				if (AggregatedTestResultAction.class.isInstance(testAction)) {
-					addTestResults(buildNumber, (AggregatedTestResultAction) testAction);
+			ResponseCache.Recorder recorder = new ResponseCache.Recorder(out);
+			JsTreeUtil jsTreeUtils = new JsTreeUtil(statusTable);
+			// the response is written without holding the lock of the history
+			JobHistory.PackageStream packages = history.streamPackages(buildList);
+			try {
+				if (compact) {
+					jsTreeUtils.writeCompactJsTree(recorder, buildList, packages, userConfig.isHideConfigMethods(), depth);
 				} else {
-					addTestResult(buildNumber, run, testAction, testAction.getResult());
+					jsTreeUtils.writeJsTree(recorder, buildList, packages, userConfig.isHideConfigMethods(), depth);
 				}
+			} finally {
+				packages.close();
 			}
+			String recorded = recorder.getRecorded();
+			// a tree written while the history changed does not belong to either version
+			if (recorded != null && history.getVersion() == version) {
+				ResponseCache.put(key, recorded);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String getResponseKey(long version, int noOfBuilds, boolean hideConfigMethods, int depth, boolean compact, StatusTable statusTable) {
+		return version + "-" + noOfBuilds + "-" + hideConfigMethods + "-" + depth + "-" + compact + "-" + Integer.toHexString(statusTable.hashCode());
+	}
+
+	private static String getETag(String key) {
+		return "W/\"" + key + "\"";
+	}
+
+    @JavaScriptMethod
+    public JSONObject getTreeResult(UserConfig userConfig) {
+		JobHistory history = getHistory();
+        int noOfBuilds = getNoOfBuildRequired(userConfig.getNoOfBuildsNeeded());
+
+        JsTreeUtil jsTreeUtils = new JsTreeUtil(TestResultsAnalyzerExtension.DESCRIPTOR.getStatusTable());
+		synchronized (history) {
+			List<Integer> buildList = getBuildList(history.getBuilds(), noOfBuilds);
+			return jsTreeUtils.getJsTree(buildList, history.getPackageResults(buildList), userConfig.isHideConfigMethods());
+		}
+    }
+	
+	/**
+	 * The children of a package or class, for trees which are loaded one level at a time.
+	 *
+	 * @param userConfig the builds to show and whether to hide configuration methods
+	 * @param packageName the package to expand
+	 * @param className the class to expand, or empty to expand the package itself
+	 * @return the child nodes, without their own children
+	 */
+	@JavaScriptMethod
+	public JSONArray getTreeChildren(UserConfig userConfig, String packageName, String className) {
+		JobHistory history = getHistory();
+		int noOfBuilds = getNoOfBuildRequired(userConfig.getNoOfBuildsNeeded());
+
+		JsTreeUtil jsTreeUtils = new JsTreeUtil(TestResultsAnalyzerExtension.DESCRIPTOR.getStatusTable());
+		synchronized (history) {
+			List<Integer> buildList = getBuildList(history.getBuilds(), noOfBuilds);
+			PackageInfo packageInfo = history.getPackageResult(packageName, buildList);
+			Info info = packageInfo;
+			if (packageInfo != null && className != null && !className.isEmpty()) {
+				info = packageInfo.getClasses().get(className);
+			}
+			if (info == null) {
+				return new JSONArray();
+			}
+			return jsTreeUtils.getJsChildren(buildList, info, userConfig.isHideConfigMethods());
 		}
 	}
 
-	private void addTestResults(int buildNumber, AggregatedTestResultAction testAction) {
-		List<AggregatedTestResultAction.ChildReport> childReports = testAction.getChildReports();
-		for (AggregatedTestResultAction.ChildReport childReport : childReports) {
-			addTestResult(buildNumber, childReport.run, testAction, childReport.result);
+	/**
+	 * A window of the rows shown by the page, see {@link JsTreeUtil#getJsRows}. The page only requests the rows
+	 * around the visible part of the table. The {@link JsTreeUtil.RowLayout} of the rows is kept per version of the
+	 * history and set of toggled rows, so scrolling only reads the packages within the window.
+	 *
+	 * @param userConfig the builds to show and whether to hide configuration methods
+	 * @param toggled the keys of the rows which are not in their default state
+	 * @param expandedByDefault whether rows are expanded unless toggled
+	 * @param offset the first row to return
+	 * @param limit the maximum number of rows to return
+	 * @param sortByFlakiness whether to list the siblings which flipped most often between passed and failed first
+	 * @return the rows of the window and the total number of rows
+	 */
+	@JavaScriptMethod
+	public JSONObject getTreeRows(UserConfig userConfig, String[] toggled, boolean expandedByDefault, int offset, int limit,
+			boolean sortByFlakiness) {
+		JobHistory history = getHistory();
+		int noOfBuilds = getNoOfBuildRequired(userConfig.getNoOfBuildsNeeded());
+		Set<String> toggledKeys = toggled != null ? new HashSet<String>(Arrays.asList(toggled)) : Collections.<String>emptySet();
+
+		JsTreeUtil jsTreeUtils = new JsTreeUtil(TestResultsAnalyzerExtension.DESCRIPTOR.getStatusTable());
+		int windowOffset = Math.max(0, offset);
+		int windowLimit = Math.max(0, limit);
+		synchronized (history) {
+			List<Integer> buildList = getBuildList(history.getBuilds(), noOfBuilds);
+			String key = getRowLayoutKey(history.getVersion(), noOfBuilds, userConfig.isHideConfigMethods(), toggledKeys,
+					expandedByDefault, sortByFlakiness);
+			JsTreeUtil.RowLayout layout = RowLayoutCache.get(key);
+			if (layout == null) {
+				layout = jsTreeUtils.getRowLayout(buildList, history.getPackageResults(buildList), userConfig.isHideConfigMethods(),
+						toggledKeys, expandedByDefault, sortByFlakiness);
+				RowLayoutCache.put(key, layout);
+			}
+			// only the packages with rows in the window are read
+			List<PackageInfo> windowPackages = new ArrayList<PackageInfo>();
+			for (String packageName : layout.getPackageNames(windowOffset, windowLimit)) {
+				windowPackages.add(history.getPackageResult(packageName, buildList));
+			}
+			return jsTreeUtils.getJsRows(buildList, layout, windowPackages, userConfig.isHideConfigMethods(), toggledKeys,
+					expandedByDefault, windowOffset, windowLimit, sortByFlakiness);
 		}
 	}
 
-	private void addTestResult(int buildNumber, Run run, AbstractTestResultAction testAction, Object result) {
-		if (run == null || result == null) {
-			return;
+	private static String getRowLayoutKey(long version, int noOfBuilds, boolean hideConfigMethods, Set<String> toggled,
+			boolean expandedByDefault, boolean sortByFlakiness) {
+		StringBuilder key = new StringBuilder();
+		key.append(version).append('-').append(noOfBuilds).append('-').append(hideConfigMethods).append('-')
+				.append(expandedByDefault).append('-').append(sortByFlakiness);
+		// row keys never hold a line break, so the toggled keys are told apart by it
+		for (String toggledKey : new TreeSet<String>(toggled)) {
+			key.append('\n').append(toggledKey);
 		}
+		return key.toString();
+	}
 
-		try {
-			TabulatedResult testResult = (TabulatedResult) result;
-			Collection<? extends TestResult> packageResults = testResult.getChildren();
-			Jenkins jenkins = Jenkins.getInstance();
-			String rootUrl = jenkins != null ? jenkins.getRootUrl() : "";
-			for (TestResult packageResult : packageResults) { // packageresult
-				resultInfo.addPackage(buildNumber, (TabulatedResult) packageResult, rootUrl + run.getUrl());
+	/**
+	 * The packages, classes and test cases whose name contains the query, see {@link JobHistory#findNodes}. The
+	 * page shows them instead of the row window while its search field is filled.
+	 *
+	 * @param userConfig the builds to show and whether to hide configuration methods
+	 * @param query the text to look for, ignoring case
+	 * @param limit the maximum number of matches to return
+	 * @return the matching rows and whether there are more matches
+	 */
+	@JavaScriptMethod
+	public JSONObject searchTests(UserConfig userConfig, String query, int limit) {
+		JobHistory history = getHistory();
+		int noOfBuilds = getNoOfBuildRequired(userConfig.getNoOfBuildsNeeded());
+		int maxMatches = Math.max(0, limit);
+
+		JsTreeUtil jsTreeUtils = new JsTreeUtil(TestResultsAnalyzerExtension.DESCRIPTOR.getStatusTable());
+		synchronized (history) {
+			List<Integer> buildList = getBuildList(history.getBuilds(), noOfBuilds);
+			List<Info> nodes = query == null || query.isEmpty() ? Collections.<Info>emptyList()
+					: history.findNodes(query, buildList, maxMatches + 1);
+			boolean more = nodes.size() > maxMatches;
+			return jsTreeUtils.getJsMatches(buildList, more ? nodes.subList(0, maxMatches) : nodes,
+					userConfig.isHideConfigMethods(), more);
+		}
+	}
+
+	/**
+	 * The series shown by the charts, see {@link JsTreeUtil#getJsChartSeries}.
+	 *
+	 * @param userConfig the builds to show
+	 * @param selected the keys of the topmost checked rows, the charts sum up all packages if there are none
+	 * @return the series per build, oldest build first
+	 */
+	@JavaScriptMethod
+	public JSONObject getChartSeries(UserConfig userConfig, String[] selected) {
+		JobHistory history = getHistory();
+		int noOfBuilds = getNoOfBuildRequired(userConfig.getNoOfBuildsNeeded());
+		float lowThreshold = parseThreshold(getRunTimeLowThreshold(), 0.5f);
+		float highThreshold = parseThreshold(getRunTimeHighThreshold(), 1.0f);
+
+		JsTreeUtil jsTreeUtils = new JsTreeUtil(TestResultsAnalyzerExtension.DESCRIPTOR.getStatusTable());
+		synchronized (history) {
+			List<Integer> buildList = getBuildList(history.getBuilds(), noOfBuilds);
+			if (selected == null || selected.length == 0) {
+				return jsTreeUtils.getJsChartSeries(buildList, history.getPackageResults(buildList), lowThreshold, highThreshold);
 			}
-		} catch (ClassCastException e) {
-			LOG.info("Got ClassCast exception while converting results to Tabulated Result from action: " + testAction.getClass().getName() + ". Ignoring as we only want test results for processing.");
+			List<List<String>> paths = new ArrayList<List<String>>();
+			for (String key : selected) {
+				paths.add(JsTreeUtil.fromKey(key));
+			}
+			return jsTreeUtils.getJsChartSeries(buildList, history.getNodes(paths, buildList, Integer.MAX_VALUE),
+					lowThreshold, highThreshold);
 		}
 	}
 
-    @JavaScriptMethod
-    public JSONObject getTreeResult(UserConfig userConfig) {
-		if (resultInfo == null) {
-			return new JSONObject();
+	private static float parseThreshold(String threshold, float defaultValue) {
+		if (threshold == null) {
+			return defaultValue;
+		}
+		try {
+			return Float.parseFloat(threshold);
+		} catch (NumberFormatException e) {
+			return defaultValue;
 		}
+	}
 
-        int noOfBuilds = getNoOfBuildRequired(userConfig.getNoOfBuildsNeeded());
-        List<Integer> buildList = getBuildList(noOfBuilds);
+	/**
+	 * The test cases which failed worst within the builds to show, see {@link WorstTests}.
+	 *
+	 * @param userConfig the builds to show
+	 * @param order how to rank the tests, the name of a {@link WorstTests.Order}
+	 * @param count the number of tests to return
+	 * @return the tests, worst first
+	 */
+	@JavaScriptMethod
+	public JSONArray getWorstTests(UserConfig userConfig, String order, int count) {
+		JobHistory history = getHistory();
+		int noOfBuilds = getNoOfBuildRequired(userConfig.getNoOfBuildsNeeded());
+		synchronized (history) {
+			List<Integer> buildList = getBuildList(history.getBuilds(), noOfBuilds);
+			WorstTests worstTests = new WorstTests(buildList, WorstTests.Order.of(order), count);
+			worstTests.addAll(history.getPackageResults(buildList));
+			return worstTests.toJson();
+		}
+	}
 
-        JsTreeUtil jsTreeUtils = new JsTreeUtil();
-		return jsTreeUtils.getJsTree(buildList, resultInfo, userConfig.isHideConfigMethods());
-    }
-	
+	/**
+	 * The test cases which flipped between passed and failed most often, see {@link WorstTests.Order#FLIPS}. The
+	 * flips are kept by the results of each test as builds are added, so ranking does not scan the builds for them.
+	 *
+	 * @param userConfig the builds to show
+	 * @param count the number of tests to return
+	 * @return the tests, flakiest first
+	 */
 	@JavaScriptMethod
-    public String getExportCSV(String timeBased, String noOfBuildsNeeded) {
+	public JSONArray getFlakyTests(UserConfig userConfig, int count) {
+		return getWorstTests(userConfig, WorstTests.Order.FLIPS.name(), count);
+	}
+
+	/**
+	 * The test cases whose latest duration is a significant regression over their earlier durations, see
+	 * {@link DurationRegressions}.
+	 *
+	 * @param userConfig the builds to show
+	 * @param count the number of tests to return
+	 * @return the tests, most significant regression first
+	 */
+	@JavaScriptMethod
+	public JSONArray getDurationRegressions(UserConfig userConfig, int count) {
+		JobHistory history = getHistory();
+		int noOfBuilds = getNoOfBuildRequired(userConfig.getNoOfBuildsNeeded());
+		synchronized (history) {
+			List<Integer> buildList = getBuildList(history.getBuilds(), noOfBuilds);
+			DurationRegressions regressions = new DurationRegressions(buildList, count);
+			regressions.addAll(history.getPackageResults(buildList));
+			return regressions.toJson();
+		}
+	}
+
+	/**
+	 * The worst tests shown on the job page, as ranked for the current version of the history. Only histories which
+	 * are loaded already are ranked, so showing the job page never starts loading a history.
+	 *
+	 * @return the tests, worst first, or an empty list if the history is not loaded or is being refreshed
+	 */
+	public List<WorstTests.Test> getJobWorstTests() {
+		JobHistory history = JobHistoryCache.getIfPresent(project);
+		if (!hasPermission() || history == null || !history.isLoaded() || history.isRefreshing()) {
+			return Collections.emptyList();
+		}
+		return JobHistoryCache.getJobWorstTests(history);
+	}
+
+	/**
+	 * Streams the results of the builds to show as a CSV download, written while the history is walked so the size
+	 * of the export does not affect the memory used. The history is not locked while writing. The {@code timeBased}
+	 * parameter exports the run times instead of the statuses.
+	 */
+	public void doExportCsv(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		project.checkPermission(Item.READ);
+		boolean isTimeBased = Boolean.parseBoolean(req.getParameter("timeBased"));
+		JobHistory history = getHistory();
+		int noOfBuilds = getNoOfBuildRequired(req.getParameter("noOfBuildsNeeded"));
+
+		List<Integer> buildList = getBuildList(history.getBuilds(), noOfBuilds);
+		rsp.setContentType("text/csv;charset=UTF-8");
+		rsp.setHeader("Content-Disposition", "attachment; filename=\"Test Results.csv\"");
+		Writer out = rsp.getCompressedWriter(req);
+		JobHistory.PackageStream packages = history.streamPackages(buildList);
+		try {
+			writeExportCSV(out, isTimeBased, buildList, packages);
+		} finally {
+			packages.close();
+			out.close();
+		}
+	}
+
+	/**
+	 * Streams the test case results of the loaded builds for other tools, see {@link HistoryExport}. The
+	 * {@code format} parameter selects {@code ndjson}, the default, or {@code binary}. The {@code from} and
+	 * {@code to} parameters limit the build numbers and {@code prefix} the full names of the tests.
+	 */
+	public void doExportHistory(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		project.checkPermission(Item.READ);
+		boolean binary = "binary".equals(req.getParameter("format"));
+		int from = parseBuildNumber(req.getParameter("from"), Integer.MIN_VALUE);
+		int to = parseBuildNumber(req.getParameter("to"), Integer.MAX_VALUE);
+		JobHistory history = getHistory();
+
+		HistoryExport export = new HistoryExport(history.getBuilds(), from, to, req.getParameter("prefix"));
+		JobHistory.PackageStream packages = history.streamPackages(export);
+		try {
+			if (binary) {
+				rsp.setContentType("application/octet-stream");
+				rsp.setHeader("Content-Disposition", "attachment; filename=\"test-results.bin\"");
+				OutputStream out = new BufferedOutputStream(rsp.getCompressedOutputStream(req));
+				try {
+					export.writeBinary(out, packages);
+				} finally {
+					out.close();
+				}
+			} else {
+				rsp.setContentType("application/x-ndjson;charset=UTF-8");
+				rsp.setHeader("Content-Disposition", "attachment; filename=\"test-results.ndjson\"");
+				Writer out = rsp.getCompressedWriter(req);
+				try {
+					export.writeJson(out, packages);
+				} finally {
+					out.close();
+				}
+			}
+		} finally {
+			packages.close();
+		}
+	}
+
+	private static int parseBuildNumber(String buildNumber, int defaultValue) {
+		if (buildNumber == null || buildNumber.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(buildNumber);
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	@JavaScriptMethod
+	public String getExportCSV(String timeBased, String noOfBuildsNeeded) {
 		boolean isTimeBased = Boolean.parseBoolean(timeBased);
-        Map<String, PackageInfo> packageResults = resultInfo.getPackageResults();
+		JobHistory history = getHistory();
 		int noOfBuilds = getNoOfBuildRequired(noOfBuildsNeeded);
-		List<Integer> buildList = getBuildList(noOfBuilds);
-
-		StringBuffer builder = new StringBuffer("");
-        for (int i = 0; i < buildList.size(); i++) {
-            builder.append(",\"");
-            builder.append(Integer.toString(builds.get(i)));
-            builder.append("\"");
-        }		
-        String header = "\"Package\",\"Class\",\"Test\"";
-        header += builder.toString();
-
-		StringBuilder exportBuilder = new StringBuilder();
-        exportBuilder.append(header + System.lineSeparator());
+		synchronized (history) {
+			List<Integer> buildList = getBuildList(history.getBuilds(), noOfBuilds);
+			StringWriter out = new StringWriter();
+			try {
+				writeExportCSV(out, isTimeBased, buildList, history.getPackageResults(buildList));
+			} catch (IOException e) {
+				// a StringWriter does not throw
+				throw new IllegalStateException(e);
+			}
+			return out.toString();
+		}
+	}
+
+	private void writeExportCSV(Writer out, boolean isTimeBased, List<Integer> buildList, Iterable<PackageInfo> packageResults) throws IOException {
+		String lineSeparator = System.lineSeparator();
+		out.write("\"Package\",\"Class\",\"Test\"");
+		for (Integer buildNumber : buildList) {
+			out.write(",\"");
+			out.write(buildNumber.toString());
+			out.write('"');
+		}
+		out.write(lineSeparator);
+
 		DecimalFormat decimalFormat = new DecimalFormat("#.###");
 		decimalFormat.setRoundingMode(RoundingMode.CEILING);
-        for (PackageInfo pInfo : packageResults.values()) {
-            String packageName = pInfo.getName();
-            //loop the classes
-            for (ClassInfo cInfo : pInfo.getClasses().values()) {
-                String className = cInfo.getName();
-                //loop the tests
-                for (TestCaseInfo tInfo : cInfo.getTests().values()) {
-                    String testName = tInfo.getName();
-                    exportBuilder.append("\""+ packageName + "\",\"" + className + "\",\"" + testName+"\"");
-					Map<Integer, ResultData> buildPackageResults = tInfo.getBuildPackageResults();
-					for (int i = 0; i < buildList.size(); i++) {
-						Integer buildNumber = buildList.get(i);
-						String data = getCustomStatus("NA");
-						if(buildPackageResults.containsKey(buildNumber)) {
-							ResultData buildResult = buildPackageResults.get(buildNumber);
-							if(!isTimeBased) {
-								data = getCustomStatus(buildResult.getStatus());
+		StatusTable statusTable = TestResultsAnalyzerExtension.DESCRIPTOR.getStatusTable();
+		String naData = statusTable.getName(ResultStatus.NA);
+		for (PackageInfo pInfo : packageResults) {
+			for (ClassInfo cInfo : pInfo.getClasses().values()) {
+				for (TestCaseInfo tInfo : cInfo.getTests().values()) {
+					writeCsvValue(out, pInfo.getName());
+					out.write(',');
+					writeCsvValue(out, cInfo.getName());
+					out.write(',');
+					writeCsvValue(out, tInfo.getName());
+					BuildResults buildResults = tInfo.getResults();
+					for (Integer buildNumber : buildList) {
+						int index = buildResults.indexOf(buildNumber);
+						String data = naData;
+						if (index >= 0) {
+							if (!isTimeBased) {
+								data = statusTable.getName(buildResults.getStatus(index));
 							} else {
-								data = decimalFormat.format(buildResult.getTotalTimeTaken());
+								data = decimalFormat.format(buildResults.getTotalTimeTaken(index));
 							}
 						}
-						exportBuilder.append(",\"" + data + "\"");
+						out.write(',');
+						writeCsvValue(out, data);
 					}
-                    exportBuilder.append(System.lineSeparator());
-                }
-            }
-        }
-        return exportBuilder.toString();
-    }
-
-	private String getCustomStatus(String status) {
-		ResultStatus resultStatus = null;
-		try {
-			resultStatus = ResultStatus.valueOf(status);
-		} catch (IllegalArgumentException e) {
-		    resultStatus = null;
-		}
-		if (resultStatus == null)
-			return status;
-		switch (resultStatus) {
-			case PASSED:
-				return getPassedRepresentation();
-			case FAILED:
-				return getFailedRepresentation();
-			case SKIPPED:
-				return getSkippedRepresentation();
-			case NA:
-				return getNaRepresentation();
+					out.write(lineSeparator);
+				}
+			}
 		}
-		return status;
+	}
+
+	private static void writeCsvValue(Writer out, String value) throws IOException {
+		out.write('"');
+		// quotes within a quoted value are doubled
+		out.write(value.indexOf('"') < 0 ? value : value.replace("\"", "\"\""));
+		out.write('"');
 	}
 
 	public String getNoOfBuilds() {
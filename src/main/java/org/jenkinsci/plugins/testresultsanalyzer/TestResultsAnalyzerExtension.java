@@ -51,6 +51,10 @@ public class TestResultsAnalyzerExtension extends TransientActionFactory<Job> im
         private static final String NA_REPRESENTATION = "N/A";
         private String noOfBuilds = "10";
         private int noOfRunsToFetch = -1;
+        private int historyCacheSize = 20;
+        private int historyCacheMaxResults = 2000000;
+        private int loaderThreads = 0;
+        private boolean mapHistoryIndex = false;
         private boolean showAllBuilds = false;
         private boolean showBuildTime = false;
         private boolean showLineGraph = true;
@@ -92,6 +96,10 @@ public class TestResultsAnalyzerExtension extends TransientActionFactory<Job> im
             try {
                 noOfBuilds = formData.getString("noOfBuilds");
                 noOfRunsToFetch = formData.getInt("noOfRunsToFetch");
+                historyCacheSize = formData.getInt("historyCacheSize");
+                historyCacheMaxResults = formData.getInt("historyCacheMaxResults");
+                loaderThreads = formData.getInt("loaderThreads");
+                mapHistoryIndex = formData.getBoolean("mapHistoryIndex");
                 showAllBuilds = formData.getBoolean("showAllBuilds");
                 showBuildTime = formData.getBoolean("showBuildTime");
                 hideConfigurationMethods = formData.getBoolean("hideConfigurationMethods");
@@ -142,6 +150,22 @@ public class TestResultsAnalyzerExtension extends TransientActionFactory<Job> im
             return noOfRunsToFetch;
         }
 
+        public int getHistoryCacheSize() {
+            return historyCacheSize;
+        }
+
+        public int getHistoryCacheMaxResults() {
+            return historyCacheMaxResults;
+        }
+
+        public int getLoaderThreads() {
+            return loaderThreads;
+        }
+
+        public boolean isMapHistoryIndex() {
+            return mapHistoryIndex;
+        }
+
         public boolean getShowAllBuilds() { return showAllBuilds; }
 
 		public boolean getShowLineGraph() { return showLineGraph; }
@@ -206,10 +230,33 @@ public class TestResultsAnalyzerExtension extends TransientActionFactory<Job> im
             return naColor;
         }
 
+        /**
+         * Resolves the configured status names and colors into a table indexed by status ordinal.
+         *
+         * @return the status table
+         */
+        public StatusTable getStatusTable() {
+            return new StatusTable(
+                    new String[]{passedRepresentation, failedRepresentation, skippedRepresentation, naRepresentation},
+                    new String[]{passedColor, failedColor, skippedColor, naColor});
+        }
+
         public FormValidation doCheckNoOfRunsToFetch(@QueryParameter String noOfRunsToFetch){
             return intValidation(noOfRunsToFetch);
         }
 
+        public FormValidation doCheckHistoryCacheSize(@QueryParameter String historyCacheSize){
+            return intValidation(historyCacheSize);
+        }
+
+        public FormValidation doCheckHistoryCacheMaxResults(@QueryParameter String historyCacheMaxResults){
+            return intValidation(historyCacheMaxResults);
+        }
+
+        public FormValidation doCheckLoaderThreads(@QueryParameter String loaderThreads){
+            return intValidation(loaderThreads);
+        }
+
         public FormValidation doCheckNoOfBuilds(@QueryParameter String noOfBuilds){
             return intValidation(noOfBuilds);
         }
@@ -0,0 +1,255 @@
+package org.jenkinsci.plugins.testresultsanalyzer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.BuildResults;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.Info;
+
+/**
+ * The test cases which failed worst within a window of builds. The tests are ranked while walking the result tree
+ * and only the current top ones are kept in a heap, so the ranking never holds more than the requested number of
+ * tests, whatever the size of the history.
+ * <p>
+ * Ranked by {@link Order#FLIPS} the list holds the flakiest tests instead. Their flips are counted over the same
+ * window, so the ranking does not depend on whether the history is served from its index file or from memory.
+ */
+public class WorstTests {
+
+	/**
+	 * Number of failed builds listed per test.
+	 */
+	private static final int MAX_FAILED_BUILDS = 10;
+
+	/**
+	 * How the tests are ranked. Ties are broken by the number of failures, then by name.
+	 */
+	public enum Order {
+		/** the number of builds the test failed in */
+		FAILURES,
+		/** the share of the builds with a result of the test in which it failed */
+		RATE,
+		/** the number of builds the test failed in since it last passed or was skipped */
+		STREAK,
+		/** the flip rate of the test within the window, see {@link BuildResults#getFlipRate(List)} */
+		FLIPS;
+
+		/**
+		 * @param name the name of an order, ignoring case
+		 * @return the order, {@link #FAILURES} for unknown names
+		 */
+		public static Order of(String name) {
+			for (Order order : values()) {
+				if (order.name().equalsIgnoreCase(name)) {
+					return order;
+				}
+			}
+			return FAILURES;
+		}
+	}
+
+	private final List<Integer> builds;
+	private final int count;
+	private final Order order;
+	private final Comparator<Test> comparator;
+	private final PriorityQueue<Test> heap;
+
+	/**
+	 * @param builds the builds to look at, newest first
+	 * @param order how to rank the tests
+	 * @param count the number of tests to keep
+	 */
+	public WorstTests(List<Integer> builds, Order order, int count) {
+		this.builds = builds;
+		this.count = Math.max(0, count);
+		this.order = order;
+		comparator = comparator(order);
+		// the head of the heap is the best of the kept tests, the one to drop when a worse test shows up
+		heap = new PriorityQueue<Test>(this.count + 1, comparator);
+	}
+
+	/**
+	 * Ranks the test cases below the given nodes.
+	 *
+	 * @param nodes the nodes to walk, usually the packages of a history
+	 */
+	public void addAll(Iterable<? extends Info> nodes) {
+		for (Info info : nodes) {
+			add(info);
+		}
+	}
+
+	private void add(Info info) {
+		Map<String, ? extends Info> children = info.getChildren();
+		if (children != null) {
+			for (Info child : children.values()) {
+				add(child);
+			}
+			return;
+		}
+
+		BuildResults results = info.getResults();
+		int failures = 0;
+		int runs = 0;
+		int streak = 0;
+		boolean streakEnded = false;
+		for (Integer buildNumber : builds) {
+			int index = results.indexOf(buildNumber);
+			if (index < 0) {
+				continue;
+			}
+			runs++;
+			if (results.getStatus(index) == ResultStatus.FAILED) {
+				failures++;
+				if (!streakEnded) {
+					streak++;
+				}
+			} else {
+				streakEnded = true;
+			}
+		}
+		int flips = results.getFlips(builds);
+		double flipRate = results.getFlipRate(builds);
+		if (count == 0 || (order == Order.FLIPS ? flips == 0 : failures == 0)) {
+			return;
+		}
+
+		Test test = new Test(info, failures, runs, streak, flips, flipRate);
+		if (heap.size() < count) {
+			heap.add(test);
+		} else if (comparator.compare(test, heap.peek()) > 0) {
+			heap.poll();
+			heap.add(test);
+		}
+	}
+
+	/**
+	 * @return the kept tests, worst first
+	 */
+	public List<Test> getTests() {
+		List<Test> tests = new ArrayList<Test>(heap);
+		Collections.sort(tests, Collections.reverseOrder(comparator));
+		return tests;
+	}
+
+	/**
+	 * The kept tests as the page shows them: the names of the test and its ancestors joined by dots, the failure
+	 * counts and links to the newest failed builds.
+	 *
+	 * @return the tests, worst first
+	 */
+	public JSONArray toJson() {
+		JSONArray json = new JSONArray();
+		for (Test test : getTests()) {
+			JSONObject testJson = new JSONObject();
+			testJson.put("name", test.getName());
+			testJson.put("failures", test.getFailures());
+			testJson.put("runs", test.getRuns());
+			testJson.put("rate", test.getRate());
+			testJson.put("streak", test.getStreak());
+			testJson.put("flips", test.getFlips());
+			testJson.put("flipRate", test.getFlipRate());
+
+			JSONArray failedBuilds = new JSONArray();
+			BuildResults results = test.info.getResults();
+			for (Integer buildNumber : builds) {
+				int index = results.indexOf(buildNumber);
+				if (index >= 0 && results.getStatus(index) == ResultStatus.FAILED) {
+					JSONObject build = new JSONObject();
+					build.put("buildNumber", buildNumber.toString());
+					build.put("buildUrl", results.getUrl(index));
+					failedBuilds.add(build);
+					if (failedBuilds.size() == MAX_FAILED_BUILDS) {
+						break;
+					}
+				}
+			}
+			testJson.put("builds", failedBuilds);
+			json.add(testJson);
+		}
+		return json;
+	}
+
+	private static Comparator<Test> comparator(final Order order) {
+		return new Comparator<Test>() {
+			public int compare(Test a, Test b) {
+				int result = 0;
+				if (order == Order.RATE) {
+					result = Double.compare(a.getRate(), b.getRate());
+				} else if (order == Order.STREAK) {
+					result = Integer.compare(a.streak, b.streak);
+				} else if (order == Order.FLIPS) {
+					result = Double.compare(a.getFlipRate(), b.getFlipRate());
+					if (result == 0) {
+						result = Integer.compare(a.getFlips(), b.getFlips());
+					}
+				}
+				if (result == 0) {
+					result = Integer.compare(a.failures, b.failures);
+				}
+				// the smaller name ranks worse, so equally bad tests are listed by name
+				return result != 0 ? result : b.getName().compareTo(a.getName());
+			}
+		};
+	}
+
+	/**
+	 * A ranked test case.
+	 */
+	public static final class Test {
+		private final Info info;
+		private final int failures;
+		private final int runs;
+		private final int streak;
+		private final int flips;
+		private final double flipRate;
+		private String name;
+
+		Test(Info info, int failures, int runs, int streak, int flips, double flipRate) {
+			this.info = info;
+			this.failures = failures;
+			this.runs = runs;
+			this.streak = streak;
+			this.flips = flips;
+			this.flipRate = flipRate;
+		}
+
+		public String getName() {
+			if (name == null) {
+				name = info.getFullName();
+			}
+			return name;
+		}
+
+		public int getFailures() {
+			return failures;
+		}
+
+		public int getRuns() {
+			return runs;
+		}
+
+		public double getRate() {
+			return runs > 0 ? (double) failures / runs : 0;
+		}
+
+		public int getStreak() {
+			return streak;
+		}
+
+		public int getFlips() {
+			return flips;
+		}
+
+		public double getFlipRate() {
+			return flipRate;
+		}
+	}
+}
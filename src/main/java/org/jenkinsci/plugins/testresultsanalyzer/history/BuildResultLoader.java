@@ -0,0 +1,157 @@
+package org.jenkinsci.plugins.testresultsanalyzer.history;
+
+import hudson.model.Run;
+import hudson.tasks.junit.TestResultAction;
+import hudson.tasks.test.AbstractTestResultAction;
+import hudson.tasks.test.AggregatedTestResultAction;
+import hudson.tasks.test.TabulatedResult;
+import hudson.tasks.test.TestResult;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.testresultsanalyzer.TestResultsAnalyzerExtension;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ResultInfo;
+
+/**
+ * Extracts the test results of runs into build-local {@link ResultInfo} trees. Reading a run's test results
+ * deserializes its report from disk, so the extraction of several runs is spread over a bounded pool whose size is
+ * configured in the global settings. The resulting trees are merged into a job's history by the caller.
+ * <p>
+ * JUnit results are streamed from the build's junitResult.xml by the {@link JUnitResultReader} where possible, all
+ * other results are read through the test result of the action.
+ */
+public final class BuildResultLoader {
+
+	private final static Logger LOG = Logger.getLogger(BuildResultLoader.class.getName());
+
+	private static ThreadPoolExecutor executor;
+
+	private BuildResultLoader() {
+	}
+
+	/**
+	 * Schedules the extraction of the given runs.
+	 *
+	 * @param runs the runs to read
+	 * @return one future per run, in the order of the given runs
+	 */
+	@SuppressWarnings("rawtypes")
+	public static List<Future<ResultInfo>> submit(List<Run> runs) {
+		ThreadPoolExecutor pool = getExecutor();
+		List<Future<ResultInfo>> futures = new ArrayList<Future<ResultInfo>>(runs.size());
+		for (final Run run : runs) {
+			futures.add(pool.submit(new Callable<ResultInfo>() {
+				public ResultInfo call() {
+					return extract(run);
+				}
+			}));
+		}
+		return futures;
+	}
+
+	/**
+	 * Reads the test results of a single run on the calling thread.
+	 *
+	 * @param run a completed run
+	 * @return the results of the run, empty if the run has no test results
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public static ResultInfo extract(Run run) {
+		ResultInfo resultInfo = new ResultInfo();
+		int buildNumber = run.getNumber();
+
+		List<AbstractTestResultAction> testActions = run.getActions(AbstractTestResultAction.class);
+		for (AbstractTestResultAction testAction : testActions) {
+			if (AggregatedTestResultAction.class.isInstance(testAction)) {
+				addTestResults(resultInfo, buildNumber, (AggregatedTestResultAction) testAction);
+			} else if (!addJUnitResult(resultInfo, buildNumber, run, testAction)) {
+				addTestResult(resultInfo, buildNumber, run, testAction, testAction.getResult());
+			}
+		}
+		return resultInfo;
+	}
+
+	private static void addTestResults(ResultInfo resultInfo, int buildNumber, AggregatedTestResultAction testAction) {
+		List<AggregatedTestResultAction.ChildReport> childReports = testAction.getChildReports();
+		for (AggregatedTestResultAction.ChildReport childReport : childReports) {
+			addTestResult(resultInfo, buildNumber, childReport.run, testAction, childReport.result);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static boolean addJUnitResult(ResultInfo resultInfo, int buildNumber, Run run, AbstractTestResultAction testAction) {
+		if (!(testAction instanceof TestResultAction) || run.getRootDir() == null) {
+			return false;
+		}
+		ResultInfo junitResults = JUnitResultReader.read(new File(run.getRootDir(), JUnitResultReader.FILE_NAME), buildNumber,
+				getRootUrl() + run.getUrl());
+		if (junitResults == null) {
+			return false;
+		}
+		resultInfo.merge(junitResults);
+		return true;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static void addTestResult(ResultInfo resultInfo, int buildNumber, Run run, AbstractTestResultAction testAction, Object result) {
+		if (run == null || result == null) {
+			return;
+		}
+
+		try {
+			TabulatedResult testResult = (TabulatedResult) result;
+			Collection<? extends TestResult> packageResults = testResult.getChildren();
+			String rootUrl = getRootUrl();
+			for (TestResult packageResult : packageResults) { // packageresult
+				resultInfo.addPackage(buildNumber, (TabulatedResult) packageResult, rootUrl + run.getUrl());
+			}
+		} catch (ClassCastException e) {
+			LOG.info("Got ClassCast exception while converting results to Tabulated Result from action: " + testAction.getClass().getName() + ". Ignoring as we only want test results for processing.");
+		}
+	}
+
+	/**
+	 * The root url prepended to the urls of the loaded results.
+	 *
+	 * @return the configured root url, or an empty string if it is not known
+	 */
+	public static String getRootUrl() {
+		Jenkins jenkins = Jenkins.getInstance();
+		String rootUrl = jenkins != null ? jenkins.getRootUrl() : null;
+		return rootUrl != null ? rootUrl : "";
+	}
+
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		int threads = TestResultsAnalyzerExtension.DESCRIPTOR.getLoaderThreads();
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(),
+					new NamingThreadFactory(new DaemonThreadFactory(), "TestResultsAnalyzer.loader"));
+			executor.allowCoreThreadTimeOut(true);
+		} else if (threads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		} else if (threads < executor.getMaximumPoolSize()) {
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+		return executor;
+	}
+}
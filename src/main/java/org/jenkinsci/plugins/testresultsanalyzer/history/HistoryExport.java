@@ -0,0 +1,219 @@
+package org.jenkinsci.plugins.testresultsanalyzer.history;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jenkinsci.plugins.testresultsanalyzer.JsonWriter;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.BuildResults;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ClassInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.PackageInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.TestCaseInfo;
+
+/**
+ * Exports the test case results of a range of builds for processing by other tools, either as newline delimited
+ * JSON with one object per result or in a compact binary form. Both are written while the history is walked.
+ * Tests are selected by a prefix of their full name, which is the package, class and test name joined by dots.
+ * <p>
+ * The binary form starts with the bytes {@code TRA} and the format version, followed by one record per test case.
+ * A record is a type byte and the length of its payload, so readers can skip records of unknown types. The payload
+ * of a {@link #TEST} record holds the package, class and test name, the number of results and per result, oldest
+ * build first, the build number, the {@link org.jenkinsci.plugins.testresultsanalyzer.ResultStatus} ordinal as a
+ * byte, the duration in seconds as a float and the total, failed, passed and skipped counts. Strings are written as
+ * the length of their UTF-8 bytes followed by the bytes. Lengths, counts and build numbers are variable length ints
+ * with 7 bits per byte, least significant first; floats are big endian.
+ */
+public final class HistoryExport {
+
+	public static final int VERSION = 1;
+
+	/**
+	 * Record type of a test case and its results.
+	 */
+	public static final int TEST = 1;
+
+	private final List<Integer> builds;
+	private final String namePrefix;
+
+	/**
+	 * @param historyBuilds the builds of the history, newest first
+	 * @param from the oldest build to export
+	 * @param to the newest build to export
+	 * @param namePrefix the prefix of the full names of the tests to export, null or empty for all tests
+	 */
+	public HistoryExport(List<Integer> historyBuilds, int from, int to, String namePrefix) {
+		List<Integer> rangeBuilds = new ArrayList<Integer>();
+		for (Integer buildNumber : historyBuilds) {
+			if (buildNumber >= from && buildNumber <= to) {
+				rangeBuilds.add(buildNumber);
+			}
+		}
+		builds = rangeBuilds;
+		this.namePrefix = namePrefix != null ? namePrefix : "";
+	}
+
+	/**
+	 * @return the builds of the history within the range, newest first
+	 */
+	public List<Integer> getBuilds() {
+		return builds;
+	}
+
+	public String getNamePrefix() {
+		return namePrefix;
+	}
+
+	/**
+	 * Whether a node may hold tests selected by a name prefix.
+	 *
+	 * @param namePrefix the prefix of the full names of the selected tests
+	 * @param path the names of the node and its ancestors joined by dots
+	 * @param test whether the node is a test case
+	 * @return false if neither the node nor any of its children can be selected
+	 */
+	static boolean accepts(String namePrefix, String path, boolean test) {
+		if (namePrefix.isEmpty() || path.startsWith(namePrefix)) {
+			return true;
+		}
+		return !test && namePrefix.startsWith(path + ".");
+	}
+
+	/**
+	 * Writes one JSON object per line and result, holding the package, class and test name, the build number, the
+	 * status, the duration in seconds and the total, failed, passed and skipped counts.
+	 *
+	 * @param out the stream to write to
+	 * @param packageResults the packages of the history, holding at least the results of the exported builds
+	 * @throws IOException if writing fails
+	 */
+	public void writeJson(Writer out, Iterable<PackageInfo> packageResults) throws IOException {
+		List<Integer> chronological = getChronologicalBuilds();
+		JsonWriter json = new JsonWriter(out);
+		for (PackageInfo packageInfo : packageResults) {
+			String packageName = packageInfo.getName();
+			if (!accepts(namePrefix, packageName, false)) {
+				continue;
+			}
+			for (ClassInfo classInfo : packageInfo.getClasses().values()) {
+				String classPath = packageName + "." + classInfo.getName();
+				if (!accepts(namePrefix, classPath, false)) {
+					continue;
+				}
+				for (TestCaseInfo testCaseInfo : classInfo.getTests().values()) {
+					if (!accepts(namePrefix, classPath + "." + testCaseInfo.getName(), true)) {
+						continue;
+					}
+					BuildResults results = testCaseInfo.getResults();
+					for (Integer buildNumber : chronological) {
+						int index = results.indexOf(buildNumber);
+						if (index < 0) {
+							continue;
+						}
+						json.beginObject()
+								.name("package").value(packageName)
+								.name("class").value(classInfo.getName())
+								.name("test").value(testCaseInfo.getName())
+								.name("build").value(buildNumber)
+								.name("status").value(results.getStatus(index).name())
+								.name("duration").value(results.getTotalTimeTaken(index))
+								.name("total").value(results.getTotalTests(index))
+								.name("failed").value(results.getTotalFailed(index))
+								.name("passed").value(results.getTotalPassed(index))
+								.name("skipped").value(results.getTotalSkipped(index))
+								.endObject();
+						out.write('\n');
+					}
+				}
+			}
+		}
+		json.flush();
+	}
+
+	/**
+	 * Writes the binary form described above.
+	 *
+	 * @param out the stream to write to
+	 * @param packageResults the packages of the history, holding at least the results of the exported builds
+	 * @throws IOException if writing fails
+	 */
+	public void writeBinary(OutputStream out, Iterable<PackageInfo> packageResults) throws IOException {
+		List<Integer> chronological = getChronologicalBuilds();
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeBytes("TRA");
+		data.writeByte(VERSION);
+
+		// each payload is assembled first since its length goes in front of it
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream record = new DataOutputStream(payload);
+		for (PackageInfo packageInfo : packageResults) {
+			String packageName = packageInfo.getName();
+			if (!accepts(namePrefix, packageName, false)) {
+				continue;
+			}
+			for (ClassInfo classInfo : packageInfo.getClasses().values()) {
+				String classPath = packageName + "." + classInfo.getName();
+				if (!accepts(namePrefix, classPath, false)) {
+					continue;
+				}
+				for (TestCaseInfo testCaseInfo : classInfo.getTests().values()) {
+					if (!accepts(namePrefix, classPath + "." + testCaseInfo.getName(), true)) {
+						continue;
+					}
+					BuildResults results = testCaseInfo.getResults();
+					int resultCount = 0;
+					for (Integer buildNumber : chronological) {
+						if (results.indexOf(buildNumber) >= 0) {
+							resultCount++;
+						}
+					}
+					if (resultCount == 0) {
+						continue;
+					}
+
+					payload.reset();
+					writeString(record, packageName);
+					writeString(record, classInfo.getName());
+					writeString(record, testCaseInfo.getName());
+					HistoryIndexFile.writeVarInt(record, resultCount);
+					for (Integer buildNumber : chronological) {
+						int index = results.indexOf(buildNumber);
+						if (index < 0) {
+							continue;
+						}
+						HistoryIndexFile.writeVarInt(record, buildNumber);
+						record.writeByte(results.getStatus(index).ordinal());
+						record.writeFloat(results.getTotalTimeTaken(index));
+						HistoryIndexFile.writeVarInt(record, results.getTotalTests(index));
+						HistoryIndexFile.writeVarInt(record, results.getTotalFailed(index));
+						HistoryIndexFile.writeVarInt(record, results.getTotalPassed(index));
+						HistoryIndexFile.writeVarInt(record, results.getTotalSkipped(index));
+					}
+					record.flush();
+
+					data.writeByte(TEST);
+					HistoryIndexFile.writeVarInt(data, payload.size());
+					payload.writeTo(data);
+				}
+			}
+		}
+		data.flush();
+	}
+
+	private List<Integer> getChronologicalBuilds() {
+		List<Integer> chronological = new ArrayList<Integer>(builds);
+		Collections.reverse(chronological);
+		return chronological;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		HistoryIndexFile.writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+}
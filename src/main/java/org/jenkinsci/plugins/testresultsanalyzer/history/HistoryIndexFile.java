@@ -0,0 +1,961 @@
+package org.jenkinsci.plugins.testresultsanalyzer.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.BuildResults;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ClassInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.Info;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.PackageInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ResultInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.TestCaseInfo;
+
+/**
+ * Append-only binary file holding the test result history of a job, stored in the job's root directory so the
+ * history survives restarts without reading the test reports of every build again.
+ * <p>
+ * After a header (magic, format version, window size the file was written for) the file is a sequence of records:
+ * <ul>
+ * <li>NODE: introduces the next package, class or test case id with its parent id, name and safe name.</li>
+ * <li>BUILD: build number, byte length of the body and one entry per node which has a result in that build.</li>
+ * <li>REMOVE: marks a build as deleted.</li>
+ * <li>PENDING: marks a build which was still running when the history was refreshed.</li>
+ * </ul>
+ * Test case entries of a single passed, failed or skipped test only store the status; durations are stored in
+ * milliseconds. Package entries also store the report url of the build; the urls of classes and test cases are computed
+ * from it and not stored. All ints except build numbers and lengths are variable length encoded. The entries of a build are
+ * written in the order of the result tree, packages and their classes and tests sorted by name, which lets
+ * {@link MappedHistoryIndex} merge the builds of a history without holding them in memory.
+ * <p>
+ * Several instances may write the same file, such as the one of a loaded history and the one completed builds of
+ * jobs without a loaded history are written through, so every access to the file holds a lock shared by all
+ * instances of that file. Before appending to a file another instance changed, the dictionary reads the records
+ * appended since, or the whole file again if it was replaced meanwhile.
+ */
+public class HistoryIndexFile {
+
+	public static final String FILE_NAME = "test-results-analyzer-history.bin";
+
+	static final int MAGIC = 0x54524148;
+	static final int VERSION = 2;
+	static final int HEADER_LENGTH = 12;
+
+	static final byte NODE = 1;
+	static final byte BUILD = 2;
+	static final byte REMOVE = 3;
+	static final byte PENDING = 4;
+
+	static final int FLAG_CONFIG = 1;
+	static final int FLAG_SINGLE_TEST = 2;
+	static final int STATUS_SHIFT = 2;
+	static final int STATUS_PASSED = 0;
+	static final int STATUS_FAILED = 1;
+	static final int STATUS_SKIPPED = 2;
+
+	private static final Object[] LOCKS = new Object[64];
+
+	static {
+		for (int i = 0; i < LOCKS.length; i++) {
+			LOCKS[i] = new Object();
+		}
+	}
+
+	private final File file;
+	private final String rootUrl;
+
+	private IdNode root = new IdNode(-1, -1);
+	private int nodeCount;
+	private boolean dictionaryLoaded = true;
+	private int recordCount;
+	private long knownLength = -1;
+	private Object knownFileKey;
+	private MappedHistoryIndex mapped;
+
+	/**
+	 * @param file the index file
+	 * @param rootUrl the root url of Jenkins, stripped from stored urls and prepended to loaded ones
+	 */
+	public HistoryIndexFile(File file, String rootUrl) {
+		this.file = file;
+		this.rootUrl = rootUrl;
+	}
+
+	/**
+	 * @return the absolute path of the file
+	 */
+	public String getPath() {
+		return file.getAbsolutePath();
+	}
+
+	/**
+	 * Number of build, remove and pending records in the file, used to decide when to rewrite it.
+	 *
+	 * @return the number of records
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Whether the file exists. Appending to a missing file fails, so files are only ever started by {@link #create}.
+	 *
+	 * @return true if the file exists
+	 */
+	public boolean exists() {
+		return file.isFile();
+	}
+
+	/**
+	 * Loads the history held by the file.
+	 *
+	 * @param windowSize the configured number of runs to fetch
+	 * @param resultInfo the tree to load the results into
+	 * @param builds receives the loaded build numbers, newest first
+	 * @param pendingBuilds receives the builds which were still running when they were indexed
+	 * @return false if the file is missing or was written in a different format or for a different window
+	 * @throws IOException if the file can not be read
+	 */
+	public boolean read(int windowSize, ResultInfo resultInfo, List<Integer> builds, Set<Integer> pendingBuilds) throws IOException {
+		synchronized (lock()) {
+			List<Integer> buildList = new ArrayList<Integer>();
+			if (!readBuilds(windowSize, buildList, pendingBuilds)) {
+				return false;
+			}
+			Set<Integer> loadedBuilds = new HashSet<Integer>(buildList);
+			Entry entry = new Entry(rootUrl);
+
+			// second pass: decode the nodes and the builds within the window
+			List<IdNode> nodes = new ArrayList<IdNode>();
+			DataInputStream in = open();
+			try {
+				in.skipBytes(HEADER_LENGTH);
+				byte type;
+				while ((type = readType(in)) != -1) {
+					switch (type) {
+						case NODE:
+							nodes.add(readNode(in, nodes));
+							break;
+						case BUILD:
+							int buildNumber = in.readInt();
+							int length = in.readInt();
+							if (loadedBuilds.contains(buildNumber)) {
+								readBuild(in, buildNumber, nodes, resultInfo, entry);
+							} else {
+								in.skipBytes(length);
+							}
+							break;
+						default:
+							in.readInt();
+							break;
+					}
+				}
+			} finally {
+				in.close();
+			}
+			nodeCount = nodes.size();
+			dictionaryLoaded = true;
+			markKnown();
+			for (IdNode node : nodes) {
+				node.info = null;
+			}
+
+			builds.addAll(buildList);
+			return true;
+		}
+	}
+
+	/**
+	 * Determines the builds held by the file without decoding their results, for histories which are served from
+	 * {@link #map()} instead of being loaded into memory.
+	 *
+	 * @param windowSize the configured number of runs to fetch
+	 * @param builds receives the build numbers within the window, newest first
+	 * @param pendingBuilds receives the builds which were still running when they were indexed
+	 * @return false if the file is missing or was written in a different format or for a different window
+	 * @throws IOException if the file can not be read
+	 */
+	public boolean readBuilds(int windowSize, List<Integer> builds, Set<Integer> pendingBuilds) throws IOException {
+		synchronized (lock()) {
+			if (!file.isFile()) {
+				return false;
+			}
+
+			Set<Integer> liveBuilds = new HashSet<Integer>();
+			Set<Integer> pending = new HashSet<Integer>();
+			int records = 0;
+			DataInputStream in = open();
+			try {
+				if (!readHeader(in, windowSize)) {
+					return false;
+				}
+				byte type;
+				while ((type = readType(in)) != -1) {
+					switch (type) {
+						case NODE:
+							readVarInt(in);
+							in.readUTF();
+							in.readUTF();
+							break;
+						case BUILD:
+							liveBuilds.add(in.readInt());
+							in.skipBytes(in.readInt());
+							records++;
+							break;
+						case REMOVE:
+							liveBuilds.remove(in.readInt());
+							records++;
+							break;
+						case PENDING:
+							pending.add(in.readInt());
+							records++;
+							break;
+						default:
+							throw new IOException("Unknown record type " + type + " in " + file);
+					}
+				}
+			} finally {
+				in.close();
+			}
+
+			List<Integer> buildList = new ArrayList<Integer>(liveBuilds);
+			Collections.sort(buildList, Collections.<Integer>reverseOrder());
+			if (windowSize > 0 && buildList.size() > windowSize) {
+				buildList = buildList.subList(0, windowSize);
+			}
+			pending.removeAll(liveBuilds);
+
+			root = new IdNode(-1, -1);
+			nodeCount = 0;
+			dictionaryLoaded = false;
+			recordCount = records;
+			markKnown();
+			unmap();
+			builds.addAll(buildList);
+			pendingBuilds.addAll(pending);
+			return true;
+		}
+	}
+
+	/**
+	 * Returns a memory-mapped view of the file. The view is shared until the file changes. After an append the
+	 * view is extended by the appended records, after anything else the file is mapped and scanned again. The
+	 * previous view is closed, readers which acquired it can still use it.
+	 *
+	 * @return the view of the current content of the file
+	 * @throws IOException if the file can not be mapped
+	 */
+	public MappedHistoryIndex map() throws IOException {
+		synchronized (lock()) {
+			long length = file.length();
+			if (mapped != null && (length < mapped.getLength() || !mapped.isSameFile(file))) {
+				unmap();
+			}
+			if (mapped == null) {
+				mapped = MappedHistoryIndex.open(file, rootUrl);
+			} else if (length > mapped.getLength()) {
+				MappedHistoryIndex extended = mapped.extend(file);
+				mapped.close();
+				mapped = extended;
+			}
+			return mapped;
+		}
+	}
+
+	/**
+	 * Returns the current view of the file like {@link #map()}, acquired for a reader which uses it without holding
+	 * the lock of its history. The reader has to {@link MappedHistoryIndex#release} it.
+	 *
+	 * @return the acquired view of the current content of the file
+	 * @throws IOException if the file can not be mapped
+	 */
+	public MappedHistoryIndex acquire() throws IOException {
+		synchronized (lock()) {
+			MappedHistoryIndex view = map();
+			// views are only closed while holding the lock, so the current one is still open
+			view.acquire();
+			return view;
+		}
+	}
+
+	/**
+	 * Closes the view of the file, readers which acquired it can still finish with it.
+	 */
+	public void close() {
+		synchronized (lock()) {
+			unmap();
+		}
+	}
+
+	/**
+	 * Closes the view of the file, so the file can be replaced or deleted on platforms which do not allow that for
+	 * mapped files.
+	 */
+	private void unmap() {
+		if (mapped != null) {
+			mapped.close();
+			mapped = null;
+		}
+	}
+
+	/**
+	 * Deletes the file.
+	 */
+	public void delete() {
+		synchronized (lock()) {
+			unmap();
+			knownLength = -1;
+			if (file.exists() && !file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Starts a new, empty file for the given window size, replacing any existing one. The new file is moved into
+	 * place rather than truncating the old one, which views still in use may have mapped.
+	 *
+	 * @param windowSize the configured number of runs to fetch
+	 * @throws IOException if the file can not be written
+	 */
+	public void create(int windowSize) throws IOException {
+		synchronized (lock()) {
+			root = new IdNode(-1, -1);
+			nodeCount = 0;
+			dictionaryLoaded = true;
+			recordCount = 0;
+			File tmp = new File(file.getPath() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				writeHeader(out, windowSize);
+			} finally {
+				out.close();
+			}
+			unmap();
+			replaceWith(tmp);
+			markKnown();
+		}
+	}
+
+	/**
+	 * Appends the results of a single build.
+	 *
+	 * @param buildNumber the build
+	 * @param buildResults the results of that build only
+	 * @throws IOException if the file can not be written
+	 */
+	public void appendBuild(int buildNumber, ResultInfo buildResults) throws IOException {
+		synchronized (lock()) {
+			requireFile();
+			syncDictionary();
+			ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream();
+			ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+			DataOutputStream nodeOut = new DataOutputStream(nodeBytes);
+			DataOutputStream entryOut = new DataOutputStream(entryBytes);
+
+			int entries = 0;
+			for (PackageInfo packageInfo : buildResults.getPackageResults().values()) {
+				IdNode packageNode = getOrAddNode(root, packageInfo, nodeOut);
+				entries += writeEntry(entryOut, packageNode, packageInfo, buildNumber);
+				for (ClassInfo classInfo : packageInfo.getClasses().values()) {
+					IdNode classNode = getOrAddNode(packageNode, classInfo, nodeOut);
+					entries += writeEntry(entryOut, classNode, classInfo, buildNumber);
+					for (TestCaseInfo testCaseInfo : classInfo.getTests().values()) {
+						IdNode testNode = getOrAddNode(classNode, testCaseInfo, nodeOut);
+						entries += writeEntry(entryOut, testNode, testCaseInfo, buildNumber);
+					}
+				}
+			}
+
+			DataOutputStream out = openForAppend();
+			try {
+				nodeBytes.writeTo(out);
+				writeBuild(out, buildNumber, entries, entryBytes);
+			} finally {
+				out.close();
+			}
+			recordCount++;
+			markKnown();
+		}
+	}
+
+	/**
+	 * Marks a build as deleted.
+	 *
+	 * @param buildNumber the deleted build
+	 * @throws IOException if the file can not be written
+	 */
+	public void appendRemove(int buildNumber) throws IOException {
+		appendMarker(REMOVE, buildNumber);
+	}
+
+	/**
+	 * Marks a build as still running, so it is read once it completed.
+	 *
+	 * @param buildNumber the running build
+	 * @throws IOException if the file can not be written
+	 */
+	public void appendPending(int buildNumber) throws IOException {
+		appendMarker(PENDING, buildNumber);
+	}
+
+	/**
+	 * Replaces the file with a compacted one holding exactly the given history. The file is left alone if another
+	 * instance appended to it since this one last read or wrote it, as those builds are not part of the history yet.
+	 *
+	 * @param windowSize the configured number of runs to fetch
+	 * @param resultInfo the history
+	 * @param builds the builds of the history
+	 * @param pendingBuilds the builds which are still running
+	 * @return false if the file was left alone
+	 * @throws IOException if the file can not be written
+	 */
+	public boolean rewrite(int windowSize, ResultInfo resultInfo, List<Integer> builds, Set<Integer> pendingBuilds) throws IOException {
+		synchronized (lock()) {
+			if (file.length() != knownLength) {
+				return false;
+			}
+			IdNode newRoot = new IdNode(-1, -1);
+			int[] ids = new int[1];
+			Map<Integer, ByteArrayOutputStream> buildBytes = new TreeMap<Integer, ByteArrayOutputStream>();
+			Map<Integer, Integer> buildEntries = new HashMap<Integer, Integer>();
+			for (Integer buildNumber : builds) {
+				buildBytes.put(buildNumber, new ByteArrayOutputStream());
+				buildEntries.put(buildNumber, 0);
+			}
+
+			File tmp = new File(file.getPath() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				writeHeader(out, windowSize);
+				for (PackageInfo packageInfo : resultInfo.getPackageResults().values()) {
+					IdNode packageNode = addNode(newRoot, packageInfo, ids, out);
+					addEntries(packageNode, packageInfo, buildBytes, buildEntries);
+					for (ClassInfo classInfo : packageInfo.getClasses().values()) {
+						IdNode classNode = addNode(packageNode, classInfo, ids, out);
+						addEntries(classNode, classInfo, buildBytes, buildEntries);
+						for (TestCaseInfo testCaseInfo : classInfo.getTests().values()) {
+							IdNode testNode = addNode(classNode, testCaseInfo, ids, out);
+							addEntries(testNode, testCaseInfo, buildBytes, buildEntries);
+						}
+					}
+				}
+				for (Map.Entry<Integer, ByteArrayOutputStream> entry : buildBytes.entrySet()) {
+					writeBuild(out, entry.getKey(), buildEntries.get(entry.getKey()), entry.getValue());
+				}
+				for (Integer buildNumber : pendingBuilds) {
+					out.writeByte(PENDING);
+					out.writeInt(buildNumber);
+				}
+			} finally {
+				out.close();
+			}
+			unmap();
+			replaceWith(tmp);
+
+			root = newRoot;
+			nodeCount = ids[0];
+			dictionaryLoaded = true;
+			recordCount = builds.size() + pendingBuilds.size();
+			markKnown();
+			return true;
+		}
+	}
+
+	/**
+	 * Replaces the file with one holding only the given builds, copying their records as they are. Unlike
+	 * {@link #rewrite} this does not need the history in memory, but names which are no longer used are kept. Like
+	 * {@link #rewrite} the file is left alone if another instance appended to it.
+	 *
+	 * @param windowSize the configured number of runs to fetch
+	 * @param builds the builds to keep
+	 * @param pendingBuilds the builds which are still running
+	 * @return false if the file was left alone
+	 * @throws IOException if the file can not be read or written
+	 */
+	public boolean compact(int windowSize, List<Integer> builds, Set<Integer> pendingBuilds) throws IOException {
+		synchronized (lock()) {
+			if (file.length() != knownLength) {
+				return false;
+			}
+			MappedHistoryIndex source = map();
+			List<Integer> buildList = new ArrayList<Integer>(builds);
+			Collections.sort(buildList);
+
+			int records = pendingBuilds.size();
+			File tmp = new File(file.getPath() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				writeHeader(out, windowSize);
+				for (int id = 0; id < source.getNodeCount(); id++) {
+					source.writeNode(id, out);
+				}
+				for (Integer buildNumber : buildList) {
+					if (source.writeBuild(buildNumber, out)) {
+						records++;
+					}
+				}
+				for (Integer buildNumber : pendingBuilds) {
+					out.writeByte(PENDING);
+					out.writeInt(buildNumber);
+				}
+			} finally {
+				out.close();
+			}
+			unmap();
+			replaceWith(tmp);
+
+			// node ids are unchanged, so a loaded dictionary stays valid
+			recordCount = records;
+			markKnown();
+			return true;
+		}
+	}
+
+	/**
+	 * Moves a rewritten file into place. If that fails the file is left as it was.
+	 */
+	private void replaceWith(File tmp) throws IOException {
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			if (!tmp.delete()) {
+				tmp.deleteOnExit();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Brings the dictionary up to date with the file. Records which other instances appended to the same file are
+	 * read from where this instance stopped, so only a file which was replaced meanwhile is read from the start.
+	 */
+	private void syncDictionary() throws IOException {
+		long length = file.length();
+		Object fileKey = getFileKey();
+		boolean sameFile = fileKey != null && fileKey.equals(knownFileKey);
+		if (dictionaryLoaded && length == knownLength && (sameFile || fileKey == null)) {
+			return;
+		}
+		if (dictionaryLoaded && sameFile && knownLength >= HEADER_LENGTH && length > knownLength) {
+			readAppended();
+		} else {
+			loadDictionary();
+		}
+	}
+
+	private void readAppended() throws IOException {
+		List<IdNode> nodes = new ArrayList<IdNode>(Collections.<IdNode>nCopies(nodeCount, null));
+		indexNodes(root, nodes);
+		int records = 0;
+		DataInputStream in = open();
+		try {
+			long skipped = 0;
+			while (skipped < knownLength) {
+				long n = in.skip(knownLength - skipped);
+				if (n <= 0) {
+					throw new EOFException("Unexpected end of " + file);
+				}
+				skipped += n;
+			}
+			byte type;
+			while ((type = readType(in)) != -1) {
+				switch (type) {
+					case NODE:
+						nodes.add(readNode(in, nodes));
+						break;
+					case BUILD:
+						in.readInt();
+						in.skipBytes(in.readInt());
+						records++;
+						break;
+					default:
+						in.readInt();
+						records++;
+						break;
+				}
+			}
+		} finally {
+			in.close();
+		}
+		nodeCount = nodes.size();
+		recordCount += records;
+		markKnown();
+	}
+
+	private static void indexNodes(IdNode node, List<IdNode> nodes) {
+		for (IdNode child : node.children.values()) {
+			nodes.set(child.id, child);
+			indexNodes(child, nodes);
+		}
+	}
+
+	private void loadDictionary() throws IOException {
+		root = new IdNode(-1, -1);
+		List<IdNode> nodes = new ArrayList<IdNode>();
+		int records = 0;
+		DataInputStream in = open();
+		try {
+			in.skipBytes(HEADER_LENGTH);
+			byte type;
+			while ((type = readType(in)) != -1) {
+				switch (type) {
+					case NODE:
+						nodes.add(readNode(in, nodes));
+						break;
+					case BUILD:
+						in.readInt();
+						in.skipBytes(in.readInt());
+						records++;
+						break;
+					default:
+						in.readInt();
+						records++;
+						break;
+				}
+			}
+		} finally {
+			in.close();
+		}
+		nodeCount = nodes.size();
+		dictionaryLoaded = true;
+		recordCount = records;
+		markKnown();
+	}
+
+	private void addEntries(IdNode node, Info info, Map<Integer, ByteArrayOutputStream> buildBytes, Map<Integer, Integer> buildEntries) throws IOException {
+		BuildResults results = info.getResults();
+		for (int i = 0; i < results.size(); i++) {
+			int buildNumber = results.getBuildNumber(i);
+			ByteArrayOutputStream bytes = buildBytes.get(buildNumber);
+			if (bytes != null) {
+				writeEntry(new DataOutputStream(bytes), node, results, i);
+				buildEntries.put(buildNumber, buildEntries.get(buildNumber) + 1);
+			}
+		}
+	}
+
+	private IdNode getOrAddNode(IdNode parent, Info info, DataOutputStream nodeOut) throws IOException {
+		IdNode node = parent.children.get(info.getName());
+		if (node == null) {
+			node = new IdNode(nodeCount++, parent.level + 1);
+			parent.children.put(info.getName(), node);
+			writeNode(nodeOut, parent, info);
+		}
+		return node;
+	}
+
+	private IdNode addNode(IdNode parent, Info info, int[] ids, DataOutputStream out) throws IOException {
+		IdNode node = new IdNode(ids[0]++, parent.level + 1);
+		parent.children.put(info.getName(), node);
+		writeNode(out, parent, info);
+		return node;
+	}
+
+	private void writeNode(DataOutput out, IdNode parent, Info info) throws IOException {
+		out.writeByte(NODE);
+		writeVarInt(out, parent.id + 1);
+		out.writeUTF(info.getName());
+		out.writeUTF(info.getSafeName() != null ? info.getSafeName() : info.getName());
+	}
+
+	private IdNode readNode(DataInput in, List<IdNode> nodes) throws IOException {
+		int parentId = readVarInt(in) - 1;
+		IdNode parent = parentId < 0 ? root : nodes.get(parentId);
+		IdNode node = new IdNode(nodes.size(), parent.level + 1);
+		node.parent = parent;
+		node.name = in.readUTF();
+		node.safeName = in.readUTF();
+		parent.children.put(node.name, node);
+		return node;
+	}
+
+	private int writeEntry(DataOutput out, IdNode node, Info info, int buildNumber) throws IOException {
+		int index = info.getResults().indexOf(buildNumber);
+		if (index < 0) {
+			return 0;
+		}
+		writeEntry(out, node, info.getResults(), index);
+		return 1;
+	}
+
+	private void writeEntry(DataOutput out, IdNode node, BuildResults results, int index) throws IOException {
+		writeVarInt(out, node.id);
+		int flags = results.isConfig(index) ? FLAG_CONFIG : 0;
+		int singleTestStatus = getSingleTestStatus(results, index);
+		if (singleTestStatus >= 0) {
+			flags |= FLAG_SINGLE_TEST | (singleTestStatus << STATUS_SHIFT);
+		}
+		out.writeByte(flags);
+		if (singleTestStatus < 0) {
+			writeVarInt(out, results.getTotalTests(index));
+			writeVarInt(out, results.getTotalFailed(index));
+			writeVarInt(out, results.getTotalPassed(index));
+			writeVarInt(out, results.getTotalSkipped(index));
+		}
+		writeVarInt(out, Math.max(0, Math.round(results.getTotalTimeTaken(index) * 1000)));
+		if (node.level == 0) {
+			String reportUrl = results.getReportUrl(index) != null ? results.getReportUrl(index) : "";
+			out.writeUTF(reportUrl.startsWith(rootUrl) ? reportUrl.substring(rootUrl.length()) : reportUrl);
+		}
+	}
+
+	private void readBuild(DataInput in, int buildNumber, List<IdNode> nodes, ResultInfo resultInfo, Entry entry) throws IOException {
+		int entries = readVarInt(in);
+		for (int i = 0; i < entries; i++) {
+			IdNode node = nodes.get(readVarInt(in));
+			entry.read(in, node.level);
+
+			Info info = getInfo(node, resultInfo);
+			if (node.level == 2) {
+				info.setConfig(entry.config);
+			}
+			entry.putInto(info, buildNumber);
+		}
+	}
+
+	/**
+	 * Returns the tree node of an index node, attaching it and its parents to the tree on first use so nodes
+	 * without any result within the window never show up.
+	 */
+	private Info getInfo(IdNode node, ResultInfo resultInfo) {
+		if (node.info != null) {
+			return node.info;
+		}
+		if (node.level == 0) {
+			PackageInfo packageInfo = new PackageInfo();
+			resultInfo.getPackageResults().put(node.name, packageInfo);
+			node.info = packageInfo;
+		} else if (node.level == 1) {
+			ClassInfo classInfo = new ClassInfo();
+			((PackageInfo) getInfo(node.parent, resultInfo)).getClasses().put(node.name, classInfo);
+			node.info = classInfo;
+		} else {
+			TestCaseInfo testCaseInfo = new TestCaseInfo();
+			((ClassInfo) getInfo(node.parent, resultInfo)).getTests().put(node.name, testCaseInfo);
+			node.info = testCaseInfo;
+		}
+		node.info.setName(resultInfo.getNames().intern(node.name));
+		node.info.setSafeName(resultInfo.getNames().intern(node.safeName));
+		return node.info;
+	}
+
+	private static int getSingleTestStatus(BuildResults results, int index) {
+		if (results.getTotalTests(index) != 1) {
+			return -1;
+		}
+		if (results.getTotalPassed(index) == 1) {
+			return STATUS_PASSED;
+		} else if (results.getTotalFailed(index) == 1) {
+			return STATUS_FAILED;
+		} else if (results.getTotalSkipped(index) == 1) {
+			return STATUS_SKIPPED;
+		}
+		return -1;
+	}
+
+	private void writeBuild(DataOutputStream out, int buildNumber, int entries, ByteArrayOutputStream entryBytes) throws IOException {
+		ByteArrayOutputStream countBytes = new ByteArrayOutputStream(5);
+		writeVarInt(new DataOutputStream(countBytes), entries);
+		out.writeByte(BUILD);
+		out.writeInt(buildNumber);
+		out.writeInt(countBytes.size() + entryBytes.size());
+		countBytes.writeTo(out);
+		entryBytes.writeTo(out);
+	}
+
+	private void appendMarker(byte type, int buildNumber) throws IOException {
+		synchronized (lock()) {
+			requireFile();
+			boolean current = file.length() == knownLength;
+			DataOutputStream out = openForAppend();
+			try {
+				out.writeByte(type);
+				out.writeInt(buildNumber);
+			} finally {
+				out.close();
+			}
+			// otherwise the record is counted when the records appended by others are read
+			if (current) {
+				recordCount++;
+				markKnown();
+			}
+		}
+	}
+
+	/**
+	 * Remembers the length and identity of the file as this instance last read or wrote it.
+	 */
+	private void markKnown() {
+		knownLength = file.length();
+		knownFileKey = getFileKey();
+	}
+
+	/**
+	 * @return the identity of the file, which changes when it is replaced, or null if the file system has none
+	 */
+	private Object getFileKey() {
+		try {
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private void requireFile() throws IOException {
+		if (!file.isFile()) {
+			throw new FileNotFoundException(file + " was deleted");
+		}
+	}
+
+	/**
+	 * The lock of the file, shared by all instances for the same path. The locks are striped, so instances do not
+	 * have to be registered anywhere.
+	 */
+	private Object lock() {
+		return LOCKS[(file.getAbsolutePath().hashCode() & 0x7FFFFFFF) % LOCKS.length];
+	}
+
+	private void writeHeader(DataOutput out, int windowSize) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(windowSize);
+	}
+
+	private boolean readHeader(DataInput in, int windowSize) throws IOException {
+		try {
+			return in.readInt() == MAGIC && in.readInt() == VERSION && in.readInt() == windowSize;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	private DataInputStream open() throws IOException {
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+	}
+
+	private DataOutputStream openForAppend() throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+
+	private static byte readType(DataInputStream in) throws IOException {
+		int type = in.read();
+		return (byte) type;
+	}
+
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable length int");
+	}
+
+	/**
+	 * Node of the name dictionary. Mirrors the package/class/test hierarchy so appended builds can resolve the id
+	 * of a node by name.
+	 */
+	private static final class IdNode {
+		final int id;
+		final int level;
+		final Map<String, IdNode> children = new HashMap<String, IdNode>();
+		IdNode parent;
+		String name;
+		String safeName;
+		Info info;
+
+		IdNode(int id, int level) {
+			this.id = id;
+			this.level = level;
+		}
+	}
+
+	/**
+	 * Entry of a node in a build while it is decoded. A single instance is reused for all entries, and the report
+	 * urls of the builds are shared by all packages which use them.
+	 */
+	static final class Entry {
+		private final String rootUrl;
+		private final Map<String, String> reportUrls = new HashMap<String, String>();
+		int total;
+		int failed;
+		int passed;
+		int skipped;
+		float duration;
+		boolean config;
+		String reportUrl;
+
+		Entry(String rootUrl) {
+			this.rootUrl = rootUrl;
+		}
+
+		/**
+		 * Decodes the entry of a node following its id.
+		 *
+		 * @param level 0 for packages, 1 for classes and 2 for test cases
+		 */
+		void read(DataInput in, int level) throws IOException {
+			int flags = in.readUnsignedByte();
+			if ((flags & FLAG_SINGLE_TEST) != 0) {
+				int status = flags >> STATUS_SHIFT;
+				total = 1;
+				failed = status == STATUS_FAILED ? 1 : 0;
+				passed = status == STATUS_PASSED ? 1 : 0;
+				skipped = status == STATUS_SKIPPED ? 1 : 0;
+			} else {
+				total = readVarInt(in);
+				failed = readVarInt(in);
+				passed = readVarInt(in);
+				skipped = readVarInt(in);
+			}
+			duration = readVarInt(in) / 1000f;
+			config = (flags & FLAG_CONFIG) != 0;
+			reportUrl = null;
+			if (level == 0) {
+				String storedUrl = in.readUTF();
+				reportUrl = reportUrls.get(storedUrl);
+				if (reportUrl == null) {
+					reportUrl = rootUrl + storedUrl;
+					reportUrls.put(storedUrl, reportUrl);
+				}
+			}
+		}
+
+		void putInto(Info info, int buildNumber) {
+			info.getResults().put(buildNumber, total, failed, passed, skipped, duration, config, reportUrl);
+		}
+	}
+}
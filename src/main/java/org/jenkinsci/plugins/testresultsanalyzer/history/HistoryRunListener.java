@@ -0,0 +1,28 @@
+package org.jenkinsci.plugins.testresultsanalyzer.history;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Keeps the cached job histories current while builds complete or get deleted, so viewing the analyzer of a job
+ * whose history is loaded only reads the history instead of scanning the job's runs. Builds of jobs whose history
+ * is not loaded are written through to their index file, so loading the history from it later misses nothing.
+ */
+@Extension
+@SuppressWarnings("rawtypes")
+public class HistoryRunListener extends RunListener<Run> {
+
+	@Override
+	public void onCompleted(Run run, @Nonnull TaskListener listener) {
+		JobHistoryCache.addRun(run);
+	}
+
+	@Override
+	public void onDeleted(Run run) {
+		JobHistoryCache.removeRun(run);
+	}
+}
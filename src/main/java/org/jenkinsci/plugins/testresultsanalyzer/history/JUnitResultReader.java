@@ -0,0 +1,277 @@
+package org.jenkinsci.plugins.testresultsanalyzer.history;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ClassInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.Info;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.PackageInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ResultInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.TestCaseInfo;
+
+/**
+ * Reads the JUnit results of a build straight from its junitResult.xml. Loading the JUnit plugin's test result
+ * materializes the captured output and stack traces of every case; this reader streams the file instead and only
+ * keeps class and case names, statuses and durations, skipping all other elements without reading their text.
+ * <p>
+ * The results are grouped the way the JUnit plugin groups them: packages and classes are derived from the class
+ * name of each case. Files which can not be represented that way, such as results recorded within named pipeline
+ * blocks, are not read and left to the regular loading path.
+ */
+public final class JUnitResultReader {
+
+	public static final String FILE_NAME = "junitResult.xml";
+
+	private final static Logger LOG = Logger.getLogger(JUnitResultReader.class.getName());
+
+	private static final String ROOT_PACKAGE = "(root)";
+	private static final String REPORT_URL = "testReport";
+
+	private static final XMLInputFactory FACTORY = createFactory();
+
+	private JUnitResultReader() {
+	}
+
+	/**
+	 * Reads the results of a single build.
+	 *
+	 * @param file the junitResult.xml of the build
+	 * @param buildNumber the build
+	 * @param runUrl the absolute url of the build, ending with a slash
+	 * @return the results of the build, or null if the file is missing or not understood
+	 */
+	public static ResultInfo read(File file, int buildNumber, String runUrl) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+			try {
+				XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+				try {
+					Tally packages = readResult(reader);
+					return packages != null ? toResultInfo(packages, buildNumber, runUrl) : null;
+				} finally {
+					reader.close();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException | XMLStreamException | NumberFormatException e) {
+			LOG.log(Level.FINE, "Failed to read " + file + ", loading the test result of the build instead", e);
+			return null;
+		}
+	}
+
+	private static Tally readResult(XMLStreamReader reader) throws XMLStreamException {
+		if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !"result".equals(reader.getLocalName())) {
+			return null;
+		}
+		Tally packages = new Tally(null, null);
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if ("suites".equals(reader.getLocalName())) {
+				while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+					if (!"suite".equals(reader.getLocalName())) {
+						skip(reader);
+					} else if (!readSuite(reader, packages)) {
+						return null;
+					}
+				}
+			} else {
+				skip(reader);
+			}
+		}
+		return packages;
+	}
+
+	private static boolean readSuite(XMLStreamReader reader, Tally packages) throws XMLStreamException {
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if ("cases".equals(reader.getLocalName())) {
+				while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+					if (!"case".equals(reader.getLocalName())) {
+						skip(reader);
+					} else if (!readCase(reader, packages)) {
+						return false;
+					}
+				}
+			} else {
+				skip(reader);
+			}
+		}
+		return true;
+	}
+
+	private static boolean readCase(XMLStreamReader reader, Tally packages) throws XMLStreamException {
+		String className = null;
+		String testName = "";
+		float duration = 0;
+		boolean skipped = false;
+		boolean failed = false;
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			String element = reader.getLocalName();
+			if ("className".equals(element)) {
+				className = reader.getElementText();
+			} else if ("testName".equals(element)) {
+				testName = reader.getElementText();
+			} else if ("duration".equals(element)) {
+				duration = Float.parseFloat(reader.getElementText().trim());
+			} else if ("skipped".equals(element)) {
+				skipped = Boolean.parseBoolean(reader.getElementText().trim());
+			} else if ("errorStackTrace".equals(element) || "errorDetails".equals(element)) {
+				failed = true;
+				skip(reader);
+			} else if ("enclosingBlockNames".equals(element) || "enclosingBlocks".equals(element)) {
+				// the JUnit plugin prefixes the names of such cases with the names of their blocks
+				if (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+					return false;
+				}
+			} else {
+				skip(reader);
+			}
+		}
+		if (className == null) {
+			return false;
+		}
+
+		int dot = className.lastIndexOf('.');
+		String packageName = dot < 0 ? ROOT_PACKAGE : className.substring(0, dot);
+		String simpleClassName = className.substring(dot + 1);
+		String caseName = testName.isEmpty() ? "(?)" : testName;
+
+		int failedCount = !skipped && failed ? 1 : 0;
+		int passedCount = !skipped && !failed ? 1 : 0;
+		int skippedCount = skipped ? 1 : 0;
+
+		Tally packageTally = packages.getChild(packageName, safe(packageName));
+		Tally classTally = packageTally.getChild(simpleClassName, safe(simpleClassName));
+		Tally caseTally = new Tally(caseName, safeCaseName(testName));
+		// the JUnit plugin keeps cases with the same name apart, but the analyzer shows the last one only
+		classTally.children.put(caseName, caseTally);
+
+		caseTally.add(failedCount, passedCount, skippedCount, duration);
+		classTally.add(failedCount, passedCount, skippedCount, duration);
+		packageTally.add(failedCount, passedCount, skippedCount, duration);
+		return true;
+	}
+
+	private static ResultInfo toResultInfo(Tally packages, int buildNumber, String runUrl) {
+		ResultInfo resultInfo = new ResultInfo();
+		String reportUrl = runUrl + REPORT_URL;
+		for (Tally packageTally : packages.children.values()) {
+			PackageInfo packageInfo = new PackageInfo();
+			packageTally.putInto(packageInfo, buildNumber, reportUrl);
+			resultInfo.getPackageResults().put(packageTally.name, packageInfo);
+
+			for (Tally classTally : packageTally.children.values()) {
+				ClassInfo classInfo = new ClassInfo();
+				classTally.putInto(classInfo, buildNumber, null);
+				packageInfo.getClasses().put(classTally.name, classInfo);
+
+				for (Tally caseTally : classTally.children.values()) {
+					TestCaseInfo testCaseInfo = new TestCaseInfo();
+					caseTally.putInto(testCaseInfo, buildNumber, null);
+					classInfo.getTests().put(caseTally.name, testCaseInfo);
+				}
+			}
+		}
+		return resultInfo;
+	}
+
+	/**
+	 * Skips the current element and its content. The text of the skipped elements is never turned into strings.
+	 */
+	private static void skip(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Safe name of packages and classes, as computed by the JUnit plugin.
+	 */
+	private static String safe(String name) {
+		return name.replace('/', '_').replace('\\', '_').replace(':', '_').replace('?', '_').replace('#', '_')
+				.replace('%', '_').replace('<', '_').replace('>', '_');
+	}
+
+	/**
+	 * Safe name of test cases, as computed by the JUnit plugin.
+	 */
+	private static String safeCaseName(String testName) {
+		StringBuilder safeName = new StringBuilder(testName);
+		for (int i = 0; i < safeName.length(); i++) {
+			if (!Character.isJavaIdentifierPart(safeName.charAt(i))) {
+				safeName.setCharAt(i, '_');
+			}
+		}
+		return safeName.toString();
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		return factory;
+	}
+
+	/**
+	 * Counts of a package, class or test case while the file is read.
+	 */
+	private static final class Tally {
+		final String name;
+		final String safeName;
+		final Map<String, Tally> children = new TreeMap<String, Tally>();
+		int total;
+		int failed;
+		int passed;
+		int skipped;
+		float duration;
+
+		Tally(String name, String safeName) {
+			this.name = name;
+			this.safeName = safeName;
+		}
+
+		Tally getChild(String childName, String childSafeName) {
+			Tally child = children.get(childName);
+			if (child == null) {
+				child = new Tally(childName, childSafeName);
+				children.put(childName, child);
+			}
+			return child;
+		}
+
+		void add(int failedCount, int passedCount, int skippedCount, float time) {
+			total++;
+			failed += failedCount;
+			passed += passedCount;
+			skipped += skippedCount;
+			duration += time;
+		}
+
+		void putInto(Info info, int buildNumber, String reportUrl) {
+			info.setName(name);
+			info.setSafeName(safeName);
+			info.getResults().put(buildNumber, total, failed, passed, skipped, duration, false, reportUrl);
+		}
+	}
+}
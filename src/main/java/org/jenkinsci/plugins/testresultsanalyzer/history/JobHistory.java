@@ -0,0 +1,1032 @@
+package org.jenkinsci.plugins.testresultsanalyzer.history;
+
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.util.RunList;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.testresultsanalyzer.WorstTests;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.BuildResults;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ClassInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.Info;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.PackageInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ResultInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.TestCaseInfo;
+
+/**
+ * Test result history of a single job. One instance per job is shared by all analyzer actions through the
+ * {@link JobHistoryCache}, so callers reading {@link #getPackageResults(List)} have to synchronize on the history.
+ * The lock is only held while the history is read or changed in memory: refreshes read the job's runs without
+ * holding it, and a history which is loaded again is loaded into a separate instance which replaces the state of
+ * this one at once.
+ * <p>
+ * The results are either held in memory or, when the history is served from its memory-mapped
+ * {@link HistoryIndexFile}, only the build numbers are.
+ */
+public class JobHistory {
+
+	private final static Logger LOG = Logger.getLogger(JobHistory.class.getName());
+
+	private static final AtomicLong VERSIONS = new AtomicLong();
+
+	/**
+	 * Number of index files kept for writing completed and deleted builds through, see {@link #appendToIndex}.
+	 */
+	private static final int MAX_WRITE_THROUGH_FILES = 16;
+
+	/**
+	 * The index files of jobs without a loaded history which builds were written through to, by path. They are
+	 * kept so the dictionary of a file does not have to be read again for every build, only the records other
+	 * instances appended meanwhile are.
+	 */
+	private static final Map<String, HistoryIndexFile> writeThroughFiles = new LinkedHashMap<String, HistoryIndexFile>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, HistoryIndexFile> eldest) {
+			return size() > MAX_WRITE_THROUGH_FILES;
+		}
+	};
+
+	private ResultInfo resultInfo = new ResultInfo();
+	private volatile List<Integer> builds = new ArrayList<Integer>();
+	private Set<Integer> pendingBuilds = new HashSet<Integer>();
+	private int loadedNoOfRunsToFetch;
+	private int oldestRequestedBuild = Integer.MAX_VALUE;
+	private volatile boolean loaded;
+	private boolean mapIndex;
+	private volatile int resultCount;
+	private volatile long version = VERSIONS.incrementAndGet();
+	private volatile RankedTests worstTests;
+	private HistoryIndexFile index;
+	private NameIndex nameIndex;
+	private long nameIndexVersion;
+
+	private final Object updateLock = new Object();
+	private JobHistory progress = this;
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+	private volatile long refreshStarted;
+	private volatile long refreshTime;
+	private volatile int processedBuilds;
+	private volatile int totalBuilds;
+
+	public ResultInfo getResultInfo() {
+		return resultInfo;
+	}
+
+	/**
+	 * The package results of the history. When the history is served from its index file the packages are decoded
+	 * while iterating and only hold the results of the requested builds.
+	 *
+	 * @param requestedBuilds the builds whose results are needed
+	 * @return the packages sorted by name
+	 */
+	public synchronized Iterable<PackageInfo> getPackageResults(List<Integer> requestedBuilds) {
+		if (isMapped()) {
+			try {
+				return index.map().getPackages(builds, requestedBuilds);
+			} catch (IOException e) {
+				discardIndex(e);
+				return Collections.emptyList();
+			}
+		}
+		return resultInfo.getPackageResults().values();
+	}
+
+	/**
+	 * Streams the package results of the requested builds to a response which is written without holding the lock
+	 * of the history, see {@link PackageStream}.
+	 *
+	 * @param requestedBuilds the builds whose results are put into the returned packages
+	 * @return the packages sorted by name, to be closed once written
+	 */
+	public synchronized PackageStream streamPackages(List<Integer> requestedBuilds) {
+		return streamPackages(requestedBuilds, "");
+	}
+
+	/**
+	 * Streams the package results to export, see {@link PackageStream}. When the history is served from its index
+	 * file only the records of the exported builds are read, and nodes outside the name prefix of the export are
+	 * skipped without being decoded. Packages held in memory are still returned with all their nodes, so the export
+	 * has to check the names itself.
+	 *
+	 * @param export the builds and tests to export
+	 * @return the packages sorted by name, to be closed once written
+	 */
+	public synchronized PackageStream streamPackages(HistoryExport export) {
+		return streamPackages(export.getBuilds(), export.getNamePrefix());
+	}
+
+	private PackageStream streamPackages(List<Integer> requestedBuilds, String namePrefix) {
+		if (isMapped()) {
+			try {
+				MappedHistoryIndex view = index.acquire();
+				return new PackageStream(view, view.getPackages(builds, requestedBuilds, namePrefix).iterator());
+			} catch (IOException e) {
+				discardIndex(e);
+				return new PackageStream(null, Collections.<PackageInfo>emptyIterator());
+			}
+		}
+		return new PackageStream(null, new CopyingIterator(new HashSet<Integer>(requestedBuilds), namePrefix));
+	}
+
+	/**
+	 * Looks up a single package, with the results of the requested builds. A package served from the index file is
+	 * decoded without reading the packages before it, see {@link MappedHistoryIndex#getPackage}.
+	 *
+	 * @param packageName the name of the package
+	 * @param requestedBuilds the builds whose results are put into the returned package
+	 * @return the package, or null if the history has no such package
+	 */
+	public synchronized PackageInfo getPackageResult(String packageName, List<Integer> requestedBuilds) {
+		if (!isMapped()) {
+			return resultInfo.getPackageResults().get(packageName);
+		}
+		try {
+			return index.map().getPackage(packageName, builds, requestedBuilds);
+		} catch (IOException e) {
+			discardIndex(e);
+			return null;
+		}
+	}
+
+	/**
+	 * Finds the packages, classes and test cases whose name contains the query, ignoring case, through the
+	 * {@link NameIndex} of the history. Only the packages holding matches are looked at.
+	 *
+	 * @param query the text to look for
+	 * @param requestedBuilds the builds whose results are put into the returned nodes
+	 * @param limit the maximum number of nodes to return
+	 * @return the matching nodes in tree order
+	 */
+	public synchronized List<Info> findNodes(String query, List<Integer> requestedBuilds, int limit) {
+		NameIndex names = getNameIndex();
+		if (names == null) {
+			return new ArrayList<Info>();
+		}
+		List<List<String>> paths = new ArrayList<List<String>>();
+		for (int id : names.search(query)) {
+			paths.add(names.getPath(id));
+		}
+		return getNodes(paths, requestedBuilds, limit);
+	}
+
+	/**
+	 * Looks up nodes by the names on their path. Only the packages holding requested nodes are looked at.
+	 *
+	 * @param paths the names of the nodes and their ancestors, each starting with the name of the package
+	 * @param requestedBuilds the builds whose results are put into the returned nodes
+	 * @param limit the maximum number of nodes to return
+	 * @return the nodes which exist, in tree order
+	 */
+	public synchronized List<Info> getNodes(List<List<String>> paths, List<Integer> requestedBuilds, int limit) {
+		List<Info> nodes = new ArrayList<Info>();
+		if (paths.isEmpty() || limit <= 0) {
+			return nodes;
+		}
+
+		List<List<String>> sortedPaths = new ArrayList<List<String>>(paths);
+		Collections.sort(sortedPaths, new Comparator<List<String>>() {
+			public int compare(List<String> a, List<String> b) {
+				for (int i = 0; i < a.size() && i < b.size(); i++) {
+					int result = a.get(i).compareTo(b.get(i));
+					if (result != 0) {
+						return result;
+					}
+				}
+				return Integer.compare(a.size(), b.size());
+			}
+		});
+		Map<String, List<List<String>>> pathsByPackage = new LinkedHashMap<String, List<List<String>>>();
+		for (List<String> path : sortedPaths) {
+			List<List<String>> packagePaths = pathsByPackage.get(path.get(0));
+			if (packagePaths == null) {
+				packagePaths = new ArrayList<List<String>>();
+				pathsByPackage.put(path.get(0), packagePaths);
+			}
+			packagePaths.add(path);
+		}
+
+		for (PackageInfo packageInfo : getPackageResults(requestedBuilds)) {
+			List<List<String>> packagePaths = pathsByPackage.remove(packageInfo.getName());
+			if (packagePaths == null) {
+				continue;
+			}
+			for (List<String> path : packagePaths) {
+				// a mapped index also names nodes of builds which already left the history
+				Info node = packageInfo;
+				for (int i = 1; node != null && i < path.size(); i++) {
+					Map<String, ? extends Info> children = node.getChildren();
+					node = children != null ? children.get(path.get(i)) : null;
+				}
+				if (node != null) {
+					nodes.add(node);
+					if (nodes.size() == limit) {
+						return nodes;
+					}
+				}
+			}
+			if (pathsByPackage.isEmpty()) {
+				break;
+			}
+		}
+		return nodes;
+	}
+
+	private NameIndex getNameIndex() {
+		if (nameIndex == null || nameIndexVersion != version) {
+			long indexedVersion = version;
+			if (isMapped()) {
+				try {
+					nameIndex = index.map().getNameIndex();
+				} catch (IOException e) {
+					discardIndex(e);
+					return null;
+				}
+			} else {
+				nameIndex = NameIndex.of(resultInfo.getPackageResults().values());
+			}
+			nameIndexVersion = indexedVersion;
+		}
+		return nameIndex;
+	}
+
+	/**
+	 * The loaded build numbers, newest first. The returned list is never modified afterwards.
+	 *
+	 * @return the build numbers
+	 */
+	public List<Integer> getBuilds() {
+		return builds;
+	}
+
+	/**
+	 * Number of build results held by this history, used as a measure of its memory footprint.
+	 *
+	 * @return the number of build results
+	 */
+	public int getResultCount() {
+		return resultCount;
+	}
+
+	/**
+	 * Identifies the state of the history. The version changes whenever builds are added or removed, and versions
+	 * are never reused, not even by other histories, so anything derived from the history can be cached by version.
+	 *
+	 * @return the current version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * The tests which failed in most of the newest builds. They are ranked once per version of the history and kept
+	 * until the history changes, so repeated calls do not walk the history.
+	 *
+	 * @param noOfBuilds the number of newest builds to look at, all builds for values less than or equal to 0
+	 * @param count the number of tests to rank
+	 * @return the tests, worst first
+	 */
+	public List<WorstTests.Test> getWorstTests(int noOfBuilds, int count) {
+		RankedTests ranked = worstTests;
+		if (ranked != null && ranked.isFor(version, noOfBuilds, count)) {
+			return ranked.tests;
+		}
+		synchronized (this) {
+			ranked = worstTests;
+			if (ranked != null && ranked.isFor(version, noOfBuilds, count)) {
+				return ranked.tests;
+			}
+			List<Integer> window = noOfBuilds <= 0 || noOfBuilds >= builds.size() ? builds : builds.subList(0, noOfBuilds);
+			WorstTests tests = new WorstTests(window, WorstTests.Order.FAILURES, count);
+			tests.addAll(getPackageResults(window));
+			ranked = new RankedTests(version, noOfBuilds, count, Collections.unmodifiableList(tests.getTests()));
+			worstTests = ranked;
+			return ranked.tests;
+		}
+	}
+
+	/**
+	 * Whether the history was loaded at all, possibly for a different configuration. A history which is not loaded
+	 * is empty.
+	 *
+	 * @return true once the first refresh finished loading the history
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Marks the start of a background refresh.
+	 *
+	 * @return false if a background refresh is running already
+	 */
+	boolean startRefresh() {
+		if (!refreshing.compareAndSet(false, true)) {
+			return false;
+		}
+		refreshStarted = System.currentTimeMillis();
+		refreshTime = 0;
+		processedBuilds = 0;
+		totalBuilds = 0;
+		return true;
+	}
+
+	void finishRefresh() {
+		refreshTime = System.currentTimeMillis() - refreshStarted;
+		refreshing.set(false);
+	}
+
+	public boolean isRefreshing() {
+		return refreshing.get();
+	}
+
+	/**
+	 * Time spent by the running background refresh so far, or by the last one if none is running.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long getRefreshTime() {
+		return isRefreshing() ? System.currentTimeMillis() - refreshStarted : refreshTime;
+	}
+
+	/**
+	 * Number of builds merged by the running or last refresh.
+	 *
+	 * @return the number of processed builds
+	 */
+	public int getProcessedBuilds() {
+		return processedBuilds;
+	}
+
+	/**
+	 * Number of builds the running or last refresh had to read, 0 while it is still looking for them.
+	 *
+	 * @return the number of builds to process
+	 */
+	public int getTotalBuilds() {
+		return totalBuilds;
+	}
+
+	/**
+	 * Whether {@link #update} would change the history.
+	 *
+	 * @param project the job this history belongs to
+	 * @param noOfRunsToFetch the configured window size
+	 * @param mapIndex whether the history is configured to be served from its index file
+	 * @return true if the history is not loaded for this configuration or misses builds of the job
+	 */
+	@SuppressWarnings("rawtypes")
+	public boolean needsUpdate(Job project, int noOfRunsToFetch, boolean mapIndex) {
+		return needsLoad(noOfRunsToFetch, mapIndex) || isUpdated(project);
+	}
+
+	private synchronized boolean needsLoad(int noOfRunsToFetch, boolean mapIndex) {
+		return !loaded || noOfRunsToFetch != loadedNoOfRunsToFetch || mapIndex != this.mapIndex;
+	}
+
+	@SuppressWarnings("rawtypes")
+	public boolean isUpdated(Job project) {
+		Run lastBuild = project.getLastBuild();
+		if (lastBuild == null) {
+			return false;
+		}
+
+		int latestBuildNumber = lastBuild.getNumber();
+		synchronized (this) {
+			return !containsBuild(latestBuildNumber) || !pendingBuilds.isEmpty();
+		}
+	}
+
+	/**
+	 * Brings the history up to date with the job. The first refresh loads the history from the job's
+	 * {@link HistoryIndexFile}, rebuilding the file if it is missing or outdated. Afterwards only the runs which are
+	 * not part of the model yet are read, and builds which fell out of the "runs to fetch" window are dropped again.
+	 * The model is only thrown away when the window size or the way the history is held was reconfigured.
+	 * <p>
+	 * Loading happens off to the side: the history is read into a separate instance, which replaces the state of
+	 * this one once it is complete. Until then readers get the previous state, or an empty history which is not
+	 * {@link #isLoaded() loaded} yet. New runs are read without holding the lock and merged one build at a time.
+	 *
+	 * @param project the job this history belongs to
+	 * @param noOfRunsToFetch the window size, all runs are loaded for values less than or equal to 0
+	 * @param mapIndex whether to serve the results from the memory-mapped index file instead of the heap
+	 */
+	@SuppressWarnings("rawtypes")
+	public void update(Job project, int noOfRunsToFetch, boolean mapIndex) {
+		synchronized (updateLock) {
+			if (needsLoad(noOfRunsToFetch, mapIndex)) {
+				detachIndex();
+				JobHistory loadedHistory = new JobHistory();
+				loadedHistory.progress = this;
+				loadedHistory.load(project, noOfRunsToFetch, mapIndex);
+				loadedHistory.mergeNewRuns(project, noOfRunsToFetch);
+				replaceWith(loadedHistory);
+			}
+			if (isLoaded()) {
+				// runs which completed while the history was loaded
+				mergeNewRuns(project, noOfRunsToFetch);
+			}
+		}
+	}
+
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private void mergeNewRuns(Job project, int noOfRunsToFetch) {
+		if (!isUpdated(project)) {
+			return;
+		}
+		int newestBuild;
+		Set<Integer> previouslyPending;
+		synchronized (this) {
+			newestBuild = builds.isEmpty() ? 0 : builds.get(0);
+			previouslyPending = new HashSet<Integer>(pendingBuilds);
+		}
+
+		// the job may have to load its runs from disk, so they are looked up without holding the lock
+		List<Run> newRuns = new ArrayList<Run>();
+		Set<Integer> stillPending = new HashSet<Integer>();
+		RunList<Run> runs = null;
+		if (noOfRunsToFetch > 0) {
+			runs = project.getBuilds().limit(noOfRunsToFetch);
+		} else {
+			runs = project.getBuilds();
+		}
+		for (Run run : runs) {
+			if (run.getNumber() <= newestBuild) {
+				break;
+			}
+			collectRun(run, newRuns, stillPending);
+		}
+
+		// runs which were still building during the last refresh are older than the newest loaded build
+		for (Integer buildNumber : previouslyPending) {
+			if (buildNumber <= newestBuild) {
+				Run run = project.getBuildByNumber(buildNumber);
+				if (run != null) {
+					collectRun(run, newRuns, stillPending);
+				}
+			}
+		}
+		synchronized (this) {
+			pendingBuilds.removeAll(previouslyPending);
+			for (Integer buildNumber : stillPending) {
+				if (pendingBuilds.add(buildNumber) && !previouslyPending.contains(buildNumber)) {
+					appendPendingToIndex(buildNumber);
+				}
+			}
+		}
+
+		mergeRuns(newRuns, noOfRunsToFetch);
+		synchronized (this) {
+			compactIndex();
+		}
+	}
+
+	/**
+	 * Loads the history from the index file, or starts a new file. Only called on a history which is not shared
+	 * yet, see {@link #update}.
+	 */
+	@SuppressWarnings("rawtypes")
+	private void load(Job project, int noOfRunsToFetch, boolean mapIndex) {
+		loadedNoOfRunsToFetch = noOfRunsToFetch;
+		this.mapIndex = mapIndex;
+		loaded = true;
+
+		index = getIndexFile(project);
+		// the loaded history maintains the file from now on
+		synchronized (writeThroughFiles) {
+			writeThroughFiles.remove(index.getPath());
+		}
+		try {
+			List<Integer> indexedBuilds = new ArrayList<Integer>();
+			boolean read = mapIndex ? index.readBuilds(noOfRunsToFetch, indexedBuilds, pendingBuilds)
+					: index.read(noOfRunsToFetch, resultInfo, indexedBuilds, pendingBuilds);
+			if (read) {
+				setBuilds(indexedBuilds);
+				return;
+			}
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to read the test result history of " + project.getFullName() + ", rebuilding it", e);
+			resultInfo = new ResultInfo();
+			pendingBuilds = new HashSet<Integer>();
+		}
+
+		try {
+			index.create(noOfRunsToFetch);
+		} catch (IOException e) {
+			// nothing depends on the file yet, so the history is simply held in memory
+			LOG.log(Level.WARNING, "Failed to create the test result history index of " + project.getFullName(), e);
+			index.delete();
+			index = null;
+		}
+	}
+
+	/**
+	 * Stops writing the index file before the history is loaded again, so the loaded history is the only one
+	 * writing it. A history served from the file can not be served without it, so it is emptied until the loaded
+	 * history replaces it.
+	 */
+	private synchronized void detachIndex() {
+		if (index == null) {
+			return;
+		}
+		index.close();
+		index = null;
+		if (mapIndex) {
+			loaded = false;
+			nameIndex = null;
+			setBuilds(new ArrayList<Integer>());
+		}
+	}
+
+	/**
+	 * Takes over the state of a history loaded off to the side.
+	 */
+	private synchronized void replaceWith(JobHistory loadedHistory) {
+		synchronized (loadedHistory) {
+			resultInfo = loadedHistory.resultInfo;
+			pendingBuilds = loadedHistory.pendingBuilds;
+			loadedNoOfRunsToFetch = loadedHistory.loadedNoOfRunsToFetch;
+			oldestRequestedBuild = loadedHistory.oldestRequestedBuild;
+			mapIndex = loadedHistory.mapIndex;
+			index = loadedHistory.index;
+			nameIndex = null;
+			setBuilds(loadedHistory.builds);
+			// a history whose index file failed while it was loaded has to be loaded again
+			loaded = loadedHistory.loaded;
+		}
+	}
+
+	/**
+	 * Adds a single completed run to an already loaded history. The results of the run are read before the history
+	 * is locked. Histories which were not loaded yet, or which were loaded for a different window size, are left
+	 * alone, the run has to be written through to the index file with {@link #appendToIndex} instead.
+	 *
+	 * @param run the completed run
+	 * @param noOfRunsToFetch the window size, all runs are kept for values less than or equal to 0
+	 * @return false if the history was left alone
+	 */
+	@SuppressWarnings("rawtypes")
+	public boolean addRun(Run run, int noOfRunsToFetch) {
+		synchronized (this) {
+			if (!isLoadedFor(noOfRunsToFetch)) {
+				return false;
+			} else if (containsBuild(run.getNumber())) {
+				return true;
+			}
+		}
+		ResultInfo buildResults = BuildResultLoader.extract(run);
+		synchronized (this) {
+			if (!isLoadedFor(noOfRunsToFetch)) {
+				return false;
+			}
+			addBuild(run.getNumber(), buildResults, noOfRunsToFetch);
+			compactIndex();
+			return true;
+		}
+	}
+
+	private boolean isLoadedFor(int noOfRunsToFetch) {
+		return loaded && noOfRunsToFetch == loadedNoOfRunsToFetch;
+	}
+
+	/**
+	 * Appends a completed run to the index file of a job whose history is not loaded, so a history loaded from the
+	 * file later does not miss it. Nothing is written if the job has no index file, its first load scans the runs
+	 * anyway. With a limited window the file is compacted once it holds more than twice the window's records.
+	 *
+	 * @param project the job of the run
+	 * @param run the completed run
+	 * @param noOfRunsToFetch the window size, all runs are kept for values less than or equal to 0
+	 */
+	@SuppressWarnings("rawtypes")
+	public static void appendToIndex(Job project, Run run, int noOfRunsToFetch) {
+		HistoryIndexFile index = getWriteThroughFile(project);
+		if (!index.exists()) {
+			return;
+		}
+		ResultInfo buildResults = BuildResultLoader.extract(run);
+		try {
+			index.appendBuild(run.getNumber(), buildResults);
+			if (noOfRunsToFetch > 0 && index.getRecordCount() > 2 * noOfRunsToFetch + 16) {
+				List<Integer> indexedBuilds = new ArrayList<Integer>();
+				Set<Integer> indexedPending = new HashSet<Integer>();
+				if (index.readBuilds(noOfRunsToFetch, indexedBuilds, indexedPending)) {
+					index.compact(noOfRunsToFetch, indexedBuilds, indexedPending);
+				}
+			}
+		} catch (IOException e) {
+			// the file was deleted or replaced meanwhile, whoever did that rebuilds it
+			LOG.log(Level.FINE, "Failed to append " + run + " to the test result history index", e);
+		}
+	}
+
+	/**
+	 * Marks a deleted build in the index file of a job whose history is not loaded.
+	 *
+	 * @param project the job of the deleted build
+	 * @param buildNumber the number of the deleted build
+	 */
+	@SuppressWarnings("rawtypes")
+	public static void removeFromIndex(Job project, int buildNumber) {
+		HistoryIndexFile index = getWriteThroughFile(project);
+		if (!index.exists()) {
+			return;
+		}
+		try {
+			index.appendRemove(buildNumber);
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "Failed to remove build " + buildNumber + " from the test result history index", e);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static HistoryIndexFile getIndexFile(Job project) {
+		return new HistoryIndexFile(new File(project.getRootDir(), HistoryIndexFile.FILE_NAME), BuildResultLoader.getRootUrl());
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static HistoryIndexFile getWriteThroughFile(Job project) {
+		HistoryIndexFile index = getIndexFile(project);
+		synchronized (writeThroughFiles) {
+			HistoryIndexFile kept = writeThroughFiles.get(index.getPath());
+			if (kept != null) {
+				return kept;
+			}
+			writeThroughFiles.put(index.getPath(), index);
+			return index;
+		}
+	}
+
+	/**
+	 * Loads the completed builds within the given range in addition to the builds within the window. Builds from
+	 * the oldest requested one onwards are no longer dropped when newer builds push them out of the window, so the
+	 * history keeps growing backwards as older ranges are requested, until it is loaded again.
+	 *
+	 * @param project the job this history belongs to
+	 * @param from the oldest build number to load
+	 * @param to the newest build number to load
+	 */
+	@SuppressWarnings("rawtypes")
+	public void loadBuildRange(Job project, int from, int to) {
+		synchronized (updateLock) {
+			Set<Integer> loadedBuilds;
+			synchronized (this) {
+				if (!loaded) {
+					return;
+				}
+				loadedBuilds = new HashSet<Integer>(builds);
+			}
+			List<Run> newRuns = new ArrayList<Run>();
+			for (int buildNumber = to; buildNumber >= from; buildNumber--) {
+				if (!loadedBuilds.contains(buildNumber)) {
+					Run run = project.getBuildByNumber(buildNumber);
+					if (run != null && !run.isBuilding()) {
+						newRuns.add(run);
+					}
+				}
+			}
+			synchronized (this) {
+				oldestRequestedBuild = Math.min(oldestRequestedBuild, from);
+			}
+			mergeRuns(newRuns, loadedNoOfRunsToFetch);
+			synchronized (this) {
+				compactIndex();
+			}
+		}
+	}
+
+	/**
+	 * Drops a deleted build from a loaded history and marks it as deleted in the index file, which may hold the
+	 * build even if the history does not, for instance when it was loaded for a smaller window.
+	 *
+	 * @param buildNumber the number of the deleted build
+	 * @return false if the history is not loaded, the build has to be removed with {@link #removeFromIndex} instead
+	 */
+	public synchronized boolean removeBuild(int buildNumber) {
+		if (!loaded) {
+			return false;
+		}
+		pendingBuilds.remove(buildNumber);
+		if (containsBuild(buildNumber)) {
+			List<Integer> updatedBuilds = new ArrayList<Integer>(builds);
+			updatedBuilds.remove(Integer.valueOf(buildNumber));
+			resultInfo.removeBuild(buildNumber);
+			setBuilds(updatedBuilds);
+		}
+
+		if (index != null) {
+			try {
+				index.appendRemove(buildNumber);
+			} catch (IOException e) {
+				discardIndex(e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Merges the results of a build into the model, unless it was added meanwhile, for instance by {@link #addRun}
+	 * while a refresh read the same run.
+	 */
+	private void addBuild(int buildNumber, ResultInfo buildResults, int noOfRunsToFetch) {
+		if (containsBuild(buildNumber)) {
+			return;
+		}
+		addBuildResults(buildNumber, buildResults);
+		pendingBuilds.remove(buildNumber);
+		addBuilds(Collections.singletonList(buildNumber), noOfRunsToFetch);
+	}
+
+	/**
+	 * Whether the build is part of the history, looked up in the sorted build numbers.
+	 */
+	private boolean containsBuild(int buildNumber) {
+		return Collections.binarySearch(builds, buildNumber, Collections.<Integer>reverseOrder()) >= 0;
+	}
+
+	private void addBuilds(List<Integer> newBuilds, int noOfRunsToFetch) {
+		if (newBuilds.isEmpty()) {
+			return;
+		}
+		List<Integer> updatedBuilds = new ArrayList<Integer>(builds.size() + newBuilds.size());
+		updatedBuilds.addAll(builds);
+		for (Integer buildNumber : newBuilds) {
+			int position = Collections.binarySearch(updatedBuilds, buildNumber, Collections.<Integer>reverseOrder());
+			if (position < 0) {
+				updatedBuilds.add(-position - 1, buildNumber);
+			}
+		}
+		if (noOfRunsToFetch > 0) {
+			while (updatedBuilds.size() > noOfRunsToFetch && updatedBuilds.get(updatedBuilds.size() - 1) < oldestRequestedBuild) {
+				resultInfo.removeBuild(updatedBuilds.remove(updatedBuilds.size() - 1));
+			}
+		}
+		setBuilds(updatedBuilds);
+	}
+
+	private void setBuilds(List<Integer> updatedBuilds) {
+		builds = updatedBuilds;
+		resultCount = resultInfo.getResultCount();
+		version = VERSIONS.incrementAndGet();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static void collectRun(Run run, List<Run> newRuns, Set<Integer> pending) {
+		if (run.isBuilding()) {
+			pending.add(run.getNumber());
+		} else {
+			newRuns.add(run);
+		}
+	}
+
+	/**
+	 * Extracts the given runs in parallel and merges their results into the model in the order of the runs. The
+	 * history is only locked while a single build is merged, so readers see the builds appear one at a time.
+	 * When interrupted, the runs which were not merged yet are remembered as pending so the next refresh picks
+	 * them up again.
+	 */
+	@SuppressWarnings("rawtypes")
+	private void mergeRuns(List<Run> newRuns, int noOfRunsToFetch) {
+		progress.processedBuilds = 0;
+		progress.totalBuilds = newRuns.size();
+		List<Future<ResultInfo>> futures = BuildResultLoader.submit(newRuns);
+		for (int i = 0; i < futures.size(); i++) {
+			int buildNumber = newRuns.get(i).getNumber();
+			ResultInfo buildResults;
+			try {
+				buildResults = futures.get(i).get();
+			} catch (ExecutionException e) {
+				LOG.log(Level.WARNING, "Failed to read the test results of " + newRuns.get(i), e.getCause());
+				buildResults = new ResultInfo();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				synchronized (this) {
+					for (int j = i; j < futures.size(); j++) {
+						futures.get(j).cancel(true);
+						pendingBuilds.add(newRuns.get(j).getNumber());
+					}
+				}
+				break;
+			}
+			synchronized (this) {
+				addBuild(buildNumber, buildResults, noOfRunsToFetch);
+			}
+			progress.processedBuilds++;
+		}
+	}
+
+	private void addBuildResults(int buildNumber, ResultInfo buildResults) {
+		appendBuildToIndex(buildNumber, buildResults);
+		if (!isMapped()) {
+			resultInfo.merge(buildResults);
+		}
+	}
+
+	private boolean isMapped() {
+		return mapIndex && index != null;
+	}
+
+	private void appendBuildToIndex(int buildNumber, ResultInfo buildResults) {
+		if (index != null) {
+			try {
+				index.appendBuild(buildNumber, buildResults);
+			} catch (IOException e) {
+				discardIndex(e);
+			}
+		}
+	}
+
+	private void appendPendingToIndex(int buildNumber) {
+		if (index != null) {
+			try {
+				index.appendPending(buildNumber);
+			} catch (IOException e) {
+				discardIndex(e);
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the index file once most of its records are about builds which are no longer part of the history.
+	 * A file which could not be replaced, for instance because another history of the job still maps it, is left
+	 * as it is and compacted later.
+	 */
+	private void compactIndex() {
+		int liveRecords = builds.size() + pendingBuilds.size();
+		if (index != null && index.getRecordCount() > 2 * liveRecords + 16) {
+			try {
+				if (mapIndex) {
+					index.compact(loadedNoOfRunsToFetch, builds, pendingBuilds);
+				} else {
+					index.rewrite(loadedNoOfRunsToFetch, resultInfo, builds, pendingBuilds);
+				}
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "Failed to compact the test result history index", e);
+			}
+		}
+	}
+
+	/**
+	 * Package results which are written to a response without holding the lock of the history, so a slow client
+	 * does not hold up other requests or the builds being added. Packages decoded from the index file are read
+	 * from a view which stays mapped until the stream is closed. Packages held in memory are copied, with the
+	 * results of the requested builds only, one at a time while holding the lock. The stream reflects changes of
+	 * the history which happen meanwhile, so a response is only worth caching if the version did not change.
+	 */
+	public static final class PackageStream implements Iterable<PackageInfo>, Closeable {
+
+		private final MappedHistoryIndex view;
+		private Iterator<PackageInfo> packages;
+		private boolean closed;
+
+		PackageStream(MappedHistoryIndex view, Iterator<PackageInfo> packages) {
+			this.view = view;
+			this.packages = packages;
+		}
+
+		/**
+		 * @return the packages, the stream can only be iterated once
+		 */
+		public Iterator<PackageInfo> iterator() {
+			if (packages == null) {
+				throw new IllegalStateException("The packages were streamed already");
+			}
+			Iterator<PackageInfo> iterator = packages;
+			packages = null;
+			return iterator;
+		}
+
+		public void close() {
+			if (!closed) {
+				closed = true;
+				if (view != null) {
+					view.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Walks the packages held in memory by name, copying each one while holding the lock of the history.
+	 */
+	private final class CopyingIterator implements Iterator<PackageInfo> {
+
+		private final Set<Integer> requestedBuilds;
+		private final String namePrefix;
+		private PackageInfo next;
+
+		CopyingIterator(Set<Integer> requestedBuilds, String namePrefix) {
+			this.requestedBuilds = requestedBuilds;
+			this.namePrefix = namePrefix;
+			next = copyPackageAfter(null);
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public PackageInfo next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			PackageInfo packageInfo = next;
+			next = copyPackageAfter(packageInfo.getName());
+			return packageInfo;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private PackageInfo copyPackageAfter(String packageName) {
+			synchronized (JobHistory.this) {
+				PackageInfo packageInfo = resultInfo.getPackageAfter(packageName);
+				while (packageInfo != null && !namePrefix.isEmpty() && !HistoryExport.accepts(namePrefix, packageInfo.getName(), false)) {
+					packageInfo = resultInfo.getPackageAfter(packageInfo.getName());
+				}
+				return packageInfo != null ? copyPackage(packageInfo) : null;
+			}
+		}
+
+		private PackageInfo copyPackage(PackageInfo packageInfo) {
+			PackageInfo packageCopy = copyNode(packageInfo, new PackageInfo());
+			for (ClassInfo classInfo : packageInfo.getClasses().values()) {
+				ClassInfo classCopy = copyNode(classInfo, new ClassInfo());
+				packageCopy.getClasses().put(classCopy.getName(), classCopy);
+				for (TestCaseInfo testCaseInfo : classInfo.getTests().values()) {
+					TestCaseInfo testCaseCopy = copyNode(testCaseInfo, new TestCaseInfo());
+					classCopy.getTests().put(testCaseCopy.getName(), testCaseCopy);
+				}
+			}
+			return packageCopy;
+		}
+
+		private <T extends Info> T copyNode(Info info, T copy) {
+			copy.setName(info.getName());
+			copy.setSafeName(info.getSafeName());
+			copy.setConfig(info.isConfig());
+			BuildResults results = info.getResults();
+			for (int i = 0; i < results.size(); i++) {
+				if (requestedBuilds.contains(results.getBuildNumber(i))) {
+					copy.getResults().put(results.getBuildNumber(i), results.getTotalTests(i), results.getTotalFailed(i),
+							results.getTotalPassed(i), results.getTotalSkipped(i), results.getTotalTimeTaken(i), results.isConfig(i),
+							results.getReportUrl(i));
+				}
+			}
+			return copy;
+		}
+	}
+
+	/**
+	 * Stops maintaining an index file which could not be written, deleting it so the next load rebuilds it instead
+	 * of reading a history with gaps. A history served from the file has to be loaded again right away.
+	 */
+	private void discardIndex(IOException e) {
+		LOG.log(Level.WARNING, "Failed to access the test result history index, it will be rebuilt on the next load", e);
+		index.delete();
+		index = null;
+		if (mapIndex) {
+			loaded = false;
+		}
+		version = VERSIONS.incrementAndGet();
+	}
+
+	/**
+	 * Worst tests ranked from a version of the history.
+	 */
+	private static final class RankedTests {
+		private final long version;
+		private final int noOfBuilds;
+		private final int count;
+		private final List<WorstTests.Test> tests;
+
+		RankedTests(long version, int noOfBuilds, int count, List<WorstTests.Test> tests) {
+			this.version = version;
+			this.noOfBuilds = noOfBuilds;
+			this.count = count;
+			this.tests = tests;
+		}
+
+		boolean isFor(long version, int noOfBuilds, int count) {
+			return this.version == version && this.noOfBuilds == noOfBuilds && this.count == count;
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package org.jenkinsci.plugins.testresultsanalyzer.history;
+
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.testresultsanalyzer.TestResultsAnalyzerExtension;
+import org.jenkinsci.plugins.testresultsanalyzer.WorstTests;
+
+/**
+ * Process wide cache of {@link JobHistory} instances keyed by the full name of the job. Histories are evicted in
+ * least recently used order once the number of cached jobs or the total number of cached build results exceeds
+ * the budget configured in the global settings.
+ */
+public final class JobHistoryCache {
+
+	private final static Logger LOG = Logger.getLogger(JobHistoryCache.class.getName());
+
+	/**
+	 * Number of worst tests shown on the job page.
+	 */
+	private static final int JOB_WORST_TESTS = 5;
+
+	private static final Map<String, JobHistory> histories = new LinkedHashMap<String, JobHistory>(16, 0.75f, true);
+
+	private static ExecutorService refreshExecutor;
+	private static ThreadPoolExecutor listenerExecutor;
+
+	private JobHistoryCache() {
+	}
+
+	/**
+	 * Returns the history of the given job, creating an empty one if the job is not cached yet.
+	 *
+	 * @param project the job
+	 * @return the shared history of the job
+	 */
+	@SuppressWarnings("rawtypes")
+	public static JobHistory get(Job project) {
+		synchronized (histories) {
+			JobHistory history = histories.get(project.getFullName());
+			if (history == null) {
+				history = new JobHistory();
+				histories.put(project.getFullName(), history);
+			}
+			return history;
+		}
+	}
+
+	/**
+	 * Returns the cached history of the given job without creating one.
+	 *
+	 * @param project the job
+	 * @return the shared history of the job, or null if the job is not cached
+	 */
+	@SuppressWarnings("rawtypes")
+	public static JobHistory getIfPresent(Job project) {
+		synchronized (histories) {
+			return histories.get(project.getFullName());
+		}
+	}
+
+	/**
+	 * Returns the history of the given job after bringing it up to date with the job's runs.
+	 *
+	 * @param project the job
+	 * @return the shared, up to date history of the job
+	 */
+	@SuppressWarnings("rawtypes")
+	public static JobHistory update(Job project) {
+		JobHistory history = get(project);
+		history.update(project, TestResultsAnalyzerExtension.DESCRIPTOR.getNoOfRunsToFetch(),
+				TestResultsAnalyzerExtension.DESCRIPTOR.isMapHistoryIndex());
+		trim(history);
+		getJobWorstTests(history);
+		return history;
+	}
+
+	/**
+	 * The worst tests shown on the job page, over the builds shown by default. They are ranked by the background
+	 * refresh and when a run is added or deleted, so the job page only has to pick them up.
+	 *
+	 * @param history the history of the job
+	 * @return the tests, worst first, or an empty list if the history is not loaded
+	 */
+	public static List<WorstTests.Test> getJobWorstTests(JobHistory history) {
+		if (!history.isLoaded()) {
+			return Collections.emptyList();
+		}
+		int noOfBuilds = -1;
+		if (!TestResultsAnalyzerExtension.DESCRIPTOR.getShowAllBuilds()) {
+			try {
+				noOfBuilds = Integer.parseInt(TestResultsAnalyzerExtension.DESCRIPTOR.getNoOfBuilds());
+			} catch (NumberFormatException e) {
+				noOfBuilds = -1;
+			}
+		}
+		return history.getWorstTests(noOfBuilds, JOB_WORST_TESTS);
+	}
+
+	/**
+	 * Starts bringing the history of the given job up to date in the background, unless it is up to date already
+	 * or a background refresh of it is running. The progress is reported by the returned history.
+	 *
+	 * @param project the job
+	 * @return the shared history of the job
+	 */
+	@SuppressWarnings("rawtypes")
+	public static JobHistory refresh(final Job project) {
+		final JobHistory history = get(project);
+		if (history.isRefreshing() || !history.needsUpdate(project, TestResultsAnalyzerExtension.DESCRIPTOR.getNoOfRunsToFetch(),
+				TestResultsAnalyzerExtension.DESCRIPTOR.isMapHistoryIndex())) {
+			return history;
+		}
+		refreshInBackground(project, history, new Runnable() {
+			public void run() {
+				update(project);
+			}
+		});
+		return history;
+	}
+
+	/**
+	 * Starts loading the builds within the given range into the history of the given job in the background, after
+	 * bringing it up to date. Nothing is done while a background refresh of the job is running.
+	 *
+	 * @param project the job
+	 * @param from the oldest build number to load
+	 * @param to the newest build number to load
+	 * @return the shared history of the job
+	 */
+	@SuppressWarnings("rawtypes")
+	public static JobHistory loadBuildRange(final Job project, final int from, final int to) {
+		final JobHistory history = get(project);
+		refreshInBackground(project, history, new Runnable() {
+			public void run() {
+				update(project);
+				history.loadBuildRange(project, from, to);
+				trim(history);
+			}
+		});
+		return history;
+	}
+
+	/**
+	 * Adds a completed run to the history of its job in the background, so the thread completing the build does not
+	 * wait for its test results to be read. The run is written through to the job's index file if the history is
+	 * not loaded. Completed and deleted runs are processed one at a time in the order they were reported.
+	 *
+	 * @param run the completed run
+	 */
+	@SuppressWarnings("rawtypes")
+	public static void addRun(final Run run) {
+		getListenerExecutor().execute(new Runnable() {
+			public void run() {
+				Job project = run.getParent();
+				int noOfRunsToFetch = TestResultsAnalyzerExtension.DESCRIPTOR.getNoOfRunsToFetch();
+				try {
+					JobHistory history = getIfPresent(project);
+					if (history == null || !history.addRun(run, noOfRunsToFetch)) {
+						JobHistory.appendToIndex(project, run, noOfRunsToFetch);
+					} else {
+						getJobWorstTests(history);
+					}
+				} catch (RuntimeException e) {
+					LOG.log(Level.WARNING, "Failed to add " + run + " to the test result history", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Removes a deleted run from the history of its job, or from the job's index file if the history is not loaded.
+	 *
+	 * @param run the deleted run
+	 */
+	@SuppressWarnings("rawtypes")
+	public static void removeRun(final Run run) {
+		final Job project = run.getParent();
+		final int buildNumber = run.getNumber();
+		getListenerExecutor().execute(new Runnable() {
+			public void run() {
+				try {
+					JobHistory history = getIfPresent(project);
+					if (history == null || !history.removeBuild(buildNumber)) {
+						JobHistory.removeFromIndex(project, buildNumber);
+					} else {
+						getJobWorstTests(history);
+					}
+				} catch (RuntimeException e) {
+					LOG.log(Level.WARNING, "Failed to remove build " + buildNumber + " of " + project.getFullName()
+							+ " from the test result history", e);
+				}
+			}
+		});
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static void refreshInBackground(final Job project, final JobHistory history, final Runnable refresh) {
+		if (!history.startRefresh()) {
+			return;
+		}
+		getRefreshExecutor().execute(new Runnable() {
+			public void run() {
+				try {
+					refresh.run();
+				} catch (RuntimeException e) {
+					LOG.log(Level.WARNING, "Failed to refresh the test result history of " + project.getFullName(), e);
+				} finally {
+					history.finishRefresh();
+				}
+			}
+		});
+	}
+
+	private static synchronized ExecutorService getRefreshExecutor() {
+		if (refreshExecutor == null) {
+			refreshExecutor = Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "TestResultsAnalyzer.refresh"));
+		}
+		return refreshExecutor;
+	}
+
+	private static synchronized ThreadPoolExecutor getListenerExecutor() {
+		if (listenerExecutor == null) {
+			listenerExecutor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new NamingThreadFactory(new DaemonThreadFactory(), "TestResultsAnalyzer.listener"));
+			listenerExecutor.allowCoreThreadTimeOut(true);
+		}
+		return listenerExecutor;
+	}
+
+	private static void trim(JobHistory keep) {
+		int maxJobs = TestResultsAnalyzerExtension.DESCRIPTOR.getHistoryCacheSize();
+		int maxResults = TestResultsAnalyzerExtension.DESCRIPTOR.getHistoryCacheMaxResults();
+		synchronized (histories) {
+			long totalResults = 0;
+			for (JobHistory history : histories.values()) {
+				totalResults += history.getResultCount();
+			}
+
+			Iterator<JobHistory> iterator = histories.values().iterator();
+			while (iterator.hasNext() && isOverBudget(histories.size(), maxJobs, totalResults, maxResults)) {
+				JobHistory history = iterator.next();
+				if (history != keep) {
+					totalResults -= history.getResultCount();
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	private static boolean isOverBudget(int jobs, int maxJobs, long results, int maxResults) {
+		return (maxJobs > 0 && jobs > maxJobs) || (maxResults > 0 && results > maxResults);
+	}
+}
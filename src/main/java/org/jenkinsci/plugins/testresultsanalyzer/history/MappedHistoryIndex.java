@@ -0,0 +1,812 @@
+package org.jenkinsci.plugins.testresultsanalyzer.history;
+
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ClassInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.Info;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.PackageInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.TestCaseInfo;
+
+/**
+ * Read-only, memory-mapped view of a {@link HistoryIndexFile}. Mapping the file only scans its record headers and
+ * keeps the name dictionary as a few arrays; the results are decoded straight from the mapped buffer while the
+ * packages are iterated, so serving a history from the view holds little more than one package on the heap. The
+ * operating system only loads the pages which are read and may drop them again under memory pressure.
+ * <p>
+ * When records are appended to the file, {@link #extend} maps it again and only scans the new records; the node
+ * arrays are shared with the previous view, which only reads the nodes it knew. Views are unmapped by
+ * {@link #close} rather than by the garbage collector, since a mapped file can not be replaced or deleted on
+ * Windows. Readers which use a view outside the lock of its history {@link #acquire} it first, so it is only
+ * unmapped once they {@link #release} it.
+ */
+public final class MappedHistoryIndex {
+
+	private final static Logger LOG = Logger.getLogger(MappedHistoryIndex.class.getName());
+
+	private final ByteBuffer buffer;
+	private final String rootUrl;
+	private final Object fileKey;
+
+	private int nodeCount;
+	private int[] parents = new int[64];
+	private byte[] levels = new byte[64];
+	private int[] namePositions = new int[64];
+	private int[] order;
+	private int orderedCount;
+	private int[] ranks;
+	private final Map<Integer, Integer> buildPositions = new HashMap<Integer, Integer>();
+	private final Map<Integer, PackageTable> packageTables = new HashMap<Integer, PackageTable>();
+	private Map<String, Integer> packageIds;
+	private int packageIdsNodeCount;
+
+	private int users;
+	private boolean closing;
+	private boolean closed;
+
+	private MappedHistoryIndex(ByteBuffer buffer, String rootUrl, Object fileKey) {
+		this.buffer = buffer;
+		this.rootUrl = rootUrl;
+		this.fileKey = fileKey;
+	}
+
+	static MappedHistoryIndex open(File file, String rootUrl) throws IOException {
+		MappedHistoryIndex index = new MappedHistoryIndex(mapFile(file), rootUrl, getFileKey(file));
+		try {
+			index.scan(file, 0);
+		} catch (IOException e) {
+			index.close();
+			throw e;
+		}
+		return index;
+	}
+
+	/**
+	 * Maps the file again after records were appended to it. Only the appended records are scanned, the nodes and
+	 * builds known to this view are taken over, and so is the tree order of the nodes, which is only extended by
+	 * the new nodes. This view stays valid for the nodes and builds it knew.
+	 *
+	 * @param file the index file, which only grew since this view was mapped
+	 * @return the view of the current content of the file
+	 * @throws IOException if the file can not be mapped
+	 */
+	MappedHistoryIndex extend(File file) throws IOException {
+		MappedHistoryIndex index = new MappedHistoryIndex(mapFile(file), rootUrl, fileKey);
+		synchronized (this) {
+			index.nodeCount = nodeCount;
+			index.parents = parents;
+			index.levels = levels;
+			index.namePositions = namePositions;
+			index.order = order;
+			index.orderedCount = orderedCount;
+			index.ranks = ranks;
+			index.buildPositions.putAll(buildPositions);
+			// the records known to this view are not changed by appending to the file
+			index.packageTables.putAll(packageTables);
+		}
+		try {
+			index.scan(file, (int) getLength());
+		} catch (IOException e) {
+			index.close();
+			throw e;
+		}
+		if (index.nodeCount != nodeCount) {
+			index.ranks = null;
+		}
+		return index;
+	}
+
+	/**
+	 * Whether the view maps the given file, and not a file which was moved to its path afterwards. The identity of
+	 * files is not known on every platform; where it is not, mapped files can not be replaced anyway.
+	 *
+	 * @param file the index file
+	 * @return false if the file was replaced since it was mapped
+	 * @throws IOException if the file can not be read
+	 */
+	boolean isSameFile(File file) throws IOException {
+		Object key = getFileKey(file);
+		return key == null || key.equals(fileKey);
+	}
+
+	private static ByteBuffer mapFile(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to be mapped");
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static Object getFileKey(File file) throws IOException {
+		return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+	}
+
+	/**
+	 * Keeps the view mapped until {@link #release} is called, even if it is closed meanwhile.
+	 *
+	 * @return false if the view is closed already
+	 */
+	synchronized boolean acquire() {
+		if (closing) {
+			return false;
+		}
+		users++;
+		return true;
+	}
+
+	synchronized void release() {
+		users--;
+		if (closing && users == 0) {
+			unmap();
+		}
+	}
+
+	/**
+	 * Unmaps the file, right away or once the last reader released the view. Reading a closed view fails.
+	 */
+	synchronized void close() {
+		closing = true;
+		if (users == 0) {
+			unmap();
+		}
+	}
+
+	private void unmap() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			try {
+				// Java 9 and later
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Field unsafe = unsafeClass.getDeclaredField("theUnsafe");
+				unsafe.setAccessible(true);
+				unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(unsafe.get(null), buffer);
+			} catch (NoSuchMethodException e) {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		} catch (Exception e) {
+			// the mapping is released by the garbage collector instead
+			LOG.log(Level.FINE, "Failed to unmap the test result history index", e);
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("The test result history index was closed");
+		}
+	}
+
+	/**
+	 * Size of the mapped file in bytes.
+	 *
+	 * @return the length of the mapping
+	 */
+	public long getLength() {
+		return buffer.capacity();
+	}
+
+	int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Returns the package results of the given builds. The packages are decoded while iterating and are not
+	 * retained by the view.
+	 *
+	 * @param builds the builds of the history, they decide which packages, classes and tests exist
+	 * @param requestedBuilds the builds whose results are put into the returned packages
+	 * @return the packages sorted by name, holding only the results of the requested builds
+	 */
+	public Iterable<PackageInfo> getPackages(List<Integer> builds, Collection<Integer> requestedBuilds) {
+		return getPackages(builds, requestedBuilds, "");
+	}
+
+	/**
+	 * Returns the package results of the given builds, leaving out the nodes which can not hold tests whose full
+	 * name starts with the given prefix, see {@link HistoryExport}. Their results are skipped without being
+	 * decoded.
+	 *
+	 * @param builds the builds of the history, they decide which packages, classes and tests exist
+	 * @param requestedBuilds the builds whose results are put into the returned packages
+	 * @param namePrefix the prefix of the full names of the tests to return, empty for all tests
+	 * @return the packages sorted by name, holding only the results of the requested builds
+	 */
+	public Iterable<PackageInfo> getPackages(final List<Integer> builds, Collection<Integer> requestedBuilds, final String namePrefix) {
+		final Set<Integer> requested = new HashSet<Integer>(requestedBuilds);
+		return new Iterable<PackageInfo>() {
+			public Iterator<PackageInfo> iterator() {
+				return new PackageIterator(builds, requested, namePrefix, -1);
+			}
+		};
+	}
+
+	/**
+	 * Returns a single package with the results of the given builds. Only the entries of the package are decoded:
+	 * the first time a build record is read this way the positions of its packages are noted, so later lookups go
+	 * straight to the package within each record.
+	 *
+	 * @param packageName the name of the package
+	 * @param builds the builds of the history, they decide which classes and tests exist
+	 * @param requestedBuilds the builds whose results are put into the returned package
+	 * @return the package, or null if none of the builds holds results of it
+	 */
+	public synchronized PackageInfo getPackage(String packageName, List<Integer> builds, Collection<Integer> requestedBuilds) {
+		checkOpen();
+		Integer id;
+		try {
+			id = getPackageIds().get(packageName);
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read the test result history index", e);
+		}
+		if (id == null) {
+			return null;
+		}
+		PackageIterator iterator = new PackageIterator(builds, new HashSet<Integer>(requestedBuilds), "", id);
+		return iterator.hasNext() ? iterator.next() : null;
+	}
+
+	private Map<String, Integer> getPackageIds() throws IOException {
+		if (packageIds == null || packageIdsNodeCount != nodeCount) {
+			Map<String, Integer> ids = new HashMap<String, Integer>();
+			for (int id = 0; id < nodeCount; id++) {
+				if (levels[id] == 0) {
+					ids.put(readName(id), id);
+				}
+			}
+			packageIds = ids;
+			packageIdsNodeCount = nodeCount;
+		}
+		return packageIds;
+	}
+
+	/**
+	 * Notes where the entries of each package start within the record of a build.
+	 */
+	private PackageTable getPackageTable(int buildNumber, int position) throws IOException {
+		PackageTable table = packageTables.get(position);
+		if (table == null) {
+			table = new PackageTable();
+			HistoryIndexFile.Entry entry = new HistoryIndexFile.Entry(rootUrl);
+			Cursor cursor = new Cursor(buildNumber, position);
+			int entryPosition = cursor.position();
+			int remaining = cursor.remaining;
+			while (cursor.advance()) {
+				int level = levels[cursor.node];
+				if (level == 0) {
+					table.add(cursor.node, entryPosition, remaining);
+				}
+				entry.read(cursor.in, level);
+				entryPosition = cursor.position();
+				remaining = cursor.remaining;
+			}
+			packageTables.put(position, table);
+		}
+		return table;
+	}
+
+	/**
+	 * Copies the record introducing the given node.
+	 */
+	synchronized void writeNode(int id, DataOutput out) throws IOException {
+		checkOpen();
+		ByteBuffer names = buffer.duplicate();
+		names.position(namePositions[id]);
+		skipUTF(names);
+		skipUTF(names);
+		byte[] bytes = new byte[names.position() - namePositions[id]];
+		names.position(namePositions[id]);
+		names.get(bytes);
+
+		out.writeByte(HistoryIndexFile.NODE);
+		HistoryIndexFile.writeVarInt(out, parents[id] + 1);
+		out.write(bytes);
+	}
+
+	/**
+	 * Copies the record of the given build.
+	 *
+	 * @return false if the file holds no results of the build
+	 */
+	synchronized boolean writeBuild(int buildNumber, DataOutput out) throws IOException {
+		checkOpen();
+		Integer position = buildPositions.get(buildNumber);
+		if (position == null) {
+			return false;
+		}
+		ByteBuffer body = buffer.duplicate();
+		int length = body.getInt(position - 4);
+		body.position(position);
+		byte[] bytes = new byte[length];
+		body.get(bytes);
+
+		out.writeByte(HistoryIndexFile.BUILD);
+		out.writeInt(buildNumber);
+		out.writeInt(length);
+		out.write(bytes);
+		return true;
+	}
+
+	private void scan(File file, int start) throws IOException {
+		ByteBuffer records = buffer.duplicate();
+		try {
+			if (start == 0) {
+				if (records.getInt() != HistoryIndexFile.MAGIC || records.getInt() != HistoryIndexFile.VERSION) {
+					throw new IOException(file + " is not a test result history index");
+				}
+				records.getInt();
+			} else {
+				records.position(start);
+			}
+			DataInputStream in = new DataInputStream(new BufferInputStream(records));
+			while (records.hasRemaining()) {
+				byte type = records.get();
+				switch (type) {
+					case HistoryIndexFile.NODE:
+						addNode(HistoryIndexFile.readVarInt(in) - 1, records.position());
+						skipUTF(records);
+						skipUTF(records);
+						break;
+					case HistoryIndexFile.BUILD:
+						int buildNumber = records.getInt();
+						int length = records.getInt();
+						buildPositions.put(buildNumber, records.position());
+						records.position(records.position() + length);
+						break;
+					case HistoryIndexFile.REMOVE:
+						buildPositions.remove(records.getInt());
+						break;
+					case HistoryIndexFile.PENDING:
+						records.getInt();
+						break;
+					default:
+						throw new IOException("Unknown record type " + type + " in " + file);
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated record in " + file, e);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Truncated record in " + file, e);
+		}
+	}
+
+	private void addNode(int parent, int namePosition) throws IOException {
+		if (parent >= nodeCount) {
+			throw new IOException("Unknown parent node " + parent);
+		}
+		if (nodeCount == parents.length) {
+			parents = Arrays.copyOf(parents, nodeCount * 2);
+			levels = Arrays.copyOf(levels, nodeCount * 2);
+			namePositions = Arrays.copyOf(namePositions, nodeCount * 2);
+		}
+		parents[nodeCount] = parent;
+		levels[nodeCount] = (byte) (parent < 0 ? 0 : levels[parent] + 1);
+		namePositions[nodeCount] = namePosition;
+		nodeCount++;
+	}
+
+	/**
+	 * Indexes the names of all nodes of the file, including nodes whose builds are no longer part of the history.
+	 * The ids of the index are the node ids of the file.
+	 */
+	synchronized NameIndex getNameIndex() throws IOException {
+		checkOpen();
+		NameIndex.Builder builder = new NameIndex.Builder();
+		for (int id = 0; id < nodeCount; id++) {
+			builder.add(parents[id], input(namePositions[id]).readUTF());
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Ranks the nodes in the order of the result tree, which is the order of the entries within a build record. The
+	 * nodes are ordered by parent and name; nodes which are not part of the order taken over from the previous view
+	 * are sorted among themselves and inserted into it, so only their names are compared with the others.
+	 */
+	private synchronized int[] getRanks() throws IOException {
+		if (ranks != null) {
+			return ranks;
+		}
+		final String[] addedNames = new String[nodeCount - orderedCount];
+		Integer[] added = new Integer[nodeCount - orderedCount];
+		for (int id = orderedCount; id < nodeCount; id++) {
+			addedNames[id - orderedCount] = readName(id);
+			added[id - orderedCount] = id;
+		}
+		Comparator<Integer> comparator = new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int result = Integer.compare(parents[a], parents[b]);
+				return result != 0 ? result : getName(a).compareTo(getName(b));
+			}
+
+			private String getName(int id) {
+				try {
+					return id >= orderedCount ? addedNames[id - orderedCount] : readName(id);
+				} catch (IOException e) {
+					throw new IllegalStateException("Failed to read the test result history index", e);
+				}
+			}
+		};
+		Arrays.sort(added, comparator);
+
+		int[] previous = order != null ? order : new int[0];
+		int[] sorted = new int[nodeCount];
+		int copied = 0;
+		int next = 0;
+		for (Integer id : added) {
+			int position = insertionPoint(id, copied, comparator);
+			System.arraycopy(previous, copied, sorted, next, position - copied);
+			next += position - copied;
+			copied = position;
+			sorted[next++] = id;
+		}
+		System.arraycopy(previous, copied, sorted, next, orderedCount - copied);
+		order = sorted;
+		orderedCount = nodeCount;
+
+		// siblings are adjacent in sorted order, numbering them depth first yields the tree order
+		int[] firstChild = new int[nodeCount + 1];
+		int[] childCount = new int[nodeCount + 1];
+		for (int i = nodeCount - 1; i >= 0; i--) {
+			int parent = parents[sorted[i]] + 1;
+			firstChild[parent] = i;
+			childCount[parent]++;
+		}
+		int[] result = new int[nodeCount];
+		rank(-1, sorted, firstChild, childCount, result, 0);
+		ranks = result;
+		return ranks;
+	}
+
+	/**
+	 * Finds the position in the previous order, from the given one on, before which the node belongs.
+	 */
+	private int insertionPoint(int id, int from, Comparator<Integer> comparator) {
+		int low = from;
+		int high = orderedCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (comparator.compare(order[middle], id) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private String readName(int id) throws IOException {
+		return input(namePositions[id]).readUTF();
+	}
+
+	private int rank(int parent, int[] sorted, int[] firstChild, int[] childCount, int[] result, int next) {
+		int first = firstChild[parent + 1];
+		for (int i = first; i < first + childCount[parent + 1]; i++) {
+			int id = sorted[i];
+			result[id] = next++;
+			next = rank(id, sorted, firstChild, childCount, result, next);
+		}
+		return next;
+	}
+
+	private DataInputStream input(int position) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(position);
+		return new DataInputStream(new BufferInputStream(view));
+	}
+
+	private static void skipUTF(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xFFFF;
+		buffer.position(buffer.position() + length);
+	}
+
+	/**
+	 * Merges the build records, each sorted in tree order, and assembles one package at a time.
+	 */
+	private final class PackageIterator implements Iterator<PackageInfo> {
+
+		private final Set<Integer> requestedBuilds;
+		private final String namePrefix;
+		private final int packageId;
+		private final String[] path = new String[3];
+		private final int[] ranks;
+		private final PriorityQueue<Cursor> cursors;
+		private final HistoryIndexFile.Entry entry = new HistoryIndexFile.Entry(rootUrl);
+		private PackageInfo next;
+
+		/**
+		 * @param packageId the node of the only package to read, or -1 to read all packages
+		 */
+		PackageIterator(List<Integer> builds, Set<Integer> requestedBuilds, String namePrefix, int packageId) {
+			this.requestedBuilds = requestedBuilds;
+			this.namePrefix = namePrefix;
+			this.packageId = packageId;
+			synchronized (MappedHistoryIndex.this) {
+				checkOpen();
+				try {
+					ranks = getRanks();
+					cursors = new PriorityQueue<Cursor>(Math.max(1, builds.size()), new Comparator<Cursor>() {
+						public int compare(Cursor a, Cursor b) {
+							return Integer.compare(PackageIterator.this.ranks[a.node], PackageIterator.this.ranks[b.node]);
+						}
+					});
+					for (Integer buildNumber : builds) {
+						Integer position = buildPositions.get(buildNumber);
+						if (position != null) {
+							Cursor cursor = packageId < 0 ? new Cursor(buildNumber, position) : seekPackage(buildNumber, position);
+							if (cursor != null && cursor.advance()) {
+								cursors.add(cursor);
+							}
+						}
+					}
+					next = readPackage();
+				} catch (IOException e) {
+					throw new IllegalStateException("Failed to read the test result history index", e);
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public PackageInfo next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			PackageInfo packageInfo = next;
+			if (packageId >= 0) {
+				next = null;
+				return packageInfo;
+			}
+			synchronized (MappedHistoryIndex.this) {
+				checkOpen();
+				try {
+					next = readPackage();
+				} catch (IOException e) {
+					throw new IllegalStateException("Failed to read the test result history index", e);
+				}
+			}
+			return packageInfo;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Positions a cursor at the entry of the package to read within the record of a build.
+		 *
+		 * @return the cursor, or null if the build holds no results of the package
+		 */
+		private Cursor seekPackage(int buildNumber, int position) throws IOException {
+			PackageTable table = getPackageTable(buildNumber, position);
+			int index = table.indexOf(packageId, ranks);
+			return index >= 0 ? new Cursor(buildNumber, table.positions[index], table.remaining[index]) : null;
+		}
+
+		private PackageInfo readPackage() throws IOException {
+			PackageInfo packageInfo = null;
+			ClassInfo classInfo = null;
+			// nodes below a node outside the name prefix are skipped as well
+			int skippedLevel = Integer.MAX_VALUE;
+			while (!cursors.isEmpty()) {
+				int node = cursors.peek().node;
+				int level = levels[node];
+				if (level == 0 && packageInfo != null) {
+					return packageInfo;
+				}
+
+				Info info = null;
+				if (level <= skippedLevel) {
+					skippedLevel = Integer.MAX_VALUE;
+					DataInputStream names = input(namePositions[node]);
+					String name = names.readUTF();
+					String safeName = names.readUTF();
+					if (level < path.length) {
+						path[level] = level == 0 ? name : path[level - 1] + "." + name;
+					}
+					if (!namePrefix.isEmpty() && level < path.length && !HistoryExport.accepts(namePrefix, path[level], level == 2)) {
+						skippedLevel = level;
+					} else {
+						if (level == 0) {
+							packageInfo = new PackageInfo();
+							info = packageInfo;
+						} else if (level == 1 && packageInfo != null) {
+							classInfo = new ClassInfo();
+							packageInfo.getClasses().put(name, classInfo);
+							info = classInfo;
+						} else if (level == 2 && classInfo != null) {
+							TestCaseInfo testCaseInfo = new TestCaseInfo();
+							classInfo.getTests().put(name, testCaseInfo);
+							info = testCaseInfo;
+						} else {
+							throw new IOException("Build results are not in tree order");
+						}
+						info.setName(name);
+						info.setSafeName(safeName);
+					}
+				}
+
+				int newestBuild = Integer.MIN_VALUE;
+				while (!cursors.isEmpty() && cursors.peek().node == node) {
+					Cursor cursor = cursors.poll();
+					entry.read(cursor.in, level);
+					if (info != null && requestedBuilds.contains(cursor.buildNumber)) {
+						entry.putInto(info, cursor.buildNumber);
+					}
+					if (info != null && level == 2 && cursor.buildNumber > newestBuild) {
+						newestBuild = cursor.buildNumber;
+						info.setConfig(entry.config);
+					}
+					if (cursor.advance()) {
+						cursors.add(cursor);
+					}
+				}
+			}
+			return packageInfo;
+		}
+	}
+
+	/**
+	 * Position within the record of a single build.
+	 */
+	private final class Cursor {
+
+		final int buildNumber;
+		private final ByteBuffer records;
+		final DataInputStream in;
+		private int remaining;
+		int node;
+
+		/**
+		 * Starts at the beginning of the record of a build.
+		 */
+		Cursor(int buildNumber, int position) throws IOException {
+			this(buildNumber, position, 0);
+			remaining = HistoryIndexFile.readVarInt(in);
+		}
+
+		/**
+		 * Starts at an entry within the record of a build.
+		 *
+		 * @param remaining the number of entries from this one to the end of the record
+		 */
+		Cursor(int buildNumber, int position, int remaining) {
+			this.buildNumber = buildNumber;
+			records = buffer.duplicate();
+			records.position(position);
+			in = new DataInputStream(new BufferInputStream(records));
+			this.remaining = remaining;
+		}
+
+		/**
+		 * @return the position of the next entry
+		 */
+		int position() {
+			return records.position();
+		}
+
+		boolean advance() throws IOException {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			node = HistoryIndexFile.readVarInt(in);
+			if (node < 0 || node >= nodeCount) {
+				throw new IOException("Unknown node " + node + " in build " + buildNumber);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The packages of a build record in tree order, with the position of their entry and the number of entries
+	 * from there to the end of the record.
+	 */
+	private static final class PackageTable {
+
+		private int size;
+		private int[] nodes = new int[8];
+		private int[] positions = new int[8];
+		private int[] remaining = new int[8];
+
+		void add(int node, int position, int remainingEntries) {
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, size * 2);
+				positions = Arrays.copyOf(positions, size * 2);
+				remaining = Arrays.copyOf(remaining, size * 2);
+			}
+			nodes[size] = node;
+			positions[size] = position;
+			remaining[size] = remainingEntries;
+			size++;
+		}
+
+		/**
+		 * Finds a package by its rank, the packages of a record being sorted by rank.
+		 */
+		int indexOf(int node, int[] ranks) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				int result = Integer.compare(ranks[nodes[middle]], ranks[node]);
+				if (result < 0) {
+					low = middle + 1;
+				} else if (result > 0) {
+					high = middle - 1;
+				} else {
+					return middle;
+				}
+			}
+			return -1;
+		}
+	}
+
+	private static final class BufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) {
+			int count = (int) Math.min(n, buffer.remaining());
+			buffer.position(buffer.position() + count);
+			return count;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package org.jenkinsci.plugins.testresultsanalyzer.history;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.Info;
+
+/**
+ * Substring index over the names of the packages, classes and test cases of a history. Every node is listed under
+ * each trigram of its lower cased name, so a query only checks the nodes listed under all of its trigrams instead
+ * of every name. Queries shorter than a trigram fall back to scanning the names.
+ * <p>
+ * The index is immutable; {@link JobHistory} builds a new one once its version changed and a search needs it.
+ */
+public final class NameIndex {
+
+	private static final int[] NONE = new int[0];
+
+	private final int size;
+	private final int[] parents;
+	private final String[] names;
+	private final String[] lowerNames;
+	private final Map<Long, int[]> postings;
+
+	private NameIndex(int size, int[] parents, String[] names, Map<Long, int[]> postings) {
+		this.size = size;
+		this.parents = parents;
+		this.names = names;
+		this.postings = postings;
+		lowerNames = new String[size];
+		for (int id = 0; id < size; id++) {
+			lowerNames[id] = names[id].toLowerCase(Locale.ENGLISH);
+		}
+	}
+
+	/**
+	 * Indexes the nodes of a result tree.
+	 *
+	 * @param packageResults the packages of the tree
+	 * @return the index
+	 */
+	public static NameIndex of(Iterable<? extends Info> packageResults) {
+		Builder builder = new Builder();
+		for (Info packageInfo : packageResults) {
+			add(builder, -1, packageInfo);
+		}
+		return builder.build();
+	}
+
+	private static void add(Builder builder, int parent, Info info) {
+		int id = builder.add(parent, info.getName());
+		Map<String, ? extends Info> children = info.getChildren();
+		if (children != null) {
+			for (Info child : children.values()) {
+				add(builder, id, child);
+			}
+		}
+	}
+
+	/**
+	 * Finds the nodes whose name contains the query, ignoring case.
+	 *
+	 * @param query the text to look for
+	 * @return the ids of the matching nodes in ascending order
+	 */
+	public int[] search(String query) {
+		String lowerQuery = query.toLowerCase(Locale.ENGLISH);
+		if (lowerQuery.isEmpty()) {
+			return NONE;
+		}
+
+		int[] candidates = null;
+		if (lowerQuery.length() >= 3) {
+			List<int[]> lists = new ArrayList<int[]>();
+			for (int i = 0; i + 3 <= lowerQuery.length(); i++) {
+				int[] list = postings.get(trigram(lowerQuery, i));
+				if (list == null) {
+					return NONE;
+				}
+				lists.add(list);
+			}
+			// intersecting from the shortest list keeps every step as small as possible
+			Collections.sort(lists, new Comparator<int[]>() {
+				public int compare(int[] a, int[] b) {
+					return Integer.compare(a.length, b.length);
+				}
+			});
+			candidates = lists.get(0);
+			for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+				candidates = intersect(candidates, lists.get(i));
+			}
+		}
+
+		int count = candidates != null ? candidates.length : size;
+		int[] matches = new int[count];
+		int matchCount = 0;
+		for (int i = 0; i < count; i++) {
+			int id = candidates != null ? candidates[i] : i;
+			// the trigrams of a name may all occur in it without the query occurring as a whole
+			if (lowerNames[id].contains(lowerQuery)) {
+				matches[matchCount++] = id;
+			}
+		}
+		return Arrays.copyOf(matches, matchCount);
+	}
+
+	/**
+	 * The names of the node and its ancestors.
+	 *
+	 * @param id the node
+	 * @return the names, starting with the name of the package
+	 */
+	public List<String> getPath(int id) {
+		List<String> path = new ArrayList<String>();
+		for (int node = id; node >= 0; node = parents[node]) {
+			path.add(names[node]);
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[count++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	private static long trigram(String text, int index) {
+		return ((long) text.charAt(index) << 32) | ((long) text.charAt(index + 1) << 16) | text.charAt(index + 2);
+	}
+
+	/**
+	 * Collects the nodes of an index. Parents have to be added before their children.
+	 */
+	public static final class Builder {
+
+		private int size;
+		private int[] parents = new int[64];
+		private String[] names = new String[64];
+		private final Map<Long, int[]> postings = new HashMap<Long, int[]>();
+
+		/**
+		 * @param parent the id of the parent, or -1 for packages
+		 * @param name the name of the node
+		 * @return the id of the node
+		 */
+		public int add(int parent, String name) {
+			if (size == names.length) {
+				parents = Arrays.copyOf(parents, size * 2);
+				names = Arrays.copyOf(names, size * 2);
+			}
+			int id = size++;
+			parents[id] = parent;
+			names[id] = name;
+
+			String lowerName = name.toLowerCase(Locale.ENGLISH);
+			for (int i = 0; i + 3 <= lowerName.length(); i++) {
+				Long key = trigram(lowerName, i);
+				// the first slot holds the number of ids in the list
+				int[] list = postings.get(key);
+				if (list == null) {
+					list = new int[4];
+					postings.put(key, list);
+				} else if (list[list[0]] == id) {
+					continue;
+				} else if (list[0] + 1 == list.length) {
+					list = Arrays.copyOf(list, list.length * 2);
+					postings.put(key, list);
+				}
+				list[++list[0]] = id;
+			}
+			return id;
+		}
+
+		public NameIndex build() {
+			Map<Long, int[]> trimmed = new HashMap<Long, int[]>(postings.size() * 4 / 3 + 1);
+			for (Map.Entry<Long, int[]> entry : postings.entrySet()) {
+				int[] list = entry.getValue();
+				trimmed.put(entry.getKey(), Arrays.copyOfRange(list, 1, list[0] + 1));
+			}
+			return new NameIndex(size, Arrays.copyOf(parents, size), Arrays.copyOf(names, size), trimmed);
+		}
+	}
+}
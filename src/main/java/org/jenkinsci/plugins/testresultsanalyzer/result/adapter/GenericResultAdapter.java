@@ -0,0 +1,15 @@
+package org.jenkinsci.plugins.testresultsanalyzer.result.adapter;
+
+import hudson.Extension;
+
+/**
+ * Fallback for results of any other report, read through the counts every test result provides.
+ */
+@Extension(ordinal = -1000)
+public class GenericResultAdapter extends ResultAdapter {
+
+	@Override
+	public boolean isApplicable(Class<?> resultType) {
+		return true;
+	}
+}
@@ -0,0 +1,17 @@
+package org.jenkinsci.plugins.testresultsanalyzer.result.adapter;
+
+import hudson.Extension;
+
+/**
+ * Results of the JUnit plugin, whose counts can be used as they are.
+ */
+@Extension
+public class JUnitResultAdapter extends ResultAdapter {
+
+	private static final String PACKAGE = "hudson.tasks.junit.";
+
+	@Override
+	public boolean isApplicable(Class<?> resultType) {
+		return resultType.getName().startsWith(PACKAGE);
+	}
+}
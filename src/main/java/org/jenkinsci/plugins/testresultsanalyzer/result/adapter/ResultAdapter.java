@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.testresultsanalyzer.result.adapter;
+
+import hudson.ExtensionPoint;
+import hudson.tasks.test.TestResult;
+import jenkins.model.Jenkins;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.BuildResults;
+
+/**
+ * Reads the results of one kind of test report, such as JUnit or TestNG. The adapter of a result class is looked up
+ * once and cached for the class, and adapters resolve any accessors they need once per class as well, so loading a
+ * history does not inspect every single test case again.
+ * <p>
+ * Adapters are tried in the order of their extension ordinal; {@link GenericResultAdapter} applies to all results
+ * and comes last.
+ */
+public abstract class ResultAdapter implements ExtensionPoint {
+
+	private static final ClassValue<ResultAdapter> ADAPTERS = new ClassValue<ResultAdapter>() {
+		@Override
+		protected ResultAdapter computeValue(Class<?> resultType) {
+			for (ResultAdapter adapter : all()) {
+				if (adapter.isApplicable(resultType)) {
+					return adapter;
+				}
+			}
+			return BuiltIn.GENERIC;
+		}
+	};
+
+	/**
+	 * Checks whether this adapter reads results of the given class, usually the package level result of a report.
+	 *
+	 * @param resultType the class of a test result
+	 * @return true if this adapter handles such results
+	 */
+	public abstract boolean isApplicable(Class<?> resultType);
+
+	/**
+	 * The name of the report within the url of a build.
+	 *
+	 * @return the url name of the report
+	 */
+	public String getReportUrlName() {
+		return "testReport";
+	}
+
+	/**
+	 * Stores the result of a single test case.
+	 *
+	 * @param results the results of the test case node
+	 * @param buildNumber the build
+	 * @param testCase the test case result of the build
+	 */
+	public void putTestCaseResult(BuildResults results, int buildNumber, TestResult testCase) {
+		results.put(buildNumber, testCase.getTotalCount(), testCase.getFailCount(), testCase.getPassCount(), testCase.getSkipCount(),
+				testCase.getDuration(), false, null);
+	}
+
+	/**
+	 * Looks up the adapter of a result.
+	 *
+	 * @param result a test result
+	 * @return the first applicable adapter
+	 */
+	public static ResultAdapter forResult(Object result) {
+		return ADAPTERS.get(result.getClass());
+	}
+
+	/**
+	 * All registered adapters, or the built-in ones when Jenkins is not running.
+	 *
+	 * @return the adapters
+	 */
+	public static List<ResultAdapter> all() {
+		Jenkins jenkins = Jenkins.getInstance();
+		if (jenkins == null) {
+			return BuiltIn.ADAPTERS;
+		}
+		return jenkins.getExtensionList(ResultAdapter.class);
+	}
+
+	private static final class BuiltIn {
+		static final ResultAdapter GENERIC = new GenericResultAdapter();
+		static final List<ResultAdapter> ADAPTERS = Collections.unmodifiableList(Arrays.<ResultAdapter>asList(
+				new JUnitResultAdapter(), new TestNGResultAdapter(), GENERIC));
+	}
+}
@@ -0,0 +1,85 @@
+package org.jenkinsci.plugins.testresultsanalyzer.result.adapter;
+
+import hudson.Extension;
+import hudson.tasks.test.TestResult;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Method;
+
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.BuildResults;
+
+/**
+ * Results of the TestNG plugin. Its method results report configuration methods and a status string instead of
+ * meaningful counts; the accessors of both are resolved once per result class.
+ */
+@Extension
+public class TestNGResultAdapter extends ResultAdapter {
+
+	private static final String PACKAGE = "hudson.plugins.testng.results.";
+
+	private static final ClassValue<Accessors> ACCESSORS = new ClassValue<Accessors>() {
+		@Override
+		protected Accessors computeValue(Class<?> resultType) {
+			return new Accessors(resultType);
+		}
+	};
+
+	@Override
+	public boolean isApplicable(Class<?> resultType) {
+		return resultType.getName().startsWith(PACKAGE);
+	}
+
+	@Override
+	public String getReportUrlName() {
+		return "testngreports";
+	}
+
+	@Override
+	public void putTestCaseResult(BuildResults results, int buildNumber, TestResult testCase) {
+		Accessors accessors = ACCESSORS.get(testCase.getClass());
+		if (accessors.status == null) {
+			super.putTestCaseResult(results, buildNumber, testCase);
+			return;
+		}
+		try {
+			Object statusValue = (Object) accessors.status.invokeExact(testCase);
+			boolean config = accessors.config != null && (boolean) accessors.config.invokeExact(testCase);
+			if (!(statusValue instanceof String)) {
+				results.put(buildNumber, testCase.getTotalCount(), testCase.getFailCount(), testCase.getPassCount(),
+						testCase.getSkipCount(), testCase.getDuration(), config, null);
+				return;
+			}
+			String status = ((String) statusValue).toLowerCase();
+			results.put(buildNumber, 1, status.startsWith("fail") ? 1 : 0, status.startsWith("pass") ? 1 : 0,
+					status.startsWith("skip") ? 1 : 0, testCase.getDuration(), config, null);
+		} catch (Throwable e) { //NOSONAR
+			// fallback to the counts of the result
+			super.putTestCaseResult(results, buildNumber, testCase);
+		}
+	}
+
+	/**
+	 * The getStatus and isConfig methods of a result class, null if the class does not have them.
+	 */
+	private static final class Accessors {
+		final MethodHandle status;
+		final MethodHandle config;
+
+		Accessors(Class<?> resultType) {
+			status = find(resultType, "getStatus", Object.class);
+			config = status != null ? find(resultType, "isConfig", boolean.class) : null;
+		}
+
+		private static MethodHandle find(Class<?> resultType, String name, Class<?> returnType) {
+			try {
+				Method method = resultType.getMethod(name);
+				return MethodHandles.publicLookup().unreflect(method).asType(MethodType.methodType(returnType, TestResult.class));
+			} catch (NoSuchMethodException | IllegalAccessException | WrongMethodTypeException e) { //NOSONAR
+				return null;
+			}
+		}
+	}
+}
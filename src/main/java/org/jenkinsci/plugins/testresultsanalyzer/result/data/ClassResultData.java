@@ -5,6 +5,10 @@ import hudson.tasks.test.TabulatedResult;
 
 public class ClassResultData extends ResultData {
 
+	public ClassResultData(String name, int totalTests, int totalFailed, int totalPassed, int totalSkipped, float totalTimeTaken, String url) {
+		super(name, totalTests, totalFailed, totalPassed, totalSkipped, totalTimeTaken, url);
+	}
+
 	public ClassResultData(TabulatedResult classResult, String url) {
 		super(classResult, url);
 	}
@@ -4,6 +4,10 @@ import hudson.tasks.test.TestResult;
 
 public class PackageResultData extends ResultData {
 
+	public PackageResultData(String name, int totalTests, int totalFailed, int totalPassed, int totalSkipped, float totalTimeTaken, String url) {
+		super(name, totalTests, totalFailed, totalPassed, totalSkipped, totalTimeTaken, url);
+	}
+
 	public PackageResultData(TestResult packageResult, String url) {
         super(packageResult, url);
 	}
@@ -2,6 +2,7 @@ package org.jenkinsci.plugins.testresultsanalyzer.result.data;
 
 import hudson.tasks.test.TabulatedResult;
 import hudson.tasks.test.TestObject;
+import org.jenkinsci.plugins.testresultsanalyzer.ResultStatus;
 
 public abstract class ResultData {
 
@@ -13,7 +14,7 @@ public abstract class ResultData {
 	private int totalPassed;
 	private int totalSkipped;
 	private float totalTimeTaken;
-	private String status;
+	private ResultStatus status;
     private String url;
 
 	public String getName() {
@@ -94,6 +95,17 @@ public abstract class ResultData {
 
     }
 
+    public ResultData(String name, int totalTests, int totalFailed, int totalPassed, int totalSkipped, float totalTimeTaken, String url) {
+        setName(name);
+        setTotalTests(totalTests);
+        setTotalFailed(totalFailed);
+        setTotalPassed(totalPassed);
+        setTotalSkipped(totalSkipped);
+        setTotalTimeTaken(totalTimeTaken);
+        setUrl(url);
+        evaluateStatus();
+    }
+
     public ResultData(TestObject result, String url) {
         setName(result.getName());
         setTotalTests(result.getTotalCount());
@@ -106,18 +118,14 @@ public abstract class ResultData {
     }
 
 	protected void evaluateStatus() {
-		if (totalSkipped == totalTests) {
-			status = "SKIPPED";
-		}
-		else if (totalFailed == 0) {
-			status = "PASSED";
-		}
-		else {
-			status = "FAILED";
-		}
+		status = ResultStatus.of(totalTests, totalFailed, totalSkipped);
 	}
 
 	public String getStatus() {
+		return status != null ? status.getValue() : null;
+	}
+
+	public ResultStatus getResultStatus() {
 		return status;
 	}
 
@@ -0,0 +1,561 @@
+package org.jenkinsci.plugins.testresultsanalyzer.result.info;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.jenkinsci.plugins.testresultsanalyzer.ResultStatus;
+import org.jenkinsci.plugins.testresultsanalyzer.result.data.ResultData;
+
+/**
+ * Build results of a single {@link Info} node, stored in columns of primitives indexed by the position of the build
+ * instead of one {@link ResultData} object per build. Build numbers are kept in descending order, like the reverse
+ * ordered map this replaces, and {@link ResultData} objects are only created when results are read through the
+ * {@link Map} interface. Scans should use {@link #indexOf(int)} and the column getters instead.
+ * <p>
+ * The counts of a result are only stored once a result is added whose counts are not implied by its status. Test
+ * cases, which make up nearly all results, usually are a single passed, failed or skipped test. Urls are not stored
+ * either: packages keep the report url of each build, shared by all packages of that build, and all other urls are
+ * computed from it by {@link Info#getUrl(int)}.
+ * <p>
+ * The number of flips, changes between passed and failed from one build to the next, is kept up to date as results
+ * are added and removed. Skipped and missing results are left out, so a test which fails, is skipped and passes
+ * flips once. Each change only compares the result with its nearest passed or failed neighbours instead of walking
+ * all results.
+ * <p>
+ * The {@link DurationStatistics} of the passed and failed results are kept the same way. Mean and variance are
+ * updated with Welford's method as results are added and removed. The moving average only follows results added
+ * as the newest one, which is how new builds arrive, and is computed again on its next use after any other change.
+ */
+public class BuildResults extends AbstractMap<Integer, ResultData> {
+
+	private static final int COUNTS = 4;
+
+	private final Info owner;
+	private int size;
+	private int[] builds = new int[0];
+	private byte[] statuses = new byte[0];
+	private float[] durations = new float[0];
+	private int[] counts;
+	private String[] reportUrls;
+	private boolean[] configs;
+	private int flips;
+	private int decided;
+	private double meanDuration;
+	private double squaredDeviations;
+	private double ewma;
+	private boolean ewmaStale;
+
+	BuildResults(Info owner) {
+		this.owner = owner;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Looks up the position of a build.
+	 *
+	 * @param buildNumber the build
+	 * @return the position of the build, or a negative value if this node has no result of the build
+	 */
+	public int indexOf(int buildNumber) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int build = builds[middle];
+			if (build > buildNumber) {
+				low = middle + 1;
+			} else if (build < buildNumber) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	public int getBuildNumber(int index) {
+		return builds[index];
+	}
+
+	public ResultStatus getStatus(int index) {
+		return ResultStatus.fromOrdinal(statuses[index]);
+	}
+
+	public float getTotalTimeTaken(int index) {
+		return durations[index];
+	}
+
+	public int getTotalTests(int index) {
+		return counts != null ? counts[index * COUNTS] : 1;
+	}
+
+	public int getTotalFailed(int index) {
+		return counts != null ? counts[index * COUNTS + 1] : impliedCount(index, ResultStatus.FAILED);
+	}
+
+	public int getTotalPassed(int index) {
+		return counts != null ? counts[index * COUNTS + 2] : impliedCount(index, ResultStatus.PASSED);
+	}
+
+	public int getTotalSkipped(int index) {
+		return counts != null ? counts[index * COUNTS + 3] : impliedCount(index, ResultStatus.SKIPPED);
+	}
+
+	public boolean isConfig(int index) {
+		return configs != null && configs[index];
+	}
+
+	/**
+	 * @return the number of times the status changed between passed and failed, oldest build first
+	 */
+	public int getFlips() {
+		return flips;
+	}
+
+	/**
+	 * The share of the chances to flip which were taken, from 0 for a stable node to 1 for one which flipped on
+	 * every build.
+	 *
+	 * @return the flips divided by the number of passed and failed results less one, or 0 if there is no chance to
+	 *         flip
+	 */
+	public double getFlipRate() {
+		return decided > 1 ? (double) flips / (decided - 1) : 0;
+	}
+
+	/**
+	 * The flips within some of the builds, such as the ones shown. The kept count is used when the builds hold
+	 * every result.
+	 *
+	 * @param builds the builds to look at, newest first
+	 * @return the number of times the status changed between passed and failed within the builds
+	 */
+	public int getFlips(List<Integer> builds) {
+		int[] counts = countFlips(builds);
+		return counts != null ? counts[0] : flips;
+	}
+
+	/**
+	 * The flip rate within some of the builds, see {@link #getFlipRate()} and {@link #getFlips(List)}.
+	 *
+	 * @param builds the builds to look at, newest first
+	 * @return the flips within the builds divided by the number of their passed and failed results less one, or 0
+	 *         if there is no chance to flip
+	 */
+	public double getFlipRate(List<Integer> builds) {
+		int[] counts = countFlips(builds);
+		if (counts == null) {
+			return getFlipRate();
+		}
+		return counts[1] > 1 ? (double) counts[0] / (counts[1] - 1) : 0;
+	}
+
+	/**
+	 * @return the flips and the passed and failed results within the builds, or null if the builds hold every result
+	 */
+	private int[] countFlips(List<Integer> builds) {
+		int found = 0;
+		int windowFlips = 0;
+		int windowDecided = 0;
+		int previous = -1;
+		for (Integer buildNumber : builds) {
+			int index = indexOf(buildNumber);
+			if (index < 0) {
+				continue;
+			}
+			found++;
+			if (isDecided(index)) {
+				if (previous >= 0 && statuses[previous] != statuses[index]) {
+					windowFlips++;
+				}
+				previous = index;
+				windowDecided++;
+			}
+		}
+		return found == size ? null : new int[] {windowFlips, windowDecided};
+	}
+
+	/**
+	 * @return the statistics of the durations of the passed and failed results
+	 */
+	public DurationStatistics getDurationStatistics() {
+		if (ewmaStale) {
+			ewmaStale = false;
+			boolean first = true;
+			for (int i = size - 1; i >= 0; i--) {
+				if (isDecided(i)) {
+					ewma = first ? durations[i] : DurationStatistics.EWMA_WEIGHT * durations[i] + (1 - DurationStatistics.EWMA_WEIGHT) * ewma;
+					first = false;
+				}
+			}
+		}
+		return new DurationStatistics(decided, meanDuration, squaredDeviations, ewma);
+	}
+
+	/**
+	 * Whether counts are stored, which is the case once a result was added whose counts are not implied by its
+	 * status. Otherwise each result is a single test and the counts follow from its status.
+	 *
+	 * @return true if the counts of some result are not implied by its status
+	 */
+	public boolean hasCounts() {
+		return counts != null;
+	}
+
+	public String getUrl(int index) {
+		return owner.getUrl(builds[index]);
+	}
+
+	/**
+	 * The report url of a build, the url of the test results of the build without the path of any node.
+	 *
+	 * @param index the position of the build
+	 * @return the report url, or null if this node does not store one
+	 */
+	public String getReportUrl(int index) {
+		return reportUrls != null ? reportUrls[index] : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof Integer && indexOf((Integer) key) >= 0;
+	}
+
+	@Override
+	public ResultData get(Object key) {
+		if (!(key instanceof Integer)) {
+			return null;
+		}
+		int index = indexOf((Integer) key);
+		return index >= 0 ? toResultData(index) : null;
+	}
+
+	@Override
+	public ResultData put(Integer buildNumber, ResultData result) {
+		int index = indexOf(buildNumber);
+		ResultData previous = index >= 0 ? toResultData(index) : null;
+		put(buildNumber, result.getTotalTests(), result.getTotalFailed(), result.getTotalPassed(), result.getTotalSkipped(),
+				result.getTotalTimeTaken(), result.isConfig(), owner.toReportUrl(result.getUrl()));
+		return previous;
+	}
+
+	/**
+	 * Adds or replaces the result of a build without creating a {@link ResultData}.
+	 *
+	 * @param reportUrl the report url of the build, only stored for packages
+	 */
+	public void put(int buildNumber, int totalTests, int totalFailed, int totalPassed, int totalSkipped, float totalTimeTaken,
+			boolean config, String reportUrl) {
+		int index = indexOf(buildNumber);
+		if (index < 0) {
+			index = insert(-(index + 1), buildNumber);
+		} else {
+			untrack(index);
+		}
+		set(index, totalTests, totalFailed, totalPassed, totalSkipped, totalTimeTaken, config, reportUrl);
+		track(index);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void putAll(Map<? extends Integer, ? extends ResultData> results) {
+		if (!(results instanceof BuildResults)) {
+			super.putAll(results);
+			return;
+		}
+		BuildResults other = (BuildResults) results;
+		for (int i = 0; i < other.size; i++) {
+			int index = indexOf(other.builds[i]);
+			if (index < 0) {
+				index = insert(-(index + 1), other.builds[i]);
+			} else {
+				untrack(index);
+			}
+			set(index, other.getTotalTests(i), other.getTotalFailed(i), other.getTotalPassed(i), other.getTotalSkipped(i),
+					other.durations[i], other.isConfig(i), other.getReportUrl(i));
+			track(index);
+		}
+	}
+
+	@Override
+	public ResultData remove(Object key) {
+		if (!(key instanceof Integer)) {
+			return null;
+		}
+		int index = indexOf((Integer) key);
+		if (index < 0) {
+			return null;
+		}
+		ResultData previous = toResultData(index);
+		removeAt(index);
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		if (reportUrls != null) {
+			Arrays.fill(reportUrls, 0, size, null);
+		}
+		size = 0;
+		flips = 0;
+		decided = 0;
+		meanDuration = 0;
+		squaredDeviations = 0;
+		ewma = 0;
+		ewmaStale = false;
+	}
+
+	@Override
+	public Set<Map.Entry<Integer, ResultData>> entrySet() {
+		return new AbstractSet<Map.Entry<Integer, ResultData>>() {
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public Iterator<Map.Entry<Integer, ResultData>> iterator() {
+				return new Iterator<Map.Entry<Integer, ResultData>>() {
+					private int next;
+					private boolean removable;
+
+					public boolean hasNext() {
+						return next < size;
+					}
+
+					public Map.Entry<Integer, ResultData> next() {
+						if (next >= size) {
+							throw new NoSuchElementException();
+						}
+						removable = true;
+						int index = next++;
+						return new AbstractMap.SimpleImmutableEntry<Integer, ResultData>(builds[index], toResultData(index));
+					}
+
+					public void remove() {
+						if (!removable) {
+							throw new IllegalStateException();
+						}
+						removable = false;
+						removeAt(--next);
+					}
+				};
+			}
+		};
+	}
+
+	private ResultData toResultData(int index) {
+		ResultData result = owner.newResultData(getTotalTests(index), getTotalFailed(index), getTotalPassed(index),
+				getTotalSkipped(index), durations[index], owner.getUrl(builds[index]));
+		result.setConfig(isConfig(index));
+		return result;
+	}
+
+	private void set(int index, int totalTests, int totalFailed, int totalPassed, int totalSkipped, float totalTimeTaken, boolean config, String reportUrl) {
+		ResultStatus status = ResultStatus.of(totalTests, totalFailed, totalSkipped);
+		statuses[index] = (byte) status.ordinal();
+		durations[index] = totalTimeTaken;
+
+		if (counts == null && !isImplied(status, totalTests, totalFailed, totalPassed, totalSkipped)) {
+			counts = new int[builds.length * COUNTS];
+			for (int i = 0; i < size; i++) {
+				if (i != index) {
+					setCounts(i, 1, impliedCount(i, ResultStatus.FAILED), impliedCount(i, ResultStatus.PASSED), impliedCount(i, ResultStatus.SKIPPED));
+				}
+			}
+		}
+		if (counts != null) {
+			setCounts(index, totalTests, totalFailed, totalPassed, totalSkipped);
+		}
+
+		if (config && configs == null) {
+			configs = new boolean[builds.length];
+		}
+		if (configs != null) {
+			configs[index] = config;
+		}
+
+		if (reportUrl != null && reportUrls == null) {
+			reportUrls = new String[builds.length];
+		}
+		if (reportUrls != null) {
+			reportUrls[index] = reportUrl;
+		}
+	}
+
+	private void setCounts(int index, int totalTests, int totalFailed, int totalPassed, int totalSkipped) {
+		counts[index * COUNTS] = totalTests;
+		counts[index * COUNTS + 1] = totalFailed;
+		counts[index * COUNTS + 2] = totalPassed;
+		counts[index * COUNTS + 3] = totalSkipped;
+	}
+
+	private int insert(int index, int buildNumber) {
+		if (size == builds.length) {
+			grow(size + Math.max(2, size >> 1));
+		}
+		int moved = size - index;
+		if (moved > 0) {
+			System.arraycopy(builds, index, builds, index + 1, moved);
+			System.arraycopy(statuses, index, statuses, index + 1, moved);
+			System.arraycopy(durations, index, durations, index + 1, moved);
+			if (counts != null) {
+				System.arraycopy(counts, index * COUNTS, counts, (index + 1) * COUNTS, moved * COUNTS);
+			}
+			if (configs != null) {
+				System.arraycopy(configs, index, configs, index + 1, moved);
+				configs[index] = false;
+			}
+			if (reportUrls != null) {
+				System.arraycopy(reportUrls, index, reportUrls, index + 1, moved);
+				reportUrls[index] = null;
+			}
+		}
+		builds[index] = buildNumber;
+		size++;
+		return index;
+	}
+
+	private void removeAt(int index) {
+		untrack(index);
+		int moved = size - index - 1;
+		if (moved > 0) {
+			System.arraycopy(builds, index + 1, builds, index, moved);
+			System.arraycopy(statuses, index + 1, statuses, index, moved);
+			System.arraycopy(durations, index + 1, durations, index, moved);
+			if (counts != null) {
+				System.arraycopy(counts, (index + 1) * COUNTS, counts, index * COUNTS, moved * COUNTS);
+			}
+			if (configs != null) {
+				System.arraycopy(configs, index + 1, configs, index, moved);
+			}
+			if (reportUrls != null) {
+				System.arraycopy(reportUrls, index + 1, reportUrls, index, moved);
+			}
+		}
+		size--;
+		if (reportUrls != null) {
+			reportUrls[size] = null;
+		}
+	}
+
+	/**
+	 * Counts the flips and the duration a result adds, once it has been stored.
+	 */
+	private void track(int index) {
+		if (!isDecided(index)) {
+			return;
+		}
+		int newer = newerDecided(index);
+		flips += flipDelta(newer, index, olderDecided(index));
+		decided++;
+
+		double duration = durations[index];
+		double deviation = duration - meanDuration;
+		meanDuration += deviation / decided;
+		squaredDeviations += deviation * (duration - meanDuration);
+		if (decided == 1) {
+			ewma = duration;
+			ewmaStale = false;
+		} else if (newer < 0 && !ewmaStale) {
+			ewma = DurationStatistics.EWMA_WEIGHT * duration + (1 - DurationStatistics.EWMA_WEIGHT) * ewma;
+		} else {
+			ewmaStale = true;
+		}
+	}
+
+	/**
+	 * Takes back the flips and the duration of a result, before it is replaced or removed.
+	 */
+	private void untrack(int index) {
+		if (!isDecided(index)) {
+			return;
+		}
+		flips -= flipDelta(newerDecided(index), index, olderDecided(index));
+		decided--;
+
+		if (decided == 0) {
+			meanDuration = 0;
+			squaredDeviations = 0;
+			ewma = 0;
+			ewmaStale = false;
+			return;
+		}
+		double duration = durations[index];
+		double previousMean = meanDuration;
+		meanDuration -= (duration - meanDuration) / decided;
+		squaredDeviations = Math.max(0, squaredDeviations - (duration - meanDuration) * (duration - previousMean));
+		ewmaStale = true;
+	}
+
+	private int flipDelta(int newer, int index, int older) {
+		int delta = 0;
+		if (newer >= 0) {
+			delta += statuses[newer] != statuses[index] ? 1 : 0;
+		}
+		if (older >= 0) {
+			delta += statuses[older] != statuses[index] ? 1 : 0;
+		}
+		if (newer >= 0 && older >= 0) {
+			delta -= statuses[newer] != statuses[older] ? 1 : 0;
+		}
+		return delta;
+	}
+
+	// builds are newest first, so the newer neighbours have lower indexes
+	private int newerDecided(int index) {
+		int newer = index - 1;
+		while (newer >= 0 && !isDecided(newer)) {
+			newer--;
+		}
+		return newer;
+	}
+
+	private int olderDecided(int index) {
+		int older = index + 1;
+		while (older < size && !isDecided(older)) {
+			older++;
+		}
+		return older < size ? older : -1;
+	}
+
+	private boolean isDecided(int index) {
+		return statuses[index] == ResultStatus.PASSED.ordinal() || statuses[index] == ResultStatus.FAILED.ordinal();
+	}
+
+	private void grow(int capacity) {
+		builds = Arrays.copyOf(builds, capacity);
+		statuses = Arrays.copyOf(statuses, capacity);
+		durations = Arrays.copyOf(durations, capacity);
+		if (counts != null) {
+			counts = Arrays.copyOf(counts, capacity * COUNTS);
+		}
+		if (configs != null) {
+			configs = Arrays.copyOf(configs, capacity);
+		}
+		if (reportUrls != null) {
+			reportUrls = Arrays.copyOf(reportUrls, capacity);
+		}
+	}
+
+	private int impliedCount(int index, ResultStatus status) {
+		return statuses[index] == status.ordinal() ? 1 : 0;
+	}
+
+	private static boolean isImplied(ResultStatus status, int totalTests, int totalFailed, int totalPassed, int totalSkipped) {
+		return totalTests == 1
+				&& totalFailed == (status == ResultStatus.FAILED ? 1 : 0)
+				&& totalPassed == (status == ResultStatus.PASSED ? 1 : 0)
+				&& totalSkipped == (status == ResultStatus.SKIPPED ? 1 : 0);
+	}
+}
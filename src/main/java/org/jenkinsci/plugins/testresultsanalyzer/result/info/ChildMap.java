@@ -0,0 +1,32 @@
+package org.jenkinsci.plugins.testresultsanalyzer.result.info;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Children of a node by name. Children added to the map point back to the node, which lets them compute their urls
+ * from the path of safe names instead of storing a url per build.
+ */
+class ChildMap<T extends Info> extends TreeMap<String, T> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient Info parent;
+
+	ChildMap(Info parent) {
+		this.parent = parent;
+	}
+
+	@Override
+	public T put(String name, T child) {
+		child.parent = parent;
+		return super.put(name, child);
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends T> children) {
+		for (Map.Entry<? extends String, ? extends T> child : children.entrySet()) {
+			put(child.getKey(), child.getValue());
+		}
+	}
+}
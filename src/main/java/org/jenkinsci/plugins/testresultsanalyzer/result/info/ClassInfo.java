@@ -4,19 +4,19 @@ import hudson.tasks.test.TabulatedResult;
 import hudson.tasks.test.TestResult;
 
 import java.util.Map;
-import java.util.TreeMap;
 
+import org.jenkinsci.plugins.testresultsanalyzer.result.adapter.ResultAdapter;
 import org.jenkinsci.plugins.testresultsanalyzer.result.data.ClassResultData;
+import org.jenkinsci.plugins.testresultsanalyzer.result.data.ResultData;
 
 public class ClassInfo extends Info {
 
-	private Map<String, TestCaseInfo> tests = new TreeMap<String, TestCaseInfo>();
+	private Map<String, TestCaseInfo> tests = new ChildMap<TestCaseInfo>(this);
 
-	public void putBuildClassResult(Integer buildNumber, TabulatedResult classResult, String url) {
-		ClassResultData classResultData = new ClassResultData(classResult, url);
-
-		addTests(buildNumber, classResult, url);
-		this.buildResults.put(buildNumber, classResultData);
+	public void putBuildClassResult(Integer buildNumber, TabulatedResult classResult, ResultAdapter adapter) {
+		addTests(buildNumber, classResult, adapter);
+		this.buildResults.put(buildNumber, classResult.getTotalCount(), classResult.getFailCount(), classResult.getPassCount(),
+				classResult.getSkipCount(), classResult.getDuration(), false, null);
 	}
 
 	public Map<String, TestCaseInfo> getTests() {
@@ -24,7 +24,7 @@ public class ClassInfo extends Info {
 	}
 	
 
-	private void addTests(Integer buildNumber, TabulatedResult classResult, String url) {
+	private void addTests(Integer buildNumber, TabulatedResult classResult, ResultAdapter adapter) {
 		for (TestResult testCaseResult : classResult.getChildren()) {
 
 			String testCaseName = testCaseResult.getDisplayName();
@@ -35,13 +35,32 @@ public class ClassInfo extends Info {
 			else {
 				testCaseInfo = new TestCaseInfo();
 				testCaseInfo.setName(testCaseName);
+				testCaseInfo.setSafeName(testCaseResult.getSafeName());
 			}
 
-			testCaseInfo.putTestCaseResult(buildNumber, testCaseResult, url + "/" + testCaseResult.getSafeName());
+			testCaseInfo.putTestCaseResult(buildNumber, testCaseResult, adapter);
 			tests.put(testCaseName, testCaseInfo);
 		}
 	}
 
+	public void merge(ClassInfo other, NameTable names) {
+		mergeBuildResults(other);
+		for (TestCaseInfo otherTest : other.tests.values()) {
+			TestCaseInfo testCaseInfo = tests.get(otherTest.getName());
+			if (testCaseInfo == null) {
+				names.internAll(otherTest);
+				tests.put(otherTest.getName(), otherTest);
+			} else {
+				testCaseInfo.merge(otherTest);
+			}
+		}
+	}
+
+	@Override
+	protected ResultData newResultData(int totalTests, int totalFailed, int totalPassed, int totalSkipped, float totalTimeTaken, String url) {
+		return new ClassResultData(getName(), totalTests, totalFailed, totalPassed, totalSkipped, totalTimeTaken, url);
+	}
+
 	@Override
 	public Map<String, TestCaseInfo> getChildren() {
 		return tests;
@@ -0,0 +1,94 @@
+package org.jenkinsci.plugins.testresultsanalyzer.result.info;
+
+/**
+ * Statistics of the durations of the passed and failed results of a node, as kept by {@link BuildResults}: the
+ * number of durations, their mean and sample variance, and their exponentially weighted moving average, which
+ * follows recent builds more closely than the mean.
+ */
+public final class DurationStatistics {
+
+	/**
+	 * Weight of the newest duration in the moving average.
+	 */
+	public static final double EWMA_WEIGHT = 0.3;
+
+	private final int count;
+	private final double mean;
+	private final double squaredDeviations;
+	private final double ewma;
+
+	DurationStatistics(int count, double mean, double squaredDeviations, double ewma) {
+		this.count = count;
+		this.mean = mean;
+		this.squaredDeviations = squaredDeviations;
+		this.ewma = ewma;
+	}
+
+	/**
+	 * Computes the statistics of some durations, such as those of a window of builds.
+	 *
+	 * @param durations the durations in seconds, newest build first
+	 * @param from the index of the newest duration to use
+	 * @param to the index after the oldest duration to use
+	 * @return the statistics of the durations
+	 */
+	public static DurationStatistics of(double[] durations, int from, int to) {
+		int count = 0;
+		double mean = 0;
+		double squaredDeviations = 0;
+		double ewma = 0;
+		for (int i = to - 1; i >= from; i--) {
+			count++;
+			double delta = durations[i] - mean;
+			mean += delta / count;
+			squaredDeviations += delta * (durations[i] - mean);
+			ewma = count == 1 ? durations[i] : EWMA_WEIGHT * durations[i] + (1 - EWMA_WEIGHT) * ewma;
+		}
+		return new DurationStatistics(count, mean, squaredDeviations, ewma);
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean duration in seconds, 0 if there are no durations
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return the sample variance of the durations, 0 if there are less than two
+	 */
+	public double getVariance() {
+		return count > 1 ? Math.max(0, squaredDeviations / (count - 1)) : 0;
+	}
+
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * @return the moving average of the durations, oldest build first, 0 if there are no durations
+	 */
+	public double getEwma() {
+		return ewma;
+	}
+
+	/**
+	 * The statistics before the newest duration was added, the baseline to compare that duration with.
+	 *
+	 * @param newest the newest duration
+	 * @return the statistics of the other durations
+	 */
+	public DurationStatistics withoutNewest(double newest) {
+		if (count <= 1) {
+			return new DurationStatistics(0, 0, 0, 0);
+		}
+		double previousMean = (count * mean - newest) / (count - 1);
+		double previousEwma = (ewma - EWMA_WEIGHT * newest) / (1 - EWMA_WEIGHT);
+		return new DurationStatistics(count - 1, previousMean, squaredDeviations - (newest - previousMean) * (newest - mean),
+				previousEwma);
+	}
+}
@@ -2,15 +2,16 @@ package org.jenkinsci.plugins.testresultsanalyzer.result.info;
 
 import org.jenkinsci.plugins.testresultsanalyzer.result.data.ResultData;
 
-import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.TreeMap;
 
 public abstract class Info {
 
-	protected String name;
+	private String name;
+	private String safeName;
+	protected Info parent;
 	protected boolean isConfig = false;
-	protected Map<Integer, ResultData> buildResults = new TreeMap<Integer, ResultData>(Collections.<Integer>reverseOrder());
+	protected BuildResults buildResults = new BuildResults(this);
 
 	public String getName() {
 		return name;
@@ -20,20 +21,138 @@ public abstract class Info {
 		this.name = name;
 	}
 
+	public String getSafeName() {
+		return safeName;
+	}
+
+	/**
+	 * Sets the name used in urls, which is usually the name itself and then shares its instance.
+	 */
+	public void setSafeName(String safeName) {
+		this.safeName = safeName != null && safeName.equals(name) ? name : safeName;
+	}
+
+	/**
+	 * @return the node this one is a child of, or null for packages
+	 */
+	public Info getParent() {
+		return parent;
+	}
+
+	/**
+	 * @return the names of this node and its ancestors joined by dots, starting with the package
+	 */
+	public String getFullName() {
+		StringBuilder path = new StringBuilder(getName());
+		for (Info node = parent; node != null; node = node.getParent()) {
+			path.insert(0, '.').insert(0, node.getName());
+		}
+		return path.toString();
+	}
+
 	public Map<Integer, ResultData> getBuildPackageResults() {
 		return buildResults;
 	}
 
+	/**
+	 * The build results of this node in their columnar form, for scans which should not create a
+	 * {@link ResultData} per result.
+	 *
+	 * @return the build results
+	 */
+	public BuildResults getResults() {
+		return buildResults;
+	}
+
 	public ResultData getBuildResult(Integer buildNumber) {
 		return buildResults.get(buildNumber);
 	}
 
 	public void setBuildPackageResults(Map<Integer, ResultData> buildResults) {
-		this.buildResults = buildResults;
+		this.buildResults = new BuildResults(this);
+		this.buildResults.putAll(buildResults);
+	}
+
+	/**
+	 * Computes the url of the result of a build from the report url of the package and the safe names of the nodes
+	 * on the way to this one. Urls are not stored per build.
+	 *
+	 * @param buildNumber the build
+	 * @return the url, or null if the package of this node has no result of the build
+	 */
+	public String getUrl(int buildNumber) {
+		StringBuilder url = new StringBuilder(128);
+		return appendUrl(url, buildNumber) ? url.toString() : null;
+	}
+
+	protected boolean appendUrl(StringBuilder url, int buildNumber) {
+		if (parent == null || !parent.appendUrl(url, buildNumber)) {
+			return false;
+		}
+		url.append('/').append(getSafeName());
+		return true;
 	}
 
+	/**
+	 * Extracts the part of a result url which is stored per build, used when results are added as {@link ResultData}.
+	 *
+	 * @param url the url of a result of this node
+	 * @return the report url of the build, or null if this kind of node does not store one
+	 */
+	protected String toReportUrl(String url) {
+		return null;
+	}
+
+	/**
+	 * Creates the result data of this kind of node, used when results are read from {@link BuildResults}.
+	 */
+	protected abstract ResultData newResultData(int totalTests, int totalFailed, int totalPassed, int totalSkipped, float totalTimeTaken, String url);
+
 	public abstract Map<String, ? extends Info> getChildren();
 
+	protected void mergeBuildResults(Info other) {
+		buildResults.putAll(other.buildResults);
+		setConfig(other.isConfig());
+	}
+
+	/**
+	 * Drops the result of the given build from this node and its children. Children which are left without any
+	 * build result are removed from the tree.
+	 *
+	 * @param buildNumber the build to drop
+	 */
+	public void removeBuild(Integer buildNumber) {
+		buildResults.remove(buildNumber);
+		Map<String, ? extends Info> children = getChildren();
+		if (children == null) {
+			return;
+		}
+		Iterator<? extends Info> iterator = children.values().iterator();
+		while (iterator.hasNext()) {
+			Info child = iterator.next();
+			child.removeBuild(buildNumber);
+			if (child.getBuildPackageResults().isEmpty()) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Counts the build results held by this node and all of its children.
+	 *
+	 * @return the number of build results
+	 */
+	public int getResultCount() {
+		int count = buildResults.size();
+		Map<String, ? extends Info> children = getChildren();
+		if (children != null) {
+			for (Info child : children.values()) {
+				count += child.getResultCount();
+			}
+		}
+		return count;
+	}
+
 	public boolean isConfig() {
 		return isConfig;
 	}
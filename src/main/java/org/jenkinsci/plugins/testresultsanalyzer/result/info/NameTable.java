@@ -0,0 +1,52 @@
+package org.jenkinsci.plugins.testresultsanalyzer.result.info;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Names of the packages, classes and test cases of one result tree. The same names show up in many builds and often
+ * in many classes of a job, so the nodes of a tree share one instance per name. The table belongs to its
+ * {@link ResultInfo} and is dropped with it, and like the tree it is only changed by one thread at a time.
+ * <p>
+ * Names of nodes which were pruned from the tree stay in the table until the tree is loaded again.
+ */
+public final class NameTable {
+
+	private final Map<String, String> names = new HashMap<String, String>();
+
+	/**
+	 * @param name a name
+	 * @return the instance of the name shared by the tree, or null for null
+	 */
+	public String intern(String name) {
+		if (name == null) {
+			return null;
+		}
+		String shared = names.get(name);
+		if (shared == null) {
+			names.put(name, name);
+			shared = name;
+		}
+		return shared;
+	}
+
+	/**
+	 * Switches a node and its children, which are about to be adopted by the tree, to the shared names.
+	 *
+	 * @param info the root of the adopted nodes
+	 */
+	void internAll(Info info) {
+		info.setName(intern(info.getName()));
+		info.setSafeName(intern(info.getSafeName()));
+		Map<String, ? extends Info> children = info.getChildren();
+		if (children != null) {
+			for (Info child : children.values()) {
+				internAll(child);
+			}
+		}
+	}
+
+	public int size() {
+		return names.size();
+	}
+}
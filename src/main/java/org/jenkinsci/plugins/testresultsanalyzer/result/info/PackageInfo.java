@@ -2,21 +2,26 @@ package org.jenkinsci.plugins.testresultsanalyzer.result.info;
 
 import hudson.tasks.test.TabulatedResult;
 import hudson.tasks.test.TestResult;
+import org.jenkinsci.plugins.testresultsanalyzer.result.adapter.ResultAdapter;
 import org.jenkinsci.plugins.testresultsanalyzer.result.data.PackageResultData;
 import org.jenkinsci.plugins.testresultsanalyzer.result.data.ResultData;
 
 import java.util.Map;
-import java.util.TreeMap;
 
 public class PackageInfo extends Info {
 
-	protected Map<String, ClassInfo> classes = new TreeMap<String, ClassInfo>();
+	protected Map<String, ClassInfo> classes = new ChildMap<ClassInfo>(this);
 
-	public void putPackageResult(Integer buildNumber, TabulatedResult packageResult, String url) {
-		PackageResultData packageResultData = new PackageResultData(packageResult, url);
-
-		addClasses(buildNumber, packageResult, url);
-		this.buildResults.put(buildNumber, packageResultData);
+	/**
+	 * Adds the results of a package and its classes and tests for a build.
+	 *
+	 * @param reportUrl the url of the test results of the build, the urls of all results are computed from it
+	 * @param adapter the adapter of the report the package belongs to
+	 */
+	public void putPackageResult(Integer buildNumber, TabulatedResult packageResult, String reportUrl, ResultAdapter adapter) {
+		addClasses(buildNumber, packageResult, adapter);
+		this.buildResults.put(buildNumber, packageResult.getTotalCount(), packageResult.getFailCount(), packageResult.getPassCount(),
+				packageResult.getSkipCount(), packageResult.getDuration(), false, reportUrl);
 	}
 
 	public ResultData getPackageResult(Integer buildNumber) {
@@ -30,7 +35,7 @@ public class PackageInfo extends Info {
 		return classes;
 	}
 
-	public void addClasses(Integer buildNumber, TabulatedResult packageResult, String url) {
+	public void addClasses(Integer buildNumber, TabulatedResult packageResult, ResultAdapter adapter) {
 		for (TestResult classResult : packageResult.getChildren()) {
 			String className = classResult.getName();
 			ClassInfo classInfo;
@@ -40,12 +45,54 @@ public class PackageInfo extends Info {
 			else {
 				classInfo = new ClassInfo();
 				classInfo.setName(className);
+				classInfo.setSafeName(classResult.getSafeName());
 			}
-			classInfo.putBuildClassResult(buildNumber, (TabulatedResult) classResult, url + "/" + classResult.getSafeName());
+			classInfo.putBuildClassResult(buildNumber, (TabulatedResult) classResult, adapter);
 			classes.put(className, classInfo);
 		}
 	}
 
+	/**
+	 * Merges the results of another tree for the same package into this one.
+	 *
+	 * @param other the package results to merge, its class nodes may be adopted by this package
+	 * @param names the names shared by the tree of this package, adopted nodes are switched to them
+	 */
+	public void merge(PackageInfo other, NameTable names) {
+		mergeBuildResults(other);
+		for (ClassInfo otherClass : other.classes.values()) {
+			ClassInfo classInfo = classes.get(otherClass.getName());
+			if (classInfo == null) {
+				names.internAll(otherClass);
+				classes.put(otherClass.getName(), otherClass);
+			} else {
+				classInfo.merge(otherClass, names);
+			}
+		}
+	}
+
+	@Override
+	protected boolean appendUrl(StringBuilder url, int buildNumber) {
+		int index = buildResults.indexOf(buildNumber);
+		String reportUrl = index >= 0 ? buildResults.getReportUrl(index) : null;
+		if (reportUrl == null) {
+			return false;
+		}
+		url.append(reportUrl).append('/').append(getSafeName());
+		return true;
+	}
+
+	@Override
+	protected String toReportUrl(String url) {
+		String suffix = "/" + getSafeName();
+		return url != null && url.endsWith(suffix) ? url.substring(0, url.length() - suffix.length()) : url;
+	}
+
+	@Override
+	protected ResultData newResultData(int totalTests, int totalFailed, int totalPassed, int totalSkipped, float totalTimeTaken, String url) {
+		return new PackageResultData(getName(), totalTests, totalFailed, totalPassed, totalSkipped, totalTimeTaken, url);
+	}
+
 	@Override
 	public Map<String, ClassInfo> getChildren() {
 		return classes;
@@ -2,12 +2,18 @@ package org.jenkinsci.plugins.testresultsanalyzer.result.info;
 
 import hudson.tasks.test.TabulatedResult;
 
+import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
 
+import org.jenkinsci.plugins.testresultsanalyzer.result.adapter.ResultAdapter;
+
 public class ResultInfo {
 
-	private Map<String, PackageInfo> packageResults = new TreeMap<String, PackageInfo>();
+	private TreeMap<String, PackageInfo> packageResults = new TreeMap<String, PackageInfo>();
+	private final transient NameTable names = new NameTable();
+	private transient String lastRunUrl;
+	private transient String lastReportUrl;
 
 	public void addPackage(Integer buildNumber, TabulatedResult packageResult, String url) {
 		String packageName = packageResult.getName();
@@ -18,21 +24,84 @@ public class ResultInfo {
 		else {
 			packageInfo = new PackageInfo();
 			packageInfo.setName(packageName);
+			packageInfo.setSafeName(packageResult.getSafeName());
 		}
-		packageInfo.putPackageResult(buildNumber, packageResult, url + getResultUrl(packageResult) +"/" + packageResult.getSafeName());
+		ResultAdapter adapter = ResultAdapter.forResult(packageResult);
+		packageInfo.putPackageResult(buildNumber, packageResult, getReportUrl(url, adapter.getReportUrlName()), adapter);
 		packageResults.put(packageName, packageInfo);
 	}
 
+	/**
+	 * Returns the report url of a package, reusing the one of the previous package of the same run.
+	 */
+	private String getReportUrl(String runUrl, String resultUrl) {
+		if (lastReportUrl == null || !runUrl.equals(lastRunUrl) || !lastReportUrl.endsWith(resultUrl)
+				|| lastReportUrl.length() != runUrl.length() + resultUrl.length()) {
+			lastRunUrl = runUrl;
+			lastReportUrl = runUrl + resultUrl;
+		}
+		return lastReportUrl;
+	}
+
+	/**
+	 * Merges another result tree, usually holding the results of a single build, into this one.
+	 *
+	 * @param other the results to merge, its nodes may be adopted by this tree and then share its names
+	 */
+	public void merge(ResultInfo other) {
+		for (PackageInfo otherPackage : other.packageResults.values()) {
+			PackageInfo packageInfo = packageResults.get(otherPackage.getName());
+			if (packageInfo == null) {
+				names.internAll(otherPackage);
+				packageResults.put(otherPackage.getName(), otherPackage);
+			} else {
+				packageInfo.merge(otherPackage, names);
+			}
+		}
+	}
+
+	/**
+	 * @return the names shared by the nodes of this tree
+	 */
+	public NameTable getNames() {
+		return names;
+	}
+
+	public void removeBuild(Integer buildNumber) {
+		Iterator<PackageInfo> iterator = packageResults.values().iterator();
+		while (iterator.hasNext()) {
+			PackageInfo packageInfo = iterator.next();
+			packageInfo.removeBuild(buildNumber);
+			if (packageInfo.getBuildPackageResults().isEmpty()) {
+				iterator.remove();
+			}
+		}
+	}
+
+	public int getResultCount() {
+		int count = 0;
+		for (PackageInfo packageInfo : packageResults.values()) {
+			count += packageInfo.getResultCount();
+		}
+		return count;
+	}
+
 	public Map<String, PackageInfo> getPackageResults() {
 		return this.packageResults;
 	}
 
+	/**
+	 * Looks up the package following another one in name order, for walking the packages while they change.
+	 *
+	 * @param packageName the name of the previous package, null for the first package
+	 * @return the package, or null if there is no package after the given one
+	 */
+	public PackageInfo getPackageAfter(String packageName) {
+		Map.Entry<String, PackageInfo> entry = packageName == null ? packageResults.firstEntry() : packageResults.higherEntry(packageName);
+		return entry != null ? entry.getValue() : null;
+	}
+
 	protected String getResultUrl(TabulatedResult result){
-		boolean isTestng = result.getClass().getName().startsWith("hudson.plugins.testng.results");
-		if(isTestng){
-			return "testngreports";
-		} else {
-			return "testReport";
-		}
+		return ResultAdapter.forResult(result).getReportUrlName();
 	}
 }
@@ -1,16 +1,49 @@
 package org.jenkinsci.plugins.testresultsanalyzer.result.info;
 
 import hudson.tasks.test.TestResult;
+import org.jenkinsci.plugins.testresultsanalyzer.result.adapter.ResultAdapter;
+import org.jenkinsci.plugins.testresultsanalyzer.result.data.ResultData;
 import org.jenkinsci.plugins.testresultsanalyzer.result.data.TestCaseResultData;
 
 import java.util.Map;
 
 public class TestCaseInfo extends Info {
 
-	public void putTestCaseResult(Integer buildNumber, TestResult testCaseResult, String url) {
-		TestCaseResultData testCaseResultData = new TestCaseResultData(testCaseResult, url);
-		setConfig(testCaseResultData.isConfig());
-		this.buildResults.put(buildNumber, testCaseResultData);
+	public void putTestCaseResult(Integer buildNumber, TestResult testCaseResult, ResultAdapter adapter) {
+		adapter.putTestCaseResult(buildResults, buildNumber, testCaseResult);
+		setConfig(buildResults.isConfig(buildResults.indexOf(buildNumber)));
+	}
+
+	public void merge(TestCaseInfo other) {
+		mergeBuildResults(other);
+	}
+
+	/**
+	 * @return how often the test changed between passed and failed over the builds it holds, see
+	 *         {@link BuildResults#getFlips()}
+	 */
+	public int getFlips() {
+		return buildResults.getFlips();
+	}
+
+	/**
+	 * @return the share of the builds in which the test flipped, see {@link BuildResults#getFlipRate()}
+	 */
+	public double getFlipRate() {
+		return buildResults.getFlipRate();
+	}
+
+	/**
+	 * @return the statistics of the durations of the test over the builds it holds, see
+	 *         {@link BuildResults#getDurationStatistics()}
+	 */
+	public DurationStatistics getDurationStatistics() {
+		return buildResults.getDurationStatistics();
+	}
+
+	@Override
+	protected ResultData newResultData(int totalTests, int totalFailed, int totalPassed, int totalSkipped, float totalTimeTaken, String url) {
+		return new TestCaseResultData(getName(), totalTests, totalFailed, totalPassed, totalSkipped, totalTimeTaken, url);
 	}
 
 	@Override
@@ -1,6 +1,7 @@
 
 
 var chartResult;
+var chartRequest = 0;
 
 var statusColors = {
     "passed" :"#92D050",
@@ -11,16 +12,27 @@ var statusColors = {
     "na" :""
 };
 function generateChart(chartType) {
-    var finalResult = {};
-
     if($j("#tree input[type='checkbox']").size() == 0) {
         $j("#linechart").html("No build data retrieved.  You may need to select a Module.");
         return;
     }
     if(reevaluateChartData){
-        chartResult = getChartData(getSelectedRows(), chartType.type);
+        // the series are summed up by the server, see TestResultsAnalyzerAction.getChartSeries
         reevaluateChartData = false;
+        var request = ++chartRequest;
+        remoteAction.getChartSeries(getUserConfig(), getSelectedKeys(), function(t) {
+            if (request != chartRequest) {
+                return; // the selection changed in the meantime
+            }
+            chartResult = toChartResult(t.responseObject());
+            drawCharts(chartType);
+        });
+        return;
     }
+    drawCharts(chartType);
+}
+
+function drawCharts(chartType) {
     resetCharts();
 
     if(chartType.type === "runtime") {
@@ -95,49 +107,18 @@ function generateRuntimeLineChart() {
 }
 
 function generateRuntimePieChart(inputData) {
-    var pieChartResult = getChartData(getTestRows(), "runtime");
-    var buildNumber = inputData == undefined ? Object.keys(pieChartResult).pop() : inputData;
+    var buildNumber = inputData == undefined ? Object.keys(chartResult).pop() : inputData;
     var resultTitle = "Tests runtime details for " + buildNumber;
-
-    var slow = 0;
-    var medi = 0;
-    var fast = 0;
-
-    var runtimeArray = pieChartResult[buildNumber]["RuntimeArray"];
-    var lowThreshold = parseFloat(runtimeLowThreshold);
-    var highThreshold = parseFloat(runtimeHighThreshold);
-
-    runtimeArray.each(function (time) {
-        if (time < lowThreshold) {
-            fast++;
-        } else if (time >= highThreshold) {
-            slow++;
-        } else {
-            medi++;
-        }
-    });
+    var buildResult = chartResult[buildNumber];
 
     inputData = [
-        ['fast', fast],
-        ['slow', slow],
-        ['medium', medi]
+        ['fast', buildResult["Fast"]],
+        ['slow', buildResult["Slow"]],
+        ['medium', buildResult["Medium"]]
     ];
     $j("#piechart").highcharts(getRuntimePieChartConfig(inputData, resultTitle))
 }
 
-function getTestRows() {
-    var $testRows = $j($j("#tree .table-row").filter(function (index, elem) {
-        return !($j($j(elem).children().get(2)).children().length > 0);
-    }));
-    var isSomethingChecked = $j("#tree").find(":checked").length > 0;
-    if (isSomethingChecked) {
-        $testRows = $testRows.filter(function (index, elem) {
-            return $j(elem).find(":checked").length > 0;
-        });
-    }
-    return $testRows;
-}
-
 function getRuntimeLineChartConfig(chartCategories, chartData) {
     var seriesVar = [
         {
@@ -311,60 +292,35 @@ function generatePieChart(inputData, resultTitle){
     $j(function () {$j("#piechart").highcharts(getPieChartConfig(inputData,resultTitle))})
 }
 
-function getChartData(selectedRows, type) {
-    var chartResult = {};
-    var baseRows;
-
-    if(selectedRows.size() > 0) {
-        baseRows = selectedRows;
-    } else {
-        baseRows = $j('[hierarchyLevel="0"]');
+// Turns the series of the server into one object per build, keyed by build number.
+function toChartResult(series) {
+    var result = {};
+    for (var i = 0; i < series.builds.length; i++) {
+        result[series.builds[i]] = {
+            "Failed": series.failed[i],
+            "Skipped": series.skipped[i],
+            "Passed": series.passed[i],
+            "Total": series.total[i],
+            "Runtime": series.runtime[i],
+            "Fast": series.fast[i],
+            "Medium": series.medium[i],
+            "Slow": series.slow[i]
+        };
     }
+    return result;
+}
 
-    $j.each(baseRows, function(index, baseRow) {
-        var buildResults = $j(baseRow).find(".build-result.table-cell");
-        $j.each(buildResults, function(index, buildResult){
-            var jsonResult = $j.parseJSON($j(buildResult).attr("data-result"));
-            var buildNumber = jsonResult["buildNumber"];
-
-            if (type == "runtime") {
-                var tempBuildResult = {
-                    "Runtime" : jsonResult["totalTimeTaken"] ? jsonResult["totalTimeTaken"] : 0,
-                    "RuntimeArray": jsonResult["totalTimeTaken"] !== undefined ? [jsonResult["totalTimeTaken"]] : []
-                }
-                if (chartResult[buildNumber]) {
-                    var tempChartBuildResult = chartResult[buildNumber];
-                    var result = {
-                        "Runtime": tempChartBuildResult["Runtime"] + tempBuildResult["Runtime"],
-                        "RuntimeArray": tempChartBuildResult["RuntimeArray"].concat(tempBuildResult["RuntimeArray"])
-                    }
-                    chartResult[buildNumber] = result;
-                } else {
-                    chartResult[buildNumber] = tempBuildResult;
-                }
-            } else {
-                var tempBuildResult = {
-                    "Failed" :   jsonResult["totalFailed"] ? jsonResult["totalFailed"] : 0,
-                    "Skipped" :   jsonResult["totalSkipped"] ? jsonResult["totalSkipped"] : 0,
-                    "Passed" :   jsonResult["totalPassed"] ? jsonResult["totalPassed"] : 0,
-                    "Total" :   jsonResult["totalTests"] ? jsonResult["totalTests"] : 0
-                };
-                if(chartResult[buildNumber]) {
-                    var tempChartBuildResult = chartResult[buildNumber];
-                    var result = {
-                        "Failed": tempChartBuildResult["Failed"] + tempBuildResult["Failed"],
-                        "Skipped": tempChartBuildResult["Skipped"] + tempBuildResult["Skipped"],
-                        "Passed": tempChartBuildResult["Passed"] + tempBuildResult["Passed"],
-                        "Total": tempChartBuildResult["Total"] + tempBuildResult["Total"]
-                    }
-                    chartResult[buildNumber] = result;
-                } else {
-                    chartResult[buildNumber] = tempBuildResult;
-                }
-            }
+// The keys of the topmost checked rows. The paged table tracks them itself since most rows are not in the page.
+function getSelectedKeys() {
+    if (pagedTable != null) {
+        return Object.keys(pagedTable.checked).filter(function(key) {
+            var parentKey = getParentKey(key);
+            return pagedTable.checked[key] && (parentKey == null || !isRowChecked(parentKey));
         });
+    }
+    return $j.map(getSelectedRows(), function(row) {
+        return $j(row).attr("data-key");
     });
-    return chartResult;
 }
 
 function getSelectedRows(){
@@ -1,9 +1,12 @@
-var tableContent = '<div class="table-row" name = "{{addName text}}" ' +
+var tableContent = '<div class="table-row" name = "{{addName text}}" data-key="{{key}}" ' +
                          '{{#if hierarchyLevel}}' +
                             'hierarchyLevel="{{hierarchyLevel}}" style="display:none"' +
                          '{{else}}' +
                             'hierarchyLevel="0"' +
                          '{{/if}}' +
+                         '{{#if hasChildren}}' +
+                            ' data-lazy=\'{{JSON2string path}}\'' +
+                         '{{/if}}' +
                    '>' +
     '\n' + '         ' +
     '\n' + '         ' +
@@ -15,12 +18,15 @@ var tableContent = '<div class="table-row" name = "{{addName text}}" ' +
     '>' +
         '{{#if children}}' +
             '<span class="icon icon-plus-sign" title="Show Children"></span> ' +
-        '{{/if}}' +
+        '{{else}}{{#if hasChildren}}' +
+            '<span class="icon icon-plus-sign" title="Show Children"></span> ' +
+        '{{/if}}{{/if}}' +
         '<span class="{{failureIconWhenNecessary buildResults}}" title="New Failure" ></span>' +
         '&nbsp;{{text}}</span>' +
     '</div>' +
     '\n' + '<div class="table-cell" title="Builds (Tests)">{{percentPassed buildResults}}</div> ' +
     '\n' + '<div class="table-cell" title="Number of transitions from passed to failed and failed to passed.">{{numberTransitions buildResults}}</div> ' +
+    '\n' + '<div class="table-cell" title="Share of the shown builds in which the result changed between passed and failed.">{{flipRate flipRate}}</div> ' +
     '{{#each this.buildResults}}' +
     '\n' + '         <div class="table-cell build-result {{applystatus status}}" data-result=\'{{JSON2string this}}\' ' +
                           'title="Build {{buildNumber}}"><a href="{{url}}">{{applyvalue status totalTimeTaken}}</a></div>' +
@@ -31,25 +37,60 @@ var tableContent = '<div class="table-row" name = "{{addName text}}" ' +
     '\n' + '{{> tableBodyTemplate this}}' +
     '{{/each}}';
 
+// a row of the paged table, see TestResultsAnalyzerAction.getTreeRows
+var pagedRowContent = '<div class="table-row" hierarchyLevel="{{hierarchyLevel}}" data-key="{{key}}">' +
+    '\n' + '         <div class="table-cell"><input type="checkbox"/></div> ' +
+    ' <div class="name row-heading table-cell" style="padding-left:{{addspaces hierarchyLevel}}em;">' +
+        '{{#if hasChildren}}' +
+            '{{#if expanded}}' +
+                '<span class="icon icon-minus-sign" title="Hide Children"></span> ' +
+            '{{else}}' +
+                '<span class="icon icon-plus-sign" title="Show Children"></span> ' +
+            '{{/if}}' +
+        '{{/if}}' +
+        '<span class="{{failureIconWhenNecessary buildResults}}" title="New Failure" ></span>' +
+        '&nbsp;{{text}}' +
+    '</div>' +
+    '\n' + '<div class="table-cell" title="Builds (Tests)">{{percentPassed buildResults}}</div> ' +
+    '\n' + '<div class="table-cell" title="Number of transitions from passed to failed and failed to passed.">{{numberTransitions buildResults}}</div> ' +
+    '\n' + '<div class="table-cell" title="Share of the shown builds in which the result changed between passed and failed.">{{flipRate flipRate}}</div> ' +
+    '{{#each this.buildResults}}' +
+    '\n' + '         <div class="table-cell build-result {{applystatus status}}" data-result=\'{{JSON2string this}}\' ' +
+                          'title="Build {{buildNumber}}"><a href="{{url}}">{{applyvalue status totalTimeTaken}}</a></div>' +
+    '{{/each}}' +
+    '\n' + '</div>';
+
 var worstTestsTableContent = '<div class="worst-tests-table-row">' +
-    '\n' + '         <div class="table-cell row-heading">{{k}}</div>' +
-    '\n' + '         <div class="table-cell build-result">{{v.length}}</div>' +
-    '\n' + '         <div class="table-cell build-result">{{{buildLinks v}}}</div>' +
+    '\n' + '         <div class="table-cell row-heading">{{name}}</div>' +
+    '\n' + '         <div class="table-cell build-result" title="Failed in {{failures}} of {{runs}} builds, {{streak}} in a row">{{failures}}</div>' +
+    '\n' + '         <div class="table-cell build-result">{{{buildLinks builds}}}</div>' +
     '</div>'
 
-var tableBody = '<div class="heading">' +
+var tableHeading = '<div class="heading">' +
     '\n' + '        <div class="table-cell">Chart</div> ' +
     '<div class="table-cell">Package/Class/Testmethod</div>' +
     ' <div class="table-cell">Passed</div> ' +
     ' <div class="table-cell" title="Number of transitions from passed to failed and failed to passed.">Transitions</div> ' +
+    ' <div class="table-cell sortable" title="Share of the shown builds in which the result changed between passed and failed. Click to sort by it." ' +
+        'onclick="toggleFlakinessSort()">Flip rate{{#if sortByFlakiness}} &#9660;{{/if}}</div> ' +
     '{{#each builds}}' +
     '\n' + '         <div class="table-cell" title="Build {{this}}">{{this}}</div>' +
     '{{/each}}' +
-    '\n' + '      </div>' +
+    '\n' + '      </div>';
+
+var tableBody = '{{> tableHeadingTemplate}}' +
     '{{#each results}}' +
     '{{> tableBodyTemplate}}' +
     '\n' + '{{/each}}';
 
+// the spacers stand in for the rows outside of the window, their heights are set once the rows are measured
+var pagedTableBody = '{{> tableHeadingTemplate}}' +
+    '<div class="paged-spacer paged-spacer-before"></div>' +
+    '{{#each rows}}' +
+    '{{> pagedRowTemplate}}' +
+    '\n' + '{{/each}}' +
+    '<div class="paged-spacer paged-spacer-after"></div>';
+
 var worstTestsTableBody = '<h2 align="center">Top 10 Most Broken Tests</h2>' +
     '\n' + '{{#if this.length}}' +
     '<div class=table>' +
@@ -66,6 +107,14 @@ var worstTestsTableBody = '<h2 align="center">Top 10 Most Broken Tests</h2>' +
     '\n' + '<p>There are no failing tests</p>' +
     '\n' + '{{/if}}';
 
+// statuses are sent as ResultStatus ordinals, statusTable holds the names of the current response
+var STATUS_PASSED = 0;
+var STATUS_FAILED = 1;
+var STATUS_SKIPPED = 2;
+var STATUS_NA = 3;
+var statusClasses = ["passed", "failed", "skipped", "no_status"];
+var statusTable = [];
+
 function removeSpecialChars(name){
     var modName = "";
     //modName = name.split('.').join('_');
@@ -73,7 +122,9 @@ function removeSpecialChars(name){
     return modName;
 }
 
+Handlebars.registerPartial("tableHeadingTemplate", tableHeading);
 Handlebars.registerPartial("tableBodyTemplate", tableContent);
+Handlebars.registerPartial("pagedRowTemplate", pagedRowContent);
 Handlebars.registerPartial("worstTestsTableBodyTemplate", worstTestsTableContent);
 
 Handlebars.registerHelper('JSON2string', function (object) {
@@ -97,40 +148,13 @@ Handlebars.registerHelper('applyvalue', function (status, totalTimeTaken) {
     if (displayValues == true){
         return isNaN(totalTimeTaken) ? 'N/A' : totalTimeTaken.toFixed(3) ;
     }else{
-        var cs = "";
-        switch (status) {
-            case "FAILED":
-                cs = customStatuses['FAILED'];
-                break;
-            case "PASSED":
-                cs = customStatuses['PASSED'];
-                break;
-            case "SKIPPED":
-                cs = customStatuses['SKIPPED'];
-                break;
-            case "N/A":
-                cs = customStatuses['N/A'];
-                break;
-        }
-        return cs;
+        return statusTable[status] ? statusTable[status].name : "";
     }
 });
 
 
 Handlebars.registerHelper('applystatus', function (status) {
-    var statusClass = "no_status";
-    switch (status) {
-        case "FAILED":
-            statusClass = "failed";
-            break;
-        case "PASSED":
-            statusClass = "passed";
-            break;
-        case "SKIPPED":
-            statusClass = "skipped";
-            break;
-    }
-    return statusClass;
+    return statusClasses[status] || "no_status";
 });
 
 Handlebars.registerHelper('addspaces', function (hierarchyLevel) {
@@ -161,8 +185,8 @@ Handlebars.registerHelper('failureIconWhenNecessary', function (buildResults) {
         return '';
     }
 
-    if (buildResults[0].status == "FAILED" &&
-        buildResults[1].status == "PASSED") {
+    if (buildResults[0].status == STATUS_FAILED &&
+        buildResults[1].status == STATUS_PASSED) {
         return 'icon icon-exclamation-sign';
     } else {
         return '';
@@ -177,7 +201,7 @@ Handlebars.registerHelper('percentPassed', function (buildResults) {
 
     var buildResultsLength = buildResults.length;
     for (var i = 0; i < buildResultsLength; ++i) {
-        if (buildResults[i].status == "N/A") {
+        if (buildResults[i].status == STATUS_NA) {
             continue;
         }
 
@@ -201,6 +225,11 @@ Handlebars.registerHelper('percentPassed', function (buildResults) {
         "% (" + Math.round(100.0 * testsPassed / totalTests) + "%)";
 });
 
+// the flip rate is kept by the server as builds are added, see BuildResults.getFlipRate
+Handlebars.registerHelper('flipRate', function (flipRate) {
+    return Math.round(100.0 * (flipRate || 0)) + "%";
+});
+
 Handlebars.registerHelper('numberTransitions', function (buildResults) {
     var hasPrevious = false;
     var peviousPassed = false;
@@ -209,7 +238,7 @@ Handlebars.registerHelper('numberTransitions', function (buildResults) {
     var it = buildResults.length;
     while (--it >= 0) {
         var build = buildResults[it];
-        if (build.status == "N/A") {
+        if (build.status == STATUS_NA) {
             continue;
         }
 
@@ -240,4 +269,6 @@ Handlebars.registerHelper('numberTransitions', function (buildResults) {
 });
 
 var analyzerTemplate = Handlebars.compile(tableBody),
+    analyzerPagedTemplate = Handlebars.compile(pagedTableBody),
+    analyzerRowsTemplate = Handlebars.compile('{{#each this}}{{> tableBodyTemplate}}{{/each}}'),
     analyzerWorstTestsTemplate = Handlebars.compile(worstTestsTableBody);
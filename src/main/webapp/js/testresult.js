@@ -1,6 +1,13 @@
 var colTemplate = "{'cellClass':'col1','value':'build20','header':'20','title':'20'}";
 var reevaluateChartData = true;
 var displayValues = false;
+var oldestLoadedBuild = 0;
+var pagedTable = null;
+var PAGED_ROW_OVERSCAN = 50;
+var SEARCH_DELAY = 300;
+var SEARCH_LIMIT = 500;
+var WORST_TESTS_COUNT = 10;
+var sortByFlakiness = false;
 
 function clearedFilter(rows) {
     var levelsToShow = [0]; // stack to keep track of hierarchy
@@ -41,6 +48,10 @@ function applyFilter(rows, filter) {
 }
 
 function searchTests(){
+    if (pagedTable != null) {
+        searchPagedTable($j("#filter").val());
+        return;
+    }
     var rows = $j(".test-history-table .table-row");
     var filter = $j("#filter").val().toLowerCase();
     if (filter == "") {
@@ -52,28 +63,377 @@ function searchTests(){
 
 function reset(){
     reevaluateChartData = true;
+    if (pagedTable != null) {
+        clearTimeout(pagedTable.searchTimer);
+    }
+    pagedTable = null;
+    $j("#search-info").text("");
+    $j("#table-viewport").removeClass("paged").off("scroll");
     $j(".test-history-table").html("");
     $j(".worst-tests-table").html("");
     resetCharts();
 }
 
+function formatProgress(progress) {
+    var elapsed = Math.round(progress.elapsed / 1000) + "s";
+    if (progress.total > 0) {
+        return "Loaded " + progress.processed + " of " + progress.total + " builds (" + elapsed + ")";
+    }
+    return "Loading test result history (" + elapsed + ")";
+}
+
+function showProgress(progress, callback) {
+    if (progress.done) {
+        $j("#loading-progress").text("");
+        oldestLoadedBuild = progress.oldestBuild;
+        callback();
+    } else {
+        $j("#loading-progress").text(formatProgress(progress));
+        setTimeout(function() {
+            remoteAction.getLoadProgress(function(t) {
+                showProgress(t.responseObject(), callback);
+            });
+        }, 500);
+    }
+}
+
+// The history is loaded in the background, so the page polls the progress instead of waiting for the response.
+function waitForHistory(callback) {
+    remoteAction.loadHistory(function(t) {
+        showProgress(t.responseObject(), callback);
+    });
+}
+
+// Extends the history by the given number of builds older than the oldest loaded one.
+function loadOlderBuilds(count) {
+    if (oldestLoadedBuild <= 1) {
+        return;
+    }
+    var to = oldestLoadedBuild - 1;
+    var from = Math.max(1, to - count + 1);
+    reset();
+    $j("#table-loading").show();
+    remoteAction.loadBuildRange(from, to, function(t) {
+        showProgress(t.responseObject(), function() {
+            if (!$j("#allnoofbuilds").is(":checked")) {
+                $j("#noofbuilds").val(parseInt($j("#noofbuilds").val()) + count);
+            }
+            renderTemplate();
+        });
+    });
+}
+
 function populateTemplate(){
     reset();
     displayValues  = $j("#show-build-durations").is(":checked");
     $j("#table-loading").show();
-    remoteAction.getTreeResult(getUserConfig(),$j.proxy(function(t) {
-        var itemsResponse = t.responseObject();
+    waitForHistory(renderTemplate);
+}
+
+function renderTemplate(){
+    loadWorstTests();
+    // only the rows around the visible part of the table are requested unless the whole table is asked for
+    if (!$j("#whole-table").is(":checked")) {
+        renderPagedTable();
+        return;
+    }
+    // the tree is streamed by the server, see TestResultsAnalyzerAction.doTreeResult
+    var params = getUserConfig();
+    params["compact"] = true;
+    params["lazy"] = $j("#load-on-expand").is(":checked");
+    $j.getJSON(treeResultUrl, params, function(compactResponse) {
+        var itemsResponse = expandCompactTree(compactResponse);
+        statusTable = itemsResponse.statuses;
+        $j.each(itemsResponse.results, function(index, node) {
+            node.path = [node.text];
+        });
+        if (sortByFlakiness) {
+            sortTreeByFlakiness(itemsResponse.results);
+        }
+        itemsResponse.sortByFlakiness = sortByFlakiness;
         $j(".test-history-table").html(
             analyzerTemplate(itemsResponse)
         );
-        var worstTests = getWorstTests(itemsResponse);
-        $j(".worst-tests-table").html(
-            analyzerWorstTestsTemplate(worstTests)
-        );
-        addEvents();
+        addEvents($j(".test-history-table .table-row"));
+        generateCharts();
+        $j("#table-loading").hide();
+    });
+}
+
+// Fetches the children of a row of a tree loaded one level at a time and inserts them below it, see
+// TestResultsAnalyzerAction.getTreeChildren.
+function loadChildren(row, callback) {
+    var path = $j.parseJSON($j(row).attr("data-lazy"));
+    var level = parseInt($j(row).attr("hierarchyLevel"));
+    var key = $j(row).attr("data-key");
+    $j(row).removeAttr("data-lazy");
+    remoteAction.getTreeChildren(getUserConfig(), path[0], path.length > 1 ? path[1] : "", function(t) {
+        var children = t.responseObject();
+        if (sortByFlakiness) {
+            sortTreeByFlakiness(children);
+        }
+        $j.each(children, function(index, child) {
+            child.hierarchyLevel = level + 1;
+            child.path = path.concat(child.text);
+            child.key = toKey(key, child.text);
+        });
+        var rows = $j(analyzerRowsTemplate(children)).filter(".table-row");
+        $j(row).after(rows);
+        rows.find("input[type='checkbox']").prop("checked", $j(row).find("input[type='checkbox']").prop("checked"));
+        addEvents(rows);
+        callback();
+    });
+}
+
+// Shows the table in a scrolled viewport and only requests the rows around the visible part of it from the server,
+// see TestResultsAnalyzerAction.getTreeRows. Expanded rows and checkboxes are tracked by row key instead of in the DOM.
+function renderPagedTable() {
+    pagedTable = {
+        toggled: {},
+        expandedByDefault: false,
+        checked: {},
+        rowHeight: 0,
+        offset: 0,
+        count: 0,
+        rowCount: 0,
+        loading: false,
+        scrolled: false,
+        query: "",
+        searchTimer: null
+    };
+    $j("#table-viewport").addClass("paged").scrollTop(0).off("scroll").on("scroll", onPagedScroll);
+    loadRowWindow(0, function() {
         generateCharts();
         $j("#table-loading").hide();
-    },this));
+        if ($j("#filter").val() != "") {
+            searchPagedTable($j("#filter").val());
+        }
+    });
+}
+
+function getVisibleRowCount() {
+    return Math.ceil($j("#table-viewport").height() / (pagedTable.rowHeight || 20));
+}
+
+function loadRowWindow(offset, callback) {
+    var table = pagedTable;
+    table.loading = true;
+    var limit = getVisibleRowCount() + 2 * PAGED_ROW_OVERSCAN;
+    remoteAction.getTreeRows(getUserConfig(), Object.keys(table.toggled), table.expandedByDefault, offset, limit, sortByFlakiness, function(t) {
+        if (table != pagedTable) {
+            return; // the table was rendered again in the meantime
+        }
+        table.loading = false;
+        if (table.query != "") {
+            return; // search results are shown instead of the window
+        }
+        var response = t.responseObject();
+        statusTable = response.statuses;
+        table.offset = response.offset;
+        table.count = response.rows.length;
+        table.rowCount = response.rowCount;
+        response.sortByFlakiness = sortByFlakiness;
+        $j(".test-history-table").html(analyzerPagedTemplate(response));
+
+        var rows = $j(".test-history-table .table-row");
+        if (!table.rowHeight && rows.length > 0) {
+            table.rowHeight = rows.first().outerHeight();
+        }
+        $j(".test-history-table .paged-spacer-before").height(table.offset * table.rowHeight);
+        $j(".test-history-table .paged-spacer-after").height((table.rowCount - table.offset - table.count) * table.rowHeight);
+        rows.each(function(index, row) {
+            $j(row).find("input[type='checkbox']").prop("checked", isRowChecked($j(row).attr("data-key")));
+        });
+        addPagedEvents(rows);
+
+        if (callback) {
+            callback();
+        }
+        if (table.scrolled) {
+            table.scrolled = false;
+            onPagedScroll();
+        }
+    });
+}
+
+function onPagedScroll() {
+    if (pagedTable == null || !pagedTable.rowHeight || pagedTable.query != "") {
+        return;
+    }
+    if (pagedTable.loading) {
+        pagedTable.scrolled = true;
+        return;
+    }
+    var first = Math.floor($j("#table-viewport").scrollTop() / pagedTable.rowHeight);
+    var last = Math.min(first + getVisibleRowCount(), pagedTable.rowCount);
+    if (first < pagedTable.offset || last > pagedTable.offset + pagedTable.count) {
+        loadRowWindow(Math.max(0, first - PAGED_ROW_OVERSCAN));
+    }
+}
+
+// Shows the rows matching the search field as a flat list, found by the server through its name index, see
+// TestResultsAnalyzerAction.searchTests. Requests are delayed while typing and outdated responses are dropped.
+function searchPagedTable(query) {
+    var table = pagedTable;
+    clearTimeout(table.searchTimer);
+    table.searchTimer = setTimeout(function() {
+        table.query = query;
+        $j("#table-viewport").scrollTop(0);
+        if (query == "") {
+            $j("#search-info").text("");
+            loadRowWindow(0);
+            return;
+        }
+        remoteAction.searchTests(getUserConfig(), query, SEARCH_LIMIT, function(t) {
+            if (table != pagedTable || table.query != query) {
+                return;
+            }
+            var response = t.responseObject();
+            statusTable = response.statuses;
+            response.sortByFlakiness = sortByFlakiness;
+            $j(".test-history-table").html(analyzerPagedTemplate(response));
+            $j("#search-info").text(response.more ? "Showing the first " + response.rows.length + " matches" : "");
+
+            var rows = $j(".test-history-table .table-row");
+            rows.each(function(index, row) {
+                $j(row).find("input[type='checkbox']").prop("checked", isRowChecked($j(row).attr("data-key")));
+            });
+            addPagedEvents(rows);
+        });
+    }, SEARCH_DELAY);
+}
+
+// Lists the siblings which flipped most often between passed and failed first. The paged table is sorted by the
+// server, see JsTreeUtil.getJsRows, the full tree is sorted here.
+function toggleFlakinessSort() {
+    sortByFlakiness = !sortByFlakiness;
+    if (pagedTable == null) {
+        renderTemplate();
+    } else if (pagedTable != null && pagedTable.query == "") {
+        loadRowWindow(pagedTable.offset);
+    }
+}
+
+function sortTreeByFlakiness(nodes) {
+    if (!nodes) {
+        return;
+    }
+    // sibling order is by name otherwise, which is kept for nodes with the same rate
+    $j.each(nodes, function(index, node) {
+        node.order = index;
+        sortTreeByFlakiness(node.children);
+    });
+    nodes.sort(function(a, b) {
+        return ((b.flipRate || 0) - (a.flipRate || 0)) || (a.order - b.order);
+    });
+}
+
+// The key of a row, the same as the keys of the rows sent by the server, see JsTreeUtil.getJsRows.
+function toKey(parentKey, name) {
+    var key = name.replace(/[\\\/]/g, "\\$&");
+    return parentKey == null ? key : parentKey + "/" + key;
+}
+
+// The key of the parent row, keys are the escaped names along the path of a row separated by slashes.
+function getParentKey(key) {
+    for (var i = key.length - 1; i >= 0; i--) {
+        if (key.charAt(i) == "/") {
+            var escapes = 0;
+            while (i - escapes > 0 && key.charAt(i - escapes - 1) == "\\") {
+                escapes++;
+            }
+            if (escapes % 2 == 0) {
+                return key.substring(0, i);
+            }
+        }
+    }
+    return null;
+}
+
+// Rows inherit the checkbox state of their nearest ancestor which was checked or unchecked explicitly.
+function isRowChecked(key) {
+    for (var current = key; current != null; current = getParentKey(current)) {
+        if (pagedTable.checked.hasOwnProperty(current)) {
+            return pagedTable.checked[current];
+        }
+    }
+    return false;
+}
+
+function addPagedEvents(rows) {
+    $j(rows).find(".icon").click(function () {
+        var key = $j(this).parent().parent(".table-row").attr("data-key");
+        if (pagedTable.toggled[key]) {
+            delete pagedTable.toggled[key];
+        } else {
+            pagedTable.toggled[key] = true;
+        }
+        loadRowWindow(pagedTable.offset);
+    });
+    $j(rows).find("input[type='checkbox']").change(function () {
+        var key = $j(this).parent().parent(".table-row").attr("data-key");
+        for (var other in pagedTable.checked) {
+            if (other.indexOf(key + "/") == 0) {
+                delete pagedTable.checked[other];
+            }
+        }
+        pagedTable.checked[key] = this.checked;
+        $j(".test-history-table .table-row").each(function(index, row) {
+            $j(row).find("input[type='checkbox']").prop("checked", isRowChecked($j(row).attr("data-key")));
+        });
+        reevaluateChartData = true;
+        generateCharts();
+    });
+}
+
+// Turns the compact tree written by JsTreeUtil.writeCompactJsTree back into nodes holding one result object per build.
+function expandCompactTree(response) {
+    $j.each(response.results, function(index, node) {
+        expandCompactNode(node, response, [], "", null);
+    });
+    return response;
+}
+
+function expandCompactNode(node, response, reports, path, parentKey) {
+    reports = node.reports || reports;
+    path = path + "/" + node.safeName;
+    node.key = toKey(parentKey, node.text);
+
+    var buildResults = [];
+    for (var i = 0; i < response.builds.length; i++) {
+        var status = node.status[i];
+        if (status < 0) {
+            buildResults.push({buildNumber: response.builds[i], status: STATUS_NA});
+            continue;
+        }
+        var result = {buildNumber: response.builds[i]};
+        if (node.counts) {
+            result.totalTests = node.counts[4 * i];
+            result.totalFailed = node.counts[4 * i + 1];
+            result.totalPassed = node.counts[4 * i + 2];
+            result.totalSkipped = node.counts[4 * i + 3];
+        } else {
+            result.totalTests = 1;
+            result.totalFailed = status == STATUS_FAILED ? 1 : 0;
+            result.totalPassed = status == STATUS_PASSED ? 1 : 0;
+            result.totalSkipped = status == STATUS_SKIPPED ? 1 : 0;
+        }
+        result.totalTimeTaken = node.time[i];
+        result.status = status;
+        if (reports[i] >= 0) {
+            result.url = response.reportUrls[reports[i]] + path;
+        }
+        buildResults.push(result);
+    }
+    node.buildResults = buildResults;
+    delete node.status;
+    delete node.time;
+    delete node.counts;
+    delete node.reports;
+
+    $j.each(node.children || [], function(index, child) {
+        expandCompactNode(child, response, reports, path, node.key);
+    });
 }
 
 function getUserConfig(){
@@ -115,6 +475,12 @@ function changeToCollapsedState(node) {
 
 function collapseAll(){
     reevaluateChartData = true;
+    if (pagedTable != null) {
+        pagedTable.toggled = {};
+        pagedTable.expandedByDefault = false;
+        loadRowWindow(0);
+        return;
+    }
     $j(".test-history-table .icon-minus-sign").each(function() {
         changeToCollapsedState($j(this));
     });
@@ -130,7 +496,14 @@ function collapseAll(){
 
 function expandAll() {
     reevaluateChartData = true;
-    $j(".test-history-table .icon-plus-sign").each(function() {
+    if (pagedTable != null) {
+        pagedTable.toggled = {};
+        pagedTable.expandedByDefault = true;
+        loadRowWindow(pagedTable.offset);
+        return;
+    }
+    // rows whose children are not loaded yet stay collapsed
+    $j(".test-history-table .table-row:not([data-lazy]) .icon-plus-sign").each(function() {
         changeToExpandedState($j(this));
     });
     $j(".test-history-table .table-row").show();
@@ -221,11 +594,15 @@ function getSiblings(row) {
     return $(previousSiblings).add(followingSiblings);
 }
 
-function addEvents() {
+function addEvents(rows) {
 
     var toggleHandler = function (node) {
         var row = $j(node).parent().parent(".table-row");
-        if (changeToExpandedState(node)) {
+        if ($j(row).attr("data-lazy") && $j(node).hasClass('icon-plus-sign')) {
+            loadChildren(row, function() {
+                toggleHandler(node);
+            });
+        } else if (changeToExpandedState(node)) {
             $j(getDescendants(row, 1)).show();
 
             // When a filter is applied you can look at nodes currently not visible in the hierarchy,
@@ -245,15 +622,14 @@ function addEvents() {
         }
     };
 
-    $j(".test-history-table .table-row .icon").click(function () {
+    $j(rows).find(".icon").click(function () {
         toggleHandler(this);
     });
-    checkBoxEvents();
+    checkBoxEvents(rows);
 }
 
-function checkBoxEvents() {
-    var table = $j(".test-history-table")[0];
-    $j(table).find("input[type='checkbox']").change(function () {
+function checkBoxEvents(rows) {
+    $j(rows).find("input[type='checkbox']").change(function () {
         reevaluateChartData = true;
 
         var row = $j(this).parent().parent(".table-row");
@@ -297,37 +673,9 @@ function resetAdvancedOptions(){
     $j("#show-build-durations").prop('checked', false);
 }
 
-function getWorstTests(itemsResponse, range = 10) {
-  worstTests = {}
-  findChildren(itemsResponse);
-  worstTests = $j.map(worstTests, function(v,k) { return {k, v}});
-  worstTests.sort(function (a,b) { return compareInteger(b.v.length, a.v.length)});
-  return worstTests.slice(0, range);
-}
-
-function compareInteger(integer1, integer2) {
-  if (parseInt(integer1) > parseInt(integer2)) return 1;
-  else if (parseInt(integer1) < parseInt(integer2)) return -1;
-  else return 0;
-}
-
-function findChildren(hash, path = '') {
-  if ( hash.text != undefined ) { path += (path == '') ? hash.text : '.' + hash.text }
-  $j.each(hash, function( index, value ) {
-    if ( index == 'children' && value.length > 0 ) {
-      findChildren(value, path);
-    } else if ( index == 'buildResults' ) {
-      $j.each(value, function(index1, buildResult) {
-        // if totalTests is equal to 1 then it should be at the lowest level of the itemsResponse hash
-        if ((buildResult.status == 'FAILED') && (buildResult.totalTests == '1')) {
-          if ( worstTests[path] === undefined ) { worstTests[path] = [] }
-          worstTests[path].push({buildNumber: buildResult.buildNumber, buildUrl: buildResult.url});
-        }
-      });
-    } else if ( $j.type(value) == 'object' ) {
-      findChildren(value, path);
-    } else if ( $j.isArray(value) ) {
-      findChildren(value, path);
-    }
-  });
+// The worst tests are ranked by the server, see TestResultsAnalyzerAction.getWorstTests.
+function loadWorstTests() {
+    remoteAction.getWorstTests(getUserConfig(), $j("#worst-tests-order").val(), WORST_TESTS_COUNT, function(t) {
+        $j(".worst-tests-table").html(analyzerWorstTestsTemplate(t.responseObject()));
+    });
 }
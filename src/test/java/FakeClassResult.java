@@ -10,4 +10,8 @@ public class FakeClassResult extends FakeTabulatedResult {
     public void addTest(String testMethod, TestStatus testStatus) {
         addTestResult(new FakeTestMethod(this, testMethod, testStatus));
     }
+
+    public void addTest(String testMethod, TestStatus testStatus, float duration) {
+        addTestResult(new FakeTestMethod(this, testMethod, testStatus, duration));
+    }
 }
@@ -18,6 +18,11 @@ public class FakePackageResult extends FakeTabulatedResult {
         return this;
     }
 
+    public FakePackageResult addTest(String className, String testMethod, TestStatus testStatus, float duration) {
+        getClassResult(className).addTest(testMethod, testStatus, duration);
+        return this;
+    }
+
     private FakeClassResult getClassResult(String name) {
         FakeClassResult result = classResults.get(name);
         if (result == null) {
@@ -5,11 +5,17 @@ public class FakeTestMethod extends TestResult {
     private TestObject parent;
     private String name;
     private TestStatus status;
+    private float duration;
 
     public FakeTestMethod(TestObject parent, String name, TestStatus status) {
+        this(parent, name, status, 0);
+    }
+
+    public FakeTestMethod(TestObject parent, String name, TestStatus status, float duration) {
         this.parent = parent;
         this.name = name;
         this.status = status;
+        this.duration = duration;
     }
 
     @Override
@@ -45,4 +51,9 @@ public class FakeTestMethod extends TestResult {
     public int getSkipCount() {
         return status == TestStatus.Skip ? 1 : 0;
     }
+
+    @Override
+    public float getDuration() {
+        return duration;
+    }
 }
@@ -0,0 +1,441 @@
+import org.jenkinsci.plugins.testresultsanalyzer.DurationRegressions;
+import org.jenkinsci.plugins.testresultsanalyzer.JsTreeUtil;
+import org.jenkinsci.plugins.testresultsanalyzer.history.HistoryExport;
+import org.jenkinsci.plugins.testresultsanalyzer.history.HistoryIndexFile;
+import org.jenkinsci.plugins.testresultsanalyzer.history.MappedHistoryIndex;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.PackageInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ResultInfo;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class HistoryIndexFileTest {
+
+    private static final String ROOT_URL = "http://jenkins/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void missingFileIsNotLoaded() throws Exception {
+        HistoryIndexFile index = new HistoryIndexFile(new File(folder.getRoot(), HistoryIndexFile.FILE_NAME), ROOT_URL);
+
+        Assert.assertFalse(index.read(-1, new ResultInfo(), new ArrayList<Integer>(), new HashSet<Integer>()));
+    }
+
+    @Test
+    public void appendedBuildsAreLoadedAgain() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(-1);
+        index.appendBuild(1, build(1, TestStatus.Fail, TestStatus.Pass));
+        index.appendBuild(2, build(2, TestStatus.Pass, TestStatus.Skip));
+        index.appendPending(3);
+
+        ResultInfo loaded = new ResultInfo();
+        List<Integer> builds = new ArrayList<Integer>();
+        Set<Integer> pending = new HashSet<Integer>();
+        Assert.assertTrue(new HistoryIndexFile(file, ROOT_URL).read(-1, loaded, builds, pending));
+
+        Assert.assertEquals(Arrays.asList(2, 1), builds);
+        Assert.assertEquals(Collections.singleton(3), pending);
+        assertSameTree(builds, expected(1, 2), loaded);
+    }
+
+    @Test
+    public void removedAndOutOfWindowBuildsAreSkipped() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(2);
+        index.appendBuild(1, build(1, TestStatus.Fail, TestStatus.Pass));
+        index.appendBuild(2, build(2, TestStatus.Pass, TestStatus.Skip));
+        index.appendBuild(3, build(3, TestStatus.Pass, TestStatus.Pass));
+        index.appendBuild(4, build(4, TestStatus.Fail, TestStatus.Fail));
+        index.appendRemove(4);
+
+        ResultInfo loaded = new ResultInfo();
+        List<Integer> builds = new ArrayList<Integer>();
+        Assert.assertTrue(new HistoryIndexFile(file, ROOT_URL).read(2, loaded, builds, new HashSet<Integer>()));
+
+        Assert.assertEquals(Arrays.asList(3, 2), builds);
+        assertSameTree(builds, expected(2, 3), loaded);
+    }
+
+    @Test
+    public void fileWrittenForOtherWindowIsNotLoaded() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(10);
+        index.appendBuild(1, build(1, TestStatus.Pass, TestStatus.Pass));
+
+        Assert.assertFalse(new HistoryIndexFile(file, ROOT_URL).read(20, new ResultInfo(), new ArrayList<Integer>(), new HashSet<Integer>()));
+    }
+
+    @Test
+    public void rewrittenFileHoldsTheGivenHistory() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(-1);
+        index.appendBuild(1, build(1, TestStatus.Fail, TestStatus.Pass));
+
+        List<Integer> builds = Arrays.asList(3, 2);
+        index.rewrite(-1, expected(2, 3), builds, new HashSet<Integer>());
+        index.appendBuild(4, build(4, TestStatus.Skip, TestStatus.Fail));
+
+        ResultInfo loaded = new ResultInfo();
+        List<Integer> loadedBuilds = new ArrayList<Integer>();
+        Assert.assertTrue(new HistoryIndexFile(file, ROOT_URL).read(-1, loaded, loadedBuilds, new HashSet<Integer>()));
+
+        Assert.assertEquals(Arrays.asList(4, 3, 2), loadedBuilds);
+        assertSameTree(loadedBuilds, expected(2, 3, 4), loaded);
+    }
+
+    @Test
+    public void mappedIndexServesTheSameTree() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(-1);
+        index.appendBuild(1, build(1, TestStatus.Fail, TestStatus.Pass));
+        index.appendBuild(2, build(2, TestStatus.Pass, TestStatus.Skip));
+        index.appendBuild(3, build(3, TestStatus.Pass, TestStatus.Pass));
+
+        List<Integer> builds = Arrays.asList(3, 2, 1);
+        MappedHistoryIndex mapped = index.map();
+        assertSameTree(builds, expected(1, 2, 3), mapped.getPackages(builds, builds));
+
+        List<Integer> requested = Arrays.asList(3, 2);
+        assertSameTree(requested, expected(1, 2, 3), mapped.getPackages(builds, requested));
+    }
+
+    @Test
+    public void mappedExportSkipsBuildsAndNamesOutsideTheFilters() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(-1);
+        index.appendBuild(1, build(1, TestStatus.Fail, TestStatus.Pass));
+        index.appendBuild(2, build(2, TestStatus.Pass, TestStatus.Skip));
+        index.appendBuild(3, build(3, TestStatus.Pass, TestStatus.Pass));
+
+        HistoryExport export = new HistoryExport(Arrays.asList(3, 2, 1), 2, 3, "pn.Class1");
+        StringWriter fromMemory = new StringWriter();
+        export.writeJson(fromMemory, expected(1, 2, 3).getPackageResults().values());
+        StringWriter fromFile = new StringWriter();
+        export.writeJson(fromFile, index.map().getPackages(export.getBuilds(), export.getBuilds(), export.getNamePrefix()));
+
+        Assert.assertEquals(fromMemory.toString(), fromFile.toString());
+        String[] lines = fromFile.toString().split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertTrue(lines[0].startsWith("{\"package\":\"pn\",\"class\":\"Class1\",\"test\":\"method1\",\"build\":2,\"status\":\"PASSED\""));
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        export.writeBinary(binary, index.map().getPackages(export.getBuilds(), export.getBuilds(), export.getNamePrefix()));
+        byte[] bytes = binary.toByteArray();
+        Assert.assertEquals("TRA", new String(bytes, 0, 3, "US-ASCII"));
+        Assert.assertEquals(HistoryExport.TEST, bytes[4]);
+        Assert.assertEquals(bytes.length - 6, bytes[5]);
+    }
+
+    @Test
+    public void compactedIndexKeepsOnlyTheGivenBuilds() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(-1);
+        index.appendBuild(1, build(1, TestStatus.Fail, TestStatus.Pass));
+        index.appendBuild(2, build(2, TestStatus.Pass, TestStatus.Skip));
+        index.appendBuild(3, build(3, TestStatus.Pass, TestStatus.Pass));
+
+        index.compact(-1, Arrays.asList(3, 2), Collections.singleton(4));
+        index.appendBuild(5, build(5, TestStatus.Skip, TestStatus.Fail));
+
+        List<Integer> builds = new ArrayList<Integer>();
+        Set<Integer> pending = new HashSet<Integer>();
+        HistoryIndexFile reopened = new HistoryIndexFile(file, ROOT_URL);
+        Assert.assertTrue(reopened.readBuilds(-1, builds, pending));
+
+        Assert.assertEquals(Arrays.asList(5, 3, 2), builds);
+        Assert.assertEquals(Collections.singleton(4), pending);
+        Assert.assertEquals(4, reopened.getRecordCount());
+    }
+
+    @Test
+    public void appendedRecordsExtendTheMappedView() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(-1);
+        index.appendBuild(1, build(1, TestStatus.Fail, TestStatus.Pass));
+        index.appendBuild(2, build(2, TestStatus.Pass, TestStatus.Skip));
+        List<Integer> builds = Arrays.asList(3, 2, 1);
+        MappedHistoryIndex before = index.map();
+        assertSameTree(Arrays.asList(2, 1), expected(1, 2), before.getPackages(Arrays.asList(2, 1), Arrays.asList(2, 1)));
+
+        ResultInfo build3 = build(3, TestStatus.Pass, TestStatus.Fail);
+        build3.addPackage(3, new FakePackageResult("pn").addTest("Class0", "method0", TestStatus.Fail), ROOT_URL + "job/x/3/");
+        index.appendBuild(3, build3);
+        MappedHistoryIndex extended = index.map();
+
+        Assert.assertTrue(extended.getLength() > before.getLength());
+        ResultInfo expected = expected(1, 2);
+        expected.merge(build3);
+        assertSameTree(builds, expected, extended.getPackages(builds, builds));
+        assertSameTree(builds, expected, new HistoryIndexFile(file, ROOT_URL).map().getPackages(builds, builds));
+        try {
+            before.getPackages(builds, builds).iterator();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // the previous view was unmapped
+        }
+    }
+
+    @Test
+    public void acquiredViewOutlivesAppends() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(-1);
+        index.appendBuild(1, build(1, TestStatus.Fail, TestStatus.Pass));
+        MappedHistoryIndex acquired = index.acquire();
+
+        index.appendBuild(2, build(2, TestStatus.Pass, TestStatus.Skip));
+        Assert.assertNotSame(acquired, index.map());
+
+        List<Integer> builds = Collections.singletonList(1);
+        assertSameTree(builds, expected(1), acquired.getPackages(builds, builds));
+    }
+
+    @Test
+    public void compactingClosesTheMappedView() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(-1);
+        index.appendBuild(1, build(1, TestStatus.Fail, TestStatus.Pass));
+        index.appendBuild(2, build(2, TestStatus.Pass, TestStatus.Skip));
+        MappedHistoryIndex before = index.map();
+
+        Assert.assertTrue(index.compact(-1, Collections.singletonList(2), new HashSet<Integer>()));
+
+        List<Integer> builds = Collections.singletonList(2);
+        assertSameTree(builds, expected(2), index.map().getPackages(builds, builds));
+        try {
+            before.getPackages(builds, builds).iterator();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // the view was unmapped before the file was replaced
+        }
+    }
+
+    @Test
+    public void buildsAppendedByAnotherInstanceAreKept() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(-1);
+        index.appendBuild(1, build(1, TestStatus.Fail, TestStatus.Pass));
+
+        new HistoryIndexFile(file, ROOT_URL).appendBuild(2, build(2, TestStatus.Pass, TestStatus.Skip));
+        Assert.assertFalse(index.compact(-1, Collections.singletonList(1), new HashSet<Integer>()));
+        index.appendBuild(3, build(3, TestStatus.Pass, TestStatus.Pass));
+
+        ResultInfo loaded = new ResultInfo();
+        List<Integer> builds = new ArrayList<Integer>();
+        Assert.assertTrue(new HistoryIndexFile(file, ROOT_URL).read(-1, loaded, builds, new HashSet<Integer>()));
+
+        Assert.assertEquals(Arrays.asList(3, 2, 1), builds);
+        assertSameTree(builds, expected(1, 2, 3), loaded);
+        Assert.assertEquals(3, index.getRecordCount());
+    }
+
+    @Test
+    public void namesAppendedByAnotherInstanceAreUsedForLaterBuilds() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(-1);
+        index.appendBuild(1, build(1, TestStatus.Fail, TestStatus.Pass));
+
+        ResultInfo build2 = build(2, TestStatus.Pass, TestStatus.Skip);
+        build2.addPackage(2, new FakePackageResult("b").addTest("ClassB", "methodB", TestStatus.Pass), ROOT_URL + "job/x/2/");
+        new HistoryIndexFile(file, ROOT_URL).appendBuild(2, build2);
+        new HistoryIndexFile(file, ROOT_URL).appendRemove(5);
+
+        // the other instance introduced package b, this one only adds a test below it
+        ResultInfo build3 = build(3, TestStatus.Pass, TestStatus.Pass);
+        build3.addPackage(3, new FakePackageResult("b")
+                .addTest("ClassB", "methodB", TestStatus.Fail)
+                .addTest("ClassB", "methodC", TestStatus.Pass), ROOT_URL + "job/x/3/");
+        index.appendBuild(3, build3);
+        Assert.assertEquals(4, index.getRecordCount());
+
+        // a file replaced by another instance is read again from the start
+        HistoryIndexFile compacting = new HistoryIndexFile(file, ROOT_URL);
+        List<Integer> indexedBuilds = new ArrayList<Integer>();
+        Set<Integer> indexedPending = new HashSet<Integer>();
+        Assert.assertTrue(compacting.readBuilds(-1, indexedBuilds, indexedPending));
+        Assert.assertTrue(compacting.compact(-1, indexedBuilds, indexedPending));
+        ResultInfo build4 = build(4, TestStatus.Skip, TestStatus.Fail);
+        build4.addPackage(4, new FakePackageResult("b").addTest("ClassB", "methodC", TestStatus.Fail), ROOT_URL + "job/x/4/");
+        index.appendBuild(4, build4);
+        Assert.assertEquals(4, index.getRecordCount());
+
+        ResultInfo expected = new ResultInfo();
+        for (ResultInfo build : Arrays.asList(build(1, TestStatus.Fail, TestStatus.Pass), build2, build3, build4)) {
+            expected.merge(build);
+        }
+        ResultInfo loaded = new ResultInfo();
+        List<Integer> builds = new ArrayList<Integer>();
+        Assert.assertTrue(new HistoryIndexFile(file, ROOT_URL).read(-1, loaded, builds, new HashSet<Integer>()));
+        Assert.assertEquals(Arrays.asList(4, 3, 2, 1), builds);
+        assertSameTree(builds, expected, loaded);
+    }
+
+    @Test
+    public void appendingToMissingFileFails() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        Assert.assertFalse(index.exists());
+
+        try {
+            index.appendRemove(1);
+            Assert.fail();
+        } catch (FileNotFoundException e) {
+            Assert.assertFalse(file.exists());
+        }
+    }
+
+    @Test
+    public void singlePackageIsReadWithoutTheOthers() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(-1);
+        for (int buildNumber = 1; buildNumber <= 2; buildNumber++) {
+            ResultInfo build = build(buildNumber, TestStatus.Pass, buildNumber == 1 ? TestStatus.Fail : TestStatus.Skip);
+            build.addPackage(buildNumber, new FakePackageResult("a").addTest("ClassA", "methodA", TestStatus.Pass), ROOT_URL + "job/x/" + buildNumber + "/");
+            build.addPackage(buildNumber, new FakePackageResult("z").addTest("ClassZ", "methodZ", TestStatus.Fail), ROOT_URL + "job/x/" + buildNumber + "/");
+            index.appendBuild(buildNumber, build);
+        }
+        List<Integer> builds = Arrays.asList(2, 1);
+        MappedHistoryIndex mapped = index.map();
+
+        Assert.assertNull(mapped.getPackage("b", builds, builds));
+        assertSamePackage(builds, mapped.getPackages(builds, builds), "z", mapped.getPackage("z", builds, builds));
+        assertSamePackage(builds, mapped.getPackages(builds, builds), "pn", mapped.getPackage("pn", builds, builds));
+
+        ResultInfo build3 = build(3, TestStatus.Fail, TestStatus.Fail);
+        build3.addPackage(3, new FakePackageResult("m").addTest("ClassM", "methodM", TestStatus.Pass), ROOT_URL + "job/x/3/");
+        index.appendBuild(3, build3);
+        builds = Arrays.asList(3, 2, 1);
+        mapped = index.map();
+
+        assertSamePackage(builds, mapped.getPackages(builds, builds), "m", mapped.getPackage("m", builds, builds));
+        assertSamePackage(builds, mapped.getPackages(builds, builds), "pn", mapped.getPackage("pn", builds, builds));
+        assertSamePackage(builds, mapped.getPackages(builds, builds), "z", mapped.getPackage("z", builds, builds));
+    }
+
+    @Test
+    public void durationRegressionsWithinTheWindowAreTheSameFromTheIndexFile() throws Exception {
+        File file = new File(folder.getRoot(), HistoryIndexFile.FILE_NAME);
+        HistoryIndexFile index = new HistoryIndexFile(file, ROOT_URL);
+        index.create(-1);
+        // noisy early builds hide the regression of the latest build unless the window leaves them out
+        float[] durations = {1f, 5f, 1f, 5f, 1f, 1.0f, 1.2f, 0.8f, 1.1f, 0.9f, 1.0f, 3.0f};
+        ResultInfo loaded = new ResultInfo();
+        List<Integer> builds = new ArrayList<Integer>();
+        for (int buildNumber = 1; buildNumber <= durations.length; buildNumber++) {
+            index.appendBuild(buildNumber, timedBuild(buildNumber, durations[buildNumber - 1]));
+            loaded.merge(timedBuild(buildNumber, durations[buildNumber - 1]));
+            builds.add(0, buildNumber);
+        }
+
+        DurationRegressions all = new DurationRegressions(builds, 10);
+        all.addAll(loaded.getPackageResults().values());
+        Assert.assertTrue(all.getRegressions().isEmpty());
+
+        List<Integer> window = builds.subList(0, 7);
+        DurationRegressions heap = new DurationRegressions(window, 10);
+        heap.addAll(loaded.getPackageResults().values());
+        DurationRegressions mapped = new DurationRegressions(window, 10);
+        mapped.addAll(index.map().getPackages(builds, window));
+
+        Assert.assertEquals(1, heap.getRegressions().size());
+        Assert.assertEquals(1, mapped.getRegressions().size());
+        DurationRegressions.Regression expected = mapped.getRegressions().get(0);
+        DurationRegressions.Regression actual = heap.getRegressions().get(0);
+        Assert.assertEquals("pn.Class1.slowed", actual.getName());
+        Assert.assertEquals(expected.getName(), actual.getName());
+        Assert.assertEquals(12, actual.getBuildNumber());
+        Assert.assertEquals(expected.getBuildNumber(), actual.getBuildNumber());
+        Assert.assertEquals(6, actual.getBaseline().getCount());
+        Assert.assertEquals(expected.getBaseline().getCount(), actual.getBaseline().getCount());
+        Assert.assertEquals(1.0, actual.getBaseline().getMean(), 1e-6);
+        Assert.assertEquals(expected.getBaseline().getMean(), actual.getBaseline().getMean(), 1e-6);
+        Assert.assertEquals(expected.getBaseline().getStandardDeviation(), actual.getBaseline().getStandardDeviation(), 1e-6);
+        Assert.assertEquals(expected.getBaseline().getEwma(), actual.getBaseline().getEwma(), 1e-6);
+        Assert.assertEquals(expected.getScore(), actual.getScore(), 1e-6);
+    }
+
+    private static ResultInfo timedBuild(int buildNumber, float duration) {
+        ResultInfo results = new ResultInfo();
+        results.addPackage(buildNumber, new FakePackageResult("pn")
+                .addTest("Class1", "slowed", TestStatus.Pass, duration), ROOT_URL + "job/x/" + buildNumber + "/");
+        return results;
+    }
+
+    private static void assertSamePackage(List<Integer> builds, Iterable<PackageInfo> packages, String name, PackageInfo actual) {
+        for (PackageInfo packageInfo : packages) {
+            if (packageInfo.getName().equals(name)) {
+                JsTreeUtil util = new JsTreeUtil();
+                Assert.assertEquals(util.getJsTree(builds, Collections.singletonList(packageInfo), false).toString(2),
+                        util.getJsTree(builds, Collections.singletonList(actual), false).toString(2));
+                return;
+            }
+        }
+        Assert.fail("No package " + name);
+    }
+
+    private static void assertSameTree(List<Integer> builds, ResultInfo expected, Iterable<PackageInfo> actual) {
+        JsTreeUtil util = new JsTreeUtil();
+        Assert.assertEquals(util.getJsTree(builds, expected, false).toString(2), util.getJsTree(builds, actual, false).toString(2));
+    }
+
+    private static ResultInfo build(int buildNumber, TestStatus method1, TestStatus method2) {
+        ResultInfo results = new ResultInfo();
+        results.addPackage(buildNumber, new FakePackageResult("pn")
+                .addTest("Class1", "method1", method1)
+                .addTest("Class2", "method2", method2), ROOT_URL + "job/x/" + buildNumber + "/");
+        return results;
+    }
+
+    private static ResultInfo expected(int... buildNumbers) {
+        ResultInfo results = new ResultInfo();
+        for (int buildNumber : buildNumbers) {
+            switch (buildNumber) {
+                case 1:
+                    results.merge(build(1, TestStatus.Fail, TestStatus.Pass));
+                    break;
+                case 2:
+                    results.merge(build(2, TestStatus.Pass, TestStatus.Skip));
+                    break;
+                case 3:
+                    results.merge(build(3, TestStatus.Pass, TestStatus.Pass));
+                    break;
+                default:
+                    results.merge(build(4, TestStatus.Skip, TestStatus.Fail));
+                    break;
+            }
+        }
+        return results;
+    }
+
+    private static void assertSameTree(List<Integer> builds, ResultInfo expected, ResultInfo actual) {
+        JsTreeUtil util = new JsTreeUtil();
+        Assert.assertEquals(util.getJsTree(builds, expected, false).toString(2), util.getJsTree(builds, actual, false).toString(2));
+    }
+}
@@ -0,0 +1,122 @@
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.testresultsanalyzer.JsTreeUtil;
+import org.jenkinsci.plugins.testresultsanalyzer.ResultStatus;
+import org.jenkinsci.plugins.testresultsanalyzer.history.JUnitResultReader;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ClassInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.PackageInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ResultInfo;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class JUnitResultReaderTest {
+
+    private static final String RUN_URL = "http://jenkins/job/x/7/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsCasesGroupedByPackageAndClass() throws Exception {
+        File file = write("<?xml version='1.1' encoding='UTF-8'?>\n"
+                + "<result plugin=\"junit@1.20\">\n"
+                + "  <suites>\n"
+                + "    <suite>\n"
+                + "      <file>TEST-pn.Class1.xml</file>\n"
+                + "      <name>pn.Class1</name>\n"
+                + "      <stdout>lots of output <nested>&amp; markup</nested></stdout>\n"
+                + "      <duration>0.5</duration>\n"
+                + "      <cases>\n"
+                + "        <case>\n"
+                + "          <duration>0.25</duration>\n"
+                + "          <className>pn.Class1</className>\n"
+                + "          <testName>method1</testName>\n"
+                + "          <skipped>false</skipped>\n"
+                + "          <errorStackTrace>java.lang.AssertionError\n\tat pn.Class1.method1</errorStackTrace>\n"
+                + "          <failedSince>7</failedSince>\n"
+                + "        </case>\n"
+                + "        <case>\n"
+                + "          <duration>0.5</duration>\n"
+                + "          <className>pn.Class1</className>\n"
+                + "          <testName>method 2</testName>\n"
+                + "          <skipped>false</skipped>\n"
+                + "          <failedSince>0</failedSince>\n"
+                + "        </case>\n"
+                + "      </cases>\n"
+                + "    </suite>\n"
+                + "    <suite>\n"
+                + "      <name>RootTest</name>\n"
+                + "      <cases>\n"
+                + "        <case>\n"
+                + "          <duration>0.0</duration>\n"
+                + "          <className>RootTest</className>\n"
+                + "          <testName>ignored</testName>\n"
+                + "          <skipped>true</skipped>\n"
+                + "          <skippedMessage>not now</skippedMessage>\n"
+                + "        </case>\n"
+                + "      </cases>\n"
+                + "    </suite>\n"
+                + "  </suites>\n"
+                + "  <duration>0.75</duration>\n"
+                + "  <keepLongStdio>false</keepLongStdio>\n"
+                + "</result>\n");
+
+        ResultInfo results = JUnitResultReader.read(file, 7, RUN_URL);
+
+        Assert.assertNotNull(results);
+        Assert.assertEquals(Arrays.asList("(root)", "pn"), Arrays.asList(results.getPackageResults().keySet().toArray()));
+        PackageInfo packageInfo = results.getPackageResults().get("pn");
+        Assert.assertEquals(2, packageInfo.getBuildResult(7).getTotalTests());
+        Assert.assertEquals(1, packageInfo.getBuildResult(7).getTotalFailed());
+        Assert.assertEquals("FAILED", packageInfo.getBuildResult(7).getStatus());
+        Assert.assertEquals(RUN_URL + "testReport/pn", packageInfo.getBuildResult(7).getUrl());
+
+        ClassInfo classInfo = packageInfo.getClasses().get("Class1");
+        Assert.assertEquals(0.75f, classInfo.getBuildResult(7).getTotalTimeTaken(), 0.0001f);
+        Assert.assertEquals("FAILED", classInfo.getTests().get("method1").getBuildResult(7).getStatus());
+        Assert.assertEquals("PASSED", classInfo.getTests().get("method 2").getBuildResult(7).getStatus());
+        Assert.assertEquals(RUN_URL + "testReport/pn/Class1/method_2", classInfo.getTests().get("method 2").getBuildResult(7).getUrl());
+
+        JSONObject tree = new JsTreeUtil().getJsTree(Collections.singletonList(7), results, false);
+        Assert.assertEquals(ResultStatus.SKIPPED.ordinal(), tree.getJSONArray("results").getJSONObject(0)
+                .getJSONArray("buildResults").getJSONObject(0).getInt("status"));
+    }
+
+    @Test
+    public void casesWithinPipelineBlocksAreNotRead() throws Exception {
+        File file = write("<?xml version='1.1' encoding='UTF-8'?>\n"
+                + "<result><suites><suite><cases><case>"
+                + "<className>pn.Class1</className><testName>method1</testName>"
+                + "<enclosingBlockNames><string>stage</string></enclosingBlockNames>"
+                + "</case></cases></suite></suites></result>");
+
+        Assert.assertNull(JUnitResultReader.read(file, 7, RUN_URL));
+    }
+
+    @Test
+    public void unknownFormatsAreNotRead() throws Exception {
+        Assert.assertNull(JUnitResultReader.read(write("<testng-results/>"), 7, RUN_URL));
+        Assert.assertNull(JUnitResultReader.read(write("<result><suites>"), 7, RUN_URL));
+        Assert.assertNull(JUnitResultReader.read(new File(folder.getRoot(), "missing.xml"), 7, RUN_URL));
+    }
+
+    private File write(String content) throws IOException {
+        File file = folder.newFile();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
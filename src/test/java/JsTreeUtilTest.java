@@ -1,15 +1,25 @@
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.testresultsanalyzer.JsTreeUtil;
+import org.jenkinsci.plugins.testresultsanalyzer.ResultStatus;
+import org.jenkinsci.plugins.testresultsanalyzer.StatusTable;
+import org.jenkinsci.plugins.testresultsanalyzer.WorstTests;
+import org.jenkinsci.plugins.testresultsanalyzer.history.NameIndex;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.Info;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.PackageInfo;
 import org.jenkinsci.plugins.testresultsanalyzer.result.info.ResultInfo;
 import org.junit.Assert;
 import org.junit.Test;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class JsTreeUtilTest {
 
@@ -103,10 +113,316 @@ public class JsTreeUtilTest {
         assertEquals(expected, new JsTreeUtil().getJsTree(builds, results, false));
     }
 
+    @Test
+    public void streamedTreeEqualsBuiltTree() throws Exception {
+        List<Integer> builds = Arrays.asList(2, 1);
+        ResultInfo results = new ResultInfo();
+        results.addPackage(1, new FakePackageResult("pn")
+                .addTest("Class1", "method1", TestStatus.Pass)
+                .addTest("Class1", "method \"2\"", TestStatus.Skip), "someUrl/");
+        results.addPackage(2, new FakePackageResult("pn").addTest("Class1", "method1", TestStatus.Fail), "someUrl/");
+
+        StringWriter out = new StringWriter();
+        new JsTreeUtil().writeJsTree(out, builds, results.getPackageResults().values(), false);
+
+        assertEquals(new JsTreeUtil().getJsTree(builds, results, false), JSONObject.fromObject(out.toString()));
+    }
+
+    @Test
+    public void lazyTreeHoldsPackagesOnlyAndChildrenAreFetchedPerNode() throws Exception {
+        List<Integer> builds = Arrays.asList(1);
+        ResultInfo results = new ResultInfo();
+        results.addPackage(1, new FakePackageResult("pn")
+                .addTest("Class1", "method1", TestStatus.Pass)
+                .addTest("Class2", "method1", TestStatus.Fail), "someUrl/");
+
+        StringWriter out = new StringWriter();
+        new JsTreeUtil().writeJsTree(out, builds, results.getPackageResults().values(), false, 1);
+        JSONObject tree = JSONObject.fromObject(out.toString());
+        assertEquals(new JsTreeUtil().getJsTree(builds, results.getPackageResults().values(), false, 1), tree);
+
+        JSONObject pnNode = tree.getJSONArray("results").getJSONObject(0);
+        Assert.assertFalse(pnNode.has("children"));
+        Assert.assertTrue(pnNode.getBoolean("hasChildren"));
+
+        PackageInfo packageInfo = results.getPackageResults().get("pn");
+        JSONArray classes = new JsTreeUtil().getJsChildren(builds, packageInfo, false);
+        Assert.assertEquals(2, classes.size());
+        Assert.assertEquals("Class2", classes.getJSONObject(1).getString("text"));
+        Assert.assertTrue(classes.getJSONObject(1).getBoolean("hasChildren"));
+
+        JSONArray tests = new JsTreeUtil().getJsChildren(builds, packageInfo.getClasses().get("Class2"), false);
+        Assert.assertEquals(1, tests.size());
+        Assert.assertFalse(tests.getJSONObject(0).has("hasChildren"));
+        Assert.assertEquals(ResultStatus.FAILED.ordinal(), tests.getJSONObject(0).getJSONArray("buildResults").getJSONObject(0).getInt("status"));
+    }
+
+    @Test
+    public void compactTreeHoldsParallelArraysPerNode() throws Exception {
+        List<Integer> builds = new ArrayList<Integer>();
+        ResultInfo results = new ResultInfo();
+        for (int build = 1; build <= 20; build++) {
+            FakePackageResult packageResult = new FakePackageResult("pn");
+            for (int test = 0; test < 20; test++) {
+                packageResult.addTest("Class" + test % 3, "method" + test, build % 7 == test % 7 ? TestStatus.Fail : TestStatus.Pass);
+            }
+            results.addPackage(build, packageResult, "http://jenkins/job/x/" + build + "/");
+            builds.add(0, build);
+        }
+        builds.add(0, 21);
+
+        StringWriter verbose = new StringWriter();
+        new JsTreeUtil().writeJsTree(verbose, builds, results.getPackageResults().values(), false);
+        StringWriter compact = new StringWriter();
+        new JsTreeUtil().writeCompactJsTree(compact, builds, results.getPackageResults().values(), false, Integer.MAX_VALUE);
+        Assert.assertTrue(compact.toString().length() * 5 < verbose.toString().length());
+
+        JSONObject tree = JSONObject.fromObject(compact.toString());
+        JSONObject pnNode = tree.getJSONArray("results").getJSONObject(0);
+        Assert.assertEquals(20, tree.getJSONArray("reportUrls").size());
+        Assert.assertEquals("http://jenkins/job/x/20/testReport", tree.getJSONArray("reportUrls").getString(pnNode.getJSONArray("reports").getInt(1)));
+        Assert.assertEquals(-1, pnNode.getJSONArray("reports").getInt(0));
+        Assert.assertEquals(-1, pnNode.getJSONArray("status").getInt(0));
+        Assert.assertEquals(20, pnNode.getJSONArray("counts").getInt(4));
+
+        JSONObject testNode = pnNode.getJSONArray("children").getJSONObject(0).getJSONArray("children").getJSONObject(0);
+        Assert.assertEquals("method0", testNode.getString("safeName"));
+        Assert.assertFalse(testNode.has("counts"));
+        Assert.assertEquals(ResultStatus.FAILED.ordinal(), testNode.getJSONArray("status").getInt(14));
+    }
+
+    @Test
+    public void rowWindowCountsAllShownRowsButOnlyBuildsTheWindow() {
+        List<Integer> builds = Arrays.asList(1);
+        ResultInfo results = new ResultInfo();
+        results.addPackage(1, new FakePackageResult("a")
+                .addTest("Class1", "method1", TestStatus.Pass)
+                .addTest("Class1", "method/2", TestStatus.Fail), "someUrl/");
+        results.addPackage(1, new FakePackageResult("b").addTest("Class1", "method1", TestStatus.Pass), "someUrl/");
+        Iterable<PackageInfo> packages = results.getPackageResults().values();
+
+        JSONObject collapsed = new JsTreeUtil().getJsRows(builds, packages, false, Collections.<String>emptySet(), false, 0, 10);
+        Assert.assertEquals(2, collapsed.getInt("rowCount"));
+        Assert.assertFalse(collapsed.getJSONArray("rows").getJSONObject(0).getBoolean("expanded"));
+
+        Set<String> toggled = new HashSet<String>(Arrays.asList("a", "a/Class1"));
+        JSONObject window = new JsTreeUtil().getJsRows(builds, packages, false, toggled, false, 2, 2);
+        Assert.assertEquals(5, window.getInt("rowCount"));
+        JSONArray rows = window.getJSONArray("rows");
+        Assert.assertEquals(2, rows.size());
+        Assert.assertEquals("a/Class1/method\\/2", rows.getJSONObject(0).getString("key"));
+        Assert.assertEquals("a/Class1/method1", rows.getJSONObject(1).getString("key"));
+        Assert.assertEquals(2, rows.getJSONObject(0).getInt("hierarchyLevel"));
+        Assert.assertEquals(ResultStatus.FAILED.ordinal(), rows.getJSONObject(0).getJSONArray("buildResults").getJSONObject(0).getInt("status"));
+
+        JSONObject expanded = new JsTreeUtil().getJsRows(builds, packages, false, Collections.singleton("a"), true, 0, 10);
+        Assert.assertEquals(4, expanded.getInt("rowCount"));
+        Assert.assertEquals("b", expanded.getJSONArray("rows").getJSONObject(1).getString("key"));
+    }
+
+    @Test
+    public void rowWindowsFromTheLayoutMatchTheFullTable() {
+        List<Integer> builds = Arrays.asList(1);
+        ResultInfo results = new ResultInfo();
+        for (String packageName : Arrays.asList("a", "b", "c")) {
+            results.addPackage(1, new FakePackageResult(packageName)
+                    .addTest("Class1", "method1", TestStatus.Pass)
+                    .addTest("Class1", "method2", TestStatus.Fail)
+                    .addTest("Class2", "method1", TestStatus.Skip), "someUrl/");
+        }
+        List<PackageInfo> packages = new ArrayList<PackageInfo>(results.getPackageResults().values());
+        Set<String> toggled = new HashSet<String>(Arrays.asList("b/Class1", "c"));
+        JsTreeUtil util = new JsTreeUtil();
+
+        JsTreeUtil.RowLayout layout = util.getRowLayout(builds, packages, false, toggled, true, false);
+        JSONArray all = util.getJsRows(builds, packages, false, toggled, true, 0, 100).getJSONArray("rows");
+        Assert.assertEquals(11, layout.getRowCount());
+        Assert.assertEquals(11, all.size());
+        for (int offset = 0; offset < 13; offset++) {
+            List<PackageInfo> windowPackages = new ArrayList<PackageInfo>();
+            for (String packageName : layout.getPackageNames(offset, 3)) {
+                windowPackages.add(results.getPackageResults().get(packageName));
+            }
+            JSONObject window = util.getJsRows(builds, layout, windowPackages, false, toggled, true, offset, 3, false);
+            Assert.assertEquals(11, window.getInt("rowCount"));
+            JSONArray rows = window.getJSONArray("rows");
+            Assert.assertEquals(Math.max(0, Math.min(3, 11 - offset)), rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                Assert.assertEquals(all.getJSONObject(offset + i).getString("key"), rows.getJSONObject(i).getString("key"));
+            }
+        }
+    }
+
+    @Test
+    public void nameIndexFindsSubstringsAndMatchesKeepTheirRowKeys() {
+        List<Integer> builds = Arrays.asList(1);
+        ResultInfo results = new ResultInfo();
+        results.addPackage(1, new FakePackageResult("a")
+                .addTest("LoginTest", "testLogin", TestStatus.Pass)
+                .addTest("LoginTest", "testLogout", TestStatus.Fail), "someUrl/");
+        results.addPackage(1, new FakePackageResult("b").addTest("Class1", "logs/in", TestStatus.Pass), "someUrl/");
+        NameIndex index = NameIndex.of(results.getPackageResults().values());
+
+        Assert.assertEquals(2, index.search("LOGIN").length);
+        Assert.assertEquals(4, index.search("lo").length);
+        Assert.assertEquals(0, index.search("loginx").length);
+        Assert.assertEquals(0, index.search("").length);
+        int[] logout = index.search("gout");
+        Assert.assertEquals(1, logout.length);
+        Assert.assertEquals(Arrays.asList("a", "LoginTest", "testLogout"), index.getPath(logout[0]));
+
+        List<Info> nodes = new ArrayList<Info>();
+        nodes.add(results.getPackageResults().get("b").getClasses().get("Class1").getTests().get("logs/in"));
+        JSONObject matches = new JsTreeUtil().getJsMatches(builds, nodes, false, true);
+        JSONObject row = matches.getJSONArray("rows").getJSONObject(0);
+        Assert.assertEquals("b/Class1/logs\\/in", row.getString("key"));
+        Assert.assertEquals("b.Class1.logs/in", row.getString("text"));
+        Assert.assertTrue(matches.getBoolean("more"));
+    }
+
+    @Test
+    public void chartSeriesSumTheSelectedNodesPerBuildOldestFirst() {
+        List<Integer> builds = Arrays.asList(2, 1);
+        ResultInfo results = new ResultInfo();
+        results.addPackage(1, new FakePackageResult("a")
+                .addTest("Class1", "method1", TestStatus.Pass)
+                .addTest("Class1", "method2", TestStatus.Fail), "someUrl/");
+        results.addPackage(2, new FakePackageResult("a").addTest("Class1", "method1", TestStatus.Skip), "someUrl/");
+        results.addPackage(2, new FakePackageResult("b").addTest("Class1", "method1", TestStatus.Pass), "someUrl/");
+
+        JSONObject series = new JsTreeUtil().getJsChartSeries(builds, results.getPackageResults().values(), 0.5f, 1.0f);
+        Assert.assertEquals(Arrays.asList("1", "2"), series.getJSONArray("builds"));
+        Assert.assertEquals(1, series.getJSONArray("passed").getInt(0));
+        Assert.assertEquals(1, series.getJSONArray("failed").getInt(0));
+        Assert.assertEquals(2, series.getJSONArray("total").getInt(0));
+        Assert.assertEquals(1, series.getJSONArray("skipped").getInt(1));
+        Assert.assertEquals(2, series.getJSONArray("total").getInt(1));
+        Assert.assertEquals(2, series.getJSONArray("fast").getInt(1));
+
+        List<Info> selected = new ArrayList<Info>();
+        selected.add(results.getPackageResults().get("b"));
+        JSONObject selectedSeries = new JsTreeUtil().getJsChartSeries(builds, selected, 0.5f, 1.0f);
+        Assert.assertEquals(0, selectedSeries.getJSONArray("total").getInt(0));
+        Assert.assertEquals(1, selectedSeries.getJSONArray("passed").getInt(1));
+    }
+
+    @Test
+    public void worstTestsKeepOnlyTheTopRankedTests() {
+        List<Integer> builds = Arrays.asList(3, 2, 1);
+        ResultInfo results = new ResultInfo();
+        results.addPackage(1, new FakePackageResult("a")
+                .addTest("Class1", "flaky", TestStatus.Fail)
+                .addTest("Class1", "broken", TestStatus.Fail)
+                .addTest("Class1", "fine", TestStatus.Pass), "someUrl/");
+        results.addPackage(2, new FakePackageResult("a")
+                .addTest("Class1", "flaky", TestStatus.Fail)
+                .addTest("Class1", "broken", TestStatus.Pass)
+                .addTest("Class1", "fine", TestStatus.Pass), "someUrl/");
+        results.addPackage(3, new FakePackageResult("a")
+                .addTest("Class1", "flaky", TestStatus.Pass)
+                .addTest("Class1", "broken", TestStatus.Fail)
+                .addTest("Class1", "fine", TestStatus.Pass), "someUrl/");
+
+        WorstTests byFailures = new WorstTests(builds, WorstTests.Order.FAILURES, 1);
+        byFailures.addAll(results.getPackageResults().values());
+        JSONArray worst = byFailures.toJson();
+        Assert.assertEquals(1, worst.size());
+        Assert.assertEquals("a.Class1.broken", worst.getJSONObject(0).getString("name"));
+        Assert.assertEquals(2, worst.getJSONObject(0).getInt("failures"));
+        Assert.assertEquals("3", worst.getJSONObject(0).getJSONArray("builds").getJSONObject(0).getString("buildNumber"));
+
+        WorstTests byStreak = new WorstTests(builds, WorstTests.Order.of("streak"), 10);
+        byStreak.addAll(results.getPackageResults().values());
+        List<WorstTests.Test> tests = byStreak.getTests();
+        Assert.assertEquals(2, tests.size());
+        Assert.assertEquals("a.Class1.broken", tests.get(0).getName());
+        Assert.assertEquals(1, tests.get(0).getStreak());
+        Assert.assertEquals(0, tests.get(1).getStreak());
+    }
+
+    @Test
+    public void flipRatesAndFlakinessOrderFollowTheWindow() throws Exception {
+        TestStatus[][] statuses = {
+                {TestStatus.Fail, TestStatus.Pass},
+                {TestStatus.Pass, TestStatus.Pass},
+                {TestStatus.Pass, TestStatus.Fail},
+                {TestStatus.Pass, TestStatus.Pass}};
+        ResultInfo held = new ResultInfo();
+        ResultInfo windowOnly = new ResultInfo();
+        for (int i = 0; i < statuses.length; i++) {
+            FakePackageResult packageResult = new FakePackageResult("a")
+                    .addTest("Class1", "early", statuses[i][0])
+                    .addTest("Class1", "flaky", statuses[i][1]);
+            held.addPackage(i + 1, packageResult, "someUrl/");
+            if (i >= 2) {
+                windowOnly.addPackage(i + 1, packageResult, "someUrl/");
+            }
+        }
+        List<Integer> window = Arrays.asList(4, 3);
+        Set<String> toggled = Collections.emptySet();
+        JsTreeUtil util = new JsTreeUtil();
+
+        JSONArray rows = util.getJsRows(window, held.getPackageResults().values(), false, toggled, true, 0, 10, true)
+                .getJSONArray("rows");
+        Assert.assertEquals("flaky", rows.getJSONObject(2).getString("text"));
+        Assert.assertEquals(1.0, rows.getJSONObject(2).getDouble("flipRate"), 0);
+        Assert.assertEquals("early", rows.getJSONObject(3).getString("text"));
+        Assert.assertEquals(0.0, rows.getJSONObject(3).getDouble("flipRate"), 0);
+        // a history holding only the window, as served from the index file, shows the same rows
+        Assert.assertEquals(util.getJsRows(window, windowOnly.getPackageResults().values(), false, toggled, true, 0, 10, true),
+                util.getJsRows(window, held.getPackageResults().values(), false, toggled, true, 0, 10, true));
+
+        StringWriter out = new StringWriter();
+        util.writeCompactJsTree(out, window, held.getPackageResults().values(), false, Integer.MAX_VALUE);
+        JSONArray tests = JSONObject.fromObject(out.toString()).getJSONArray("results").getJSONObject(0)
+                .getJSONArray("children").getJSONObject(0).getJSONArray("children");
+        for (int i = 0; i < tests.size(); i++) {
+            JSONObject test = tests.getJSONObject(i);
+            Assert.assertEquals(test.getString("text"), "flaky".equals(test.getString("text")), test.has("flipRate"));
+        }
+
+        rows = util.getJsRows(Arrays.asList(4, 3, 2, 1), held.getPackageResults().values(), false, toggled, true, 0, 10, true)
+                .getJSONArray("rows");
+        Assert.assertEquals(2.0 / 3, rows.getJSONObject(2).getDouble("flipRate"), 1e-6);
+        Assert.assertEquals(1.0 / 3, rows.getJSONObject(3).getDouble("flipRate"), 1e-6);
+    }
+
+    @Test
+    public void flipsAreCountedWithinTheWindow() {
+        ResultInfo results = new ResultInfo();
+        TestStatus[][] statuses = {
+                {TestStatus.Fail, TestStatus.Pass},
+                {TestStatus.Pass, TestStatus.Pass},
+                {TestStatus.Pass, TestStatus.Fail},
+                {TestStatus.Pass, TestStatus.Pass}};
+        for (int i = 0; i < statuses.length; i++) {
+            results.addPackage(i + 1, new FakePackageResult("a")
+                    .addTest("Class1", "settled", statuses[i][0])
+                    .addTest("Class1", "flaky", statuses[i][1]), "someUrl/");
+        }
+
+        WorstTests window = new WorstTests(Arrays.asList(4, 3), WorstTests.Order.FLIPS, 10);
+        window.addAll(results.getPackageResults().values());
+        List<WorstTests.Test> tests = window.getTests();
+        Assert.assertEquals(1, tests.size());
+        Assert.assertEquals("a.Class1.flaky", tests.get(0).getName());
+        Assert.assertEquals(1, tests.get(0).getFlips());
+        Assert.assertEquals(1.0, tests.get(0).getFlipRate(), 0);
+
+        WorstTests all = new WorstTests(Arrays.asList(4, 3, 2, 1), WorstTests.Order.FLIPS, 10);
+        all.addAll(results.getPackageResults().values());
+        tests = all.getTests();
+        Assert.assertEquals(2, tests.size());
+        Assert.assertEquals("a.Class1.flaky", tests.get(0).getName());
+        Assert.assertEquals(2, tests.get(0).getFlips());
+        Assert.assertEquals(1, tests.get(1).getFlips());
+    }
+
     private static JSONObject buildRoot(JSONArray builds, JSONArray results) {
         JSONObject result = new JSONObject();
 
         result.put("builds", builds);
+        result.put("statuses", StatusTable.DEFAULT.toJson());
         result.put("results", results);
 
         return result;
@@ -131,7 +447,7 @@ public class JsTreeUtilTest {
         result.put("totalPassed", passed);
         result.put("totalSkipped", skipped);
         result.put("totalTimeTaken", 0);
-        result.put("status", status);
+        result.put("status", ResultStatus.valueOf(status).ordinal());
         result.put("url", url);
 
         return result;
@@ -141,7 +457,7 @@ public class JsTreeUtilTest {
         JSONObject result = new JSONObject();
 
         result.put("buildNumber", buildNumber.toString());
-        result.put("status", "N/A");
+        result.put("status", ResultStatus.NA.ordinal());
 
         return result;
     }
@@ -0,0 +1,68 @@
+import hudson.tasks.test.TestObject;
+import org.jenkinsci.plugins.testresultsanalyzer.result.adapter.GenericResultAdapter;
+import org.jenkinsci.plugins.testresultsanalyzer.result.adapter.ResultAdapter;
+import org.jenkinsci.plugins.testresultsanalyzer.result.adapter.TestNGResultAdapter;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.BuildResults;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.TestCaseInfo;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResultAdapterTest {
+
+    @Test
+    public void unknownResultsUseTheGenericAdapter() {
+        ResultAdapter adapter = ResultAdapter.forResult(new FakePackageResult("pn"));
+
+        Assert.assertTrue(adapter instanceof GenericResultAdapter);
+        Assert.assertEquals("testReport", adapter.getReportUrlName());
+    }
+
+    @Test
+    public void testNGStatusAndConfigAreReadThroughTheirAccessors() {
+        TestCaseInfo testCaseInfo = new TestCaseInfo();
+        testCaseInfo.putTestCaseResult(3, new StatusMethod("FAIL", true), new TestNGResultAdapter());
+        testCaseInfo.putTestCaseResult(4, new StatusMethod("PASS", false), new TestNGResultAdapter());
+
+        BuildResults results = testCaseInfo.getResults();
+        Assert.assertEquals(1, results.getTotalFailed(results.indexOf(3)));
+        Assert.assertTrue(results.isConfig(results.indexOf(3)));
+        Assert.assertEquals(1, results.getTotalPassed(results.indexOf(4)));
+        Assert.assertFalse(testCaseInfo.isConfig());
+    }
+
+    @Test
+    public void resultsWithoutStatusFallBackToTheirCounts() {
+        TestCaseInfo testCaseInfo = new TestCaseInfo();
+        testCaseInfo.putTestCaseResult(1, new FakeTestMethod(null, "method1", TestStatus.Skip), new TestNGResultAdapter());
+
+        BuildResults results = testCaseInfo.getResults();
+        Assert.assertEquals(1, results.getTotalSkipped(results.indexOf(1)));
+    }
+
+    /**
+     * Mimics a TestNG method result, which has no meaningful counts.
+     */
+    public static class StatusMethod extends FakeTestMethod {
+        private final String status;
+        private final boolean config;
+
+        public StatusMethod(String status, boolean config) {
+            super((TestObject) null, "method1", TestStatus.Pass);
+            this.status = status;
+            this.config = config;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public boolean isConfig() {
+            return config;
+        }
+
+        @Override
+        public int getPassCount() {
+            return 0;
+        }
+    }
+}
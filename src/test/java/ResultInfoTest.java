@@ -0,0 +1,177 @@
+import java.util.Arrays;
+
+import org.jenkinsci.plugins.testresultsanalyzer.DurationRegressions;
+import org.jenkinsci.plugins.testresultsanalyzer.ResultStatus;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.BuildResults;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ClassInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.DurationStatistics;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.PackageInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.ResultInfo;
+import org.jenkinsci.plugins.testresultsanalyzer.result.info.TestCaseInfo;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResultInfoTest {
+
+    @Test
+    public void removingBuildKeepsResultsOfOtherBuilds() {
+        ResultInfo results = new ResultInfo();
+        results.addPackage(1, new FakePackageResult("pn").addTest("Class1", "method1", TestStatus.Fail), "someUrl/");
+        results.addPackage(2, new FakePackageResult("pn").addTest("Class1", "method1", TestStatus.Pass), "someUrl/");
+
+        results.removeBuild(1);
+
+        PackageInfo packageInfo = results.getPackageResults().get("pn");
+        Assert.assertNull(packageInfo.getBuildResult(1));
+        Assert.assertEquals("PASSED", packageInfo.getBuildResult(2).getStatus());
+        ClassInfo classInfo = packageInfo.getClasses().get("Class1");
+        Assert.assertEquals(1, classInfo.getTests().get("method1").getBuildPackageResults().size());
+    }
+
+    @Test
+    public void removingLastBuildOfNodePrunesIt() {
+        ResultInfo results = new ResultInfo();
+        results.addPackage(1, new FakePackageResult("pn")
+                .addTest("Class1", "method1", TestStatus.Pass)
+                .addTest("Class2", "method1", TestStatus.Pass), "someUrl/");
+        results.addPackage(2, new FakePackageResult("pn").addTest("Class1", "method1", TestStatus.Pass), "someUrl/");
+        results.addPackage(1, new FakePackageResult("other").addTest("Class1", "method1", TestStatus.Pass), "someUrl/");
+
+        results.removeBuild(1);
+
+        Assert.assertFalse(results.getPackageResults().containsKey("other"));
+        PackageInfo packageInfo = results.getPackageResults().get("pn");
+        Assert.assertTrue(packageInfo.getClasses().containsKey("Class1"));
+        Assert.assertFalse(packageInfo.getClasses().containsKey("Class2"));
+    }
+
+    @Test
+    public void mergingBuildLocalTreesCombinesTheirResults() {
+        ResultInfo build1 = new ResultInfo();
+        build1.addPackage(1, new FakePackageResult("pn").addTest("Class1", "method1", TestStatus.Fail), "someUrl/");
+        ResultInfo build2 = new ResultInfo();
+        build2.addPackage(2, new FakePackageResult("pn")
+                .addTest("Class1", "method1", TestStatus.Pass)
+                .addTest("Class1", "method2", TestStatus.Skip), "someUrl/");
+
+        ResultInfo results = new ResultInfo();
+        results.merge(build2);
+        results.merge(build1);
+
+        ClassInfo classInfo = results.getPackageResults().get("pn").getClasses().get("Class1");
+        Assert.assertEquals("FAILED", classInfo.getBuildResult(1).getStatus());
+        Assert.assertEquals("PASSED", classInfo.getBuildResult(2).getStatus());
+        Assert.assertEquals(2, classInfo.getTests().get("method1").getBuildPackageResults().size());
+        Assert.assertEquals(1, classInfo.getTests().get("method2").getBuildPackageResults().size());
+    }
+
+    @Test
+    public void mergedNodesShareTheNamesOfTheirTree() {
+        ResultInfo build1 = new ResultInfo();
+        build1.addPackage(1, new FakePackageResult("pn").addTest("Class1", "method1", TestStatus.Pass), "someUrl/");
+        ResultInfo build2 = new ResultInfo();
+        build2.addPackage(2, new FakePackageResult("pn").addTest("Class2", new String("method1"), TestStatus.Pass), "someUrl/");
+
+        ResultInfo results = new ResultInfo();
+        results.merge(build1);
+        results.merge(build2);
+
+        PackageInfo packageInfo = results.getPackageResults().get("pn");
+        String name1 = packageInfo.getClasses().get("Class1").getTests().get("method1").getName();
+        String name2 = packageInfo.getClasses().get("Class2").getTests().get("method1").getName();
+        Assert.assertSame(name1, name2);
+        Assert.assertSame(name1, results.getNames().intern("method1"));
+        Assert.assertNotSame(name1, new ResultInfo().getNames().intern(new String("method1")));
+    }
+
+    @Test
+    public void buildResultsAreKeptInDescendingBuildOrder() {
+        ResultInfo results = new ResultInfo();
+        results.addPackage(2, new FakePackageResult("pn").addTest("Class1", "method1", TestStatus.Fail), "someUrl/");
+        results.addPackage(3, new FakePackageResult("pn").addTest("Class1", "method1", TestStatus.Pass)
+                .addTest("Class1", "method2", TestStatus.Skip), "someUrl/");
+        results.addPackage(1, new FakePackageResult("pn").addTest("Class1", "method1", TestStatus.Skip), "someUrl/");
+
+        BuildResults caseResults = results.getPackageResults().get("pn").getClasses().get("Class1")
+                .getTests().get("method1").getResults();
+        Assert.assertArrayEquals(new Object[]{3, 2, 1}, caseResults.keySet().toArray());
+        Assert.assertEquals(ResultStatus.FAILED, caseResults.getStatus(caseResults.indexOf(2)));
+        Assert.assertEquals(1, caseResults.getTotalSkipped(caseResults.indexOf(1)));
+        Assert.assertTrue(caseResults.indexOf(4) < 0);
+
+        BuildResults classResults = results.getPackageResults().get("pn").getClasses().get("Class1").getResults();
+        int index = classResults.indexOf(3);
+        Assert.assertEquals(2, classResults.getTotalTests(index));
+        Assert.assertEquals(1, classResults.getTotalPassed(index));
+        Assert.assertEquals(1, classResults.getTotalSkipped(index));
+        Assert.assertEquals("PASSED", classResults.get(3).getStatus());
+    }
+
+    @Test
+    public void urlsAreComputedFromTheReportUrlOfTheBuild() {
+        ResultInfo results = new ResultInfo();
+        results.addPackage(1, new FakePackageResult("pn").addTest("Class1", "method1", TestStatus.Pass), "http://jenkins/job/x/1/");
+        results.addPackage(2, new FakePackageResult("pn").addTest("Class1", "method1", TestStatus.Fail), "http://jenkins/job/x/2/");
+
+        PackageInfo packageInfo = results.getPackageResults().get("pn");
+        Assert.assertEquals("http://jenkins/job/x/1/testReport/pn", packageInfo.getBuildResult(1).getUrl());
+        Assert.assertEquals("http://jenkins/job/x/2/testReport/pn/Class1/method1",
+                packageInfo.getClasses().get("Class1").getTests().get("method1").getUrl(2));
+        Assert.assertNull(packageInfo.getClasses().get("Class1").getUrl(3));
+    }
+
+    @Test
+    public void flipsAreKeptWhileBuildsAreAddedOutOfOrderAndRemoved() {
+        ResultInfo results = new ResultInfo();
+        TestStatus[] statuses = {null, TestStatus.Pass, TestStatus.Fail, TestStatus.Skip, TestStatus.Pass, TestStatus.Pass};
+        for (int buildNumber : new int[]{5, 1, 3, 2, 4}) {
+            results.addPackage(buildNumber, new FakePackageResult("pn").addTest("Class1", "method1", statuses[buildNumber]), "someUrl/");
+        }
+
+        TestCaseInfo testCaseInfo = results.getPackageResults().get("pn").getClasses().get("Class1").getTests().get("method1");
+        // passed, failed, passed and passed once the skipped build is left out
+        Assert.assertEquals(2, testCaseInfo.getFlips());
+        Assert.assertEquals(2.0 / 3, testCaseInfo.getFlipRate(), 1e-9);
+
+        results.removeBuild(2);
+        Assert.assertEquals(0, testCaseInfo.getFlips());
+        Assert.assertEquals(0, testCaseInfo.getFlipRate(), 1e-9);
+    }
+
+    @Test
+    public void durationStatisticsFollowTheResultsAndFindRegressions() {
+        TestCaseInfo steady = new TestCaseInfo();
+        steady.setName("steady");
+        TestCaseInfo slower = new TestCaseInfo();
+        slower.setName("slower");
+        float[] durations = {1.0f, 1.2f, 0.8f, 1.1f, 0.9f, 1.0f};
+        // older builds are added last, so the moving average is computed again when it is read
+        for (int buildNumber = durations.length; buildNumber >= 1; buildNumber--) {
+            steady.getResults().put(buildNumber, 1, 0, 1, 0, durations[buildNumber - 1], false, null);
+            slower.getResults().put(buildNumber, 1, 0, 1, 0, durations[buildNumber - 1], false, null);
+        }
+        steady.getResults().put(7, 1, 0, 1, 0, 1.1f, false, null);
+        slower.getResults().put(7, 1, 0, 1, 0, 3.0f, false, null);
+        // a skipped result does not count
+        slower.getResults().put(8, 1, 0, 0, 1, 0f, false, null);
+
+        DurationStatistics statistics = slower.getDurationStatistics();
+        Assert.assertEquals(7, statistics.getCount());
+        Assert.assertEquals(9.0 / 7, statistics.getMean(), 1e-6);
+        DurationStatistics baseline = statistics.withoutNewest(3.0);
+        Assert.assertEquals(1.0, baseline.getMean(), 1e-6);
+        Assert.assertEquals(0.02, baseline.getVariance(), 1e-6);
+        Assert.assertEquals(0.3 * 3.0 + 0.7 * baseline.getEwma(), statistics.getEwma(), 1e-6);
+
+        DurationRegressions regressions = new DurationRegressions(Arrays.asList(8, 7, 6, 5, 4, 3, 2, 1), 10);
+        regressions.addAll(Arrays.asList(steady, slower));
+        Assert.assertEquals(1, regressions.getRegressions().size());
+        Assert.assertEquals("slower", regressions.getRegressions().get(0).getName());
+        Assert.assertEquals(7, regressions.getRegressions().get(0).getBuildNumber());
+        Assert.assertEquals(3.0, regressions.getRegressions().get(0).getSlowdown(), 1e-6);
+
+        slower.getResults().remove(7);
+        Assert.assertEquals(1.0, slower.getDurationStatistics().getMean(), 1e-6);
+        Assert.assertEquals(0.02, slower.getDurationStatistics().getVariance(), 1e-6);
+    }
+}
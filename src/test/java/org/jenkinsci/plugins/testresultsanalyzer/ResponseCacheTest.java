@@ -0,0 +1,35 @@
+package org.jenkinsci.plugins.testresultsanalyzer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+public class ResponseCacheTest {
+
+    @Test
+    public void recordsResponseWithinLimit() throws Exception {
+        StringWriter out = new StringWriter();
+        ResponseCache.Recorder recorder = new ResponseCache.Recorder(out, 64);
+        recorder.write("{\"builds\":");
+        recorder.write(new char[] {'[', '1', ']', '}'});
+
+        Assert.assertEquals("{\"builds\":[1]}", out.toString());
+        Assert.assertEquals("{\"builds\":[1]}", recorder.getRecorded());
+    }
+
+    @Test
+    public void oversizedResponseIsDeliveredButNotRecorded() throws Exception {
+        StringBuilder expected = new StringBuilder();
+        StringWriter out = new StringWriter();
+        ResponseCache.Recorder recorder = new ResponseCache.Recorder(out, 1000);
+        for (int i = 0; i < 200; i++) {
+            String chunk = "\"node" + i + "\",";
+            expected.append(chunk);
+            recorder.write(chunk);
+        }
+
+        Assert.assertEquals(expected.toString(), out.toString());
+        Assert.assertNull(recorder.getRecorded());
+    }
+}